@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2010 Peter Karich <jetwick_@_pannous_._info>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.data;
+
+import de.jetwick.tw.TweetCorpus;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The retweet detection which is done for every new tweet against the
+ * tweets of the same batch.
+ *
+ * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JTweetBenchmark {
+
+    private JTweet[][] pairs;
+    private int counter;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<JTweet[]> list = TweetCorpus.createRetweetPairs();
+        pairs = list.toArray(new JTweet[list.size()][]);
+    }
+
+    private JTweet[] next() {
+        counter++;
+        if (counter >= pairs.length)
+            counter = 0;
+        return pairs[counter];
+    }
+
+    @Benchmark
+    public boolean isRetweetOf() {
+        JTweet[] pair = next();
+        return pair[0].isRetweetOf(pair[1]);
+    }
+
+    /**
+     * the common case: the tweet is no retweet of the other one
+     */
+    @Benchmark
+    public boolean isRetweetOfMiss() {
+        JTweet[] pair = next();
+        return pair[0].isRetweetOf(pairs[(counter + 1) % pairs.length][1]);
+    }
+
+    @Benchmark
+    public String extractRTText() {
+        return next()[0].extractRTText();
+    }
+}
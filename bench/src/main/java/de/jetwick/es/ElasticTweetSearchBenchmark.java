@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2010 Peter Karich <jetwick_@_pannous_._info>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.data.UrlEntry;
+import de.jetwick.snacktory.JResult;
+import de.jetwick.tw.TweetCorpus;
+import de.jetwick.tw.UrlExtractor;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The conversion of tweets into the indexed source and back, which is done
+ * for every indexed and for every fetched tweet. No node is necessary.
+ *
+ * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElasticTweetSearchBenchmark {
+
+    private ElasticTweetSearch twSearch;
+    private JTweet[] tweets;
+    private Map<String, Object>[] sources;
+    private int counter;
+
+    @Setup
+    public void setUp() throws IOException {
+        twSearch = new ElasticTweetSearch();
+        UrlExtractor extractor = new UrlExtractor() {
+
+            @Override
+            public JResult getInfo(String originalUrl, int timeout) throws Exception {
+                return UrlEntry.createSimpleResult(originalUrl);
+            }
+        };
+
+        List<JTweet> list = TweetCorpus.createTweets(8);
+        tweets = list.toArray(new JTweet[list.size()]);
+        sources = new Map[tweets.length];
+        for (int i = 0; i < tweets.length; i++) {
+            for (UrlEntry ue : extractor.setTweet(tweets[i]).run().getUrlEntries()) {
+                tweets[i].addUrlEntry(ue);
+            }
+            sources[i] = JsonXContent.jsonXContent.createParser(twSearch.createDoc(tweets[i]).string()).mapAndClose();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        twSearch.finish();
+    }
+
+    private int next() {
+        counter++;
+        if (counter >= tweets.length)
+            counter = 0;
+        return counter;
+    }
+
+    @Benchmark
+    public XContentBuilder createDoc() throws IOException {
+        return twSearch.createDoc(tweets[next()]);
+    }
+
+    @Benchmark
+    public JTweet readDoc() {
+        int i = next();
+        return twSearch.readDoc(tweets[i].getId(), 1, sources[i]);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2010 Peter Karich <jetwick_@_pannous_._info>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.tw.TweetCorpus;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.WhitespaceTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tokenizes the tweet texts with the settings of the jetwickfilter like the
+ * analyzer of the tweet text field.
+ *
+ * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JetwickFilterFactoryBenchmark {
+
+    private String[] texts;
+    private int counter;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<String> list = TweetCorpus.readTexts();
+        texts = list.toArray(new String[list.size()]);
+    }
+
+    private String next() {
+        counter++;
+        if (counter >= texts.length)
+            counter = 0;
+        return texts[counter];
+    }
+
+    @Benchmark
+    public int tokenize() throws IOException {
+        // the defaults of JetwickFilterFactory
+        TokenStream ts = JetwickFilterFactory.myCreate(new WhitespaceTokenizer(new StringReader(next())),
+                "", "@#$€₱č₤", 1, 1, 0, 0, 0, 0, 1, 1, 0, null);
+        int tokens = 0;
+        while (ts.incrementToken()) {
+            tokens++;
+        }
+        ts.close();
+        return tokens;
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2010 Peter Karich <jetwick_@_pannous_._info>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.es.ElasticNode;
+import de.jetwick.es.ElasticTweetSearch;
+import de.jetwick.snacktory.HtmlFetcher;
+import de.jetwick.snacktory.JResult;
+import de.jetwick.util.AnyExecutor;
+import de.jetwick.util.GenericUrlResolver;
+import de.jetwick.util.Helper;
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures the tweets per second through the collector pipeline:
+ * TweetProducerOffline -> TweetConsumer -> GenericUrlResolver (with a
+ * fetcher which does not touch the network) -> ElasticTweetSearch queue ->
+ * embedded ElasticNode. The latency of a tweet is the time from its creation
+ * in the producer until its bulk request was answered.
+ *
+ * Run it from the bench directory after mvn package:
+ *
+ * java -cp target/benchmarks.jar de.jetwick.tw.IngestBenchmark seconds=120 rate=2000
+ *
+ * Parameters: seconds and warmup (the first seconds are not measured),
+ * rate (tweets per second, 0 means as fast as possible), openloop (drop
+ * tweets instead of waiting if the pipeline is full), urls (fraction of
+ * tweets with an url), fetchmillis (simulated fetch time), home and conf
+ * (directories of the elasticsearch node).
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class IngestBenchmark {
+
+    // latencies in milliseconds. the last bucket collects everything above
+    private final AtomicLongArray latencies = new AtomicLongArray(60 * 1000 + 1);
+    private final AtomicLong indexed = new AtomicLong(0);
+    private volatile boolean measure = false;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> map = Helper.parseArguments(args);
+        new IngestBenchmark().run(map);
+        System.exit(0);
+    }
+
+    private static String get(Map<String, String> map, String key, String defaultValue) {
+        String val = map.get(key);
+        return val == null ? defaultValue : val;
+    }
+
+    public void run(Map<String, String> map) throws Exception {
+        int seconds = Integer.parseInt(get(map, "seconds", "60"));
+        int warmup = Integer.parseInt(get(map, "warmup", "10"));
+        int rate = Integer.parseInt(get(map, "rate", "0"));
+        boolean openLoop = Boolean.parseBoolean(get(map, "openloop", "false"));
+        float urlRatio = Float.parseFloat(get(map, "urls", "0.3"));
+        final int fetchMillis = Integer.parseInt(get(map, "fetchmillis", "0"));
+        File home = new File(get(map, "home", "/tmp/es-ingest-bench"));
+        home.mkdirs();
+
+        ElasticNode node = new ElasticNode().start(home.getAbsolutePath(), get(map, "conf", "../es/config"), true);
+        ElasticTweetSearch tweetSearch = new ElasticTweetSearch(node.client());
+        tweetSearch.saveCreateIndex(tweetSearch.getIndexName(), false);
+        tweetSearch.waitUntilAvailable(10000);
+        tweetSearch.deleteAll();
+        tweetSearch.setBatchSize(Integer.parseInt(get(map, "batch", "200")));
+        tweetSearch.setConcurrentBulks(Integer.parseInt(get(map, "bulks", "1")));
+        tweetSearch.addListener(new AnyExecutor<JTweet>() {
+
+            @Override
+            public JTweet execute(JTweet tw) {
+                indexed.incrementAndGet();
+                if (measure) {
+                    int bucket = (int) Math.min(tw.getQueueAgeInMillis(), latencies.length() - 1);
+                    latencies.incrementAndGet(bucket);
+                }
+                return tw;
+            }
+        });
+
+        GenericUrlResolver resolver = new GenericUrlResolver(400);
+        resolver.setTweetSearch(tweetSearch);
+        resolver.setHtmlFetcher(new HtmlFetcher() {
+
+            @Override
+            public String getResolvedUrl(String urlAsString, int timeout) {
+                return urlAsString;
+            }
+
+            @Override
+            public JResult fetchAndExtract(String url, int timeout, boolean resolve) throws Exception {
+                if (fetchMillis > 0)
+                    Thread.sleep(fetchMillis);
+                return new JResult().setUrl(url).setTitle("title of " + url);
+            }
+        });
+        resolver.start();
+
+        TweetConsumer consumer = new TweetConsumer();
+        consumer.setResolver(resolver);
+        TweetProducerOffline producer = new TweetProducerOffline();
+        producer.setTweetsPerSec(rate).setOpenLoop(openLoop).setUrlRatio(urlRatio);
+        BlockingQueue<JTweet> producerQueue = consumer.register("producer-offline", 400, 100);
+        producer.setQueue(producerQueue);
+        consumer.start();
+        producer.start();
+
+        System.out.println("warmup " + warmup + " sec, measure " + seconds + " sec, rate:"
+                + (rate > 0 ? rate : "max") + " openloop:" + openLoop + " urls:" + urlRatio);
+        Thread.sleep(warmup * 1000L);
+
+        long startIndexed = indexed.get();
+        long startGcCount = getGcCount();
+        long startGcTime = getGcTime();
+        long start = System.currentTimeMillis();
+        measure = true;
+        long lastIndexed = startIndexed;
+        for (int i = 0; i < seconds; i++) {
+            Thread.sleep(1000);
+            long current = indexed.get();
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            System.out.println((i + 1) + "s\t" + (current - lastIndexed) + " tweets/s"
+                    + "\tproducer:" + producerQueue.size()
+                    + "\tstages:" + Arrays.toString(consumer.getStageQueueSizes())
+                    + "\tresolver:" + resolver.getInputQueue().size()
+                    + "\tindex queue:" + tweetSearch.getTodoObjects().size()
+                    + "\tpending:" + tweetSearch.getPendingObjects()
+                    + "\tbulks:" + tweetSearch.getBulksInFlight()
+                    + "\theap:" + heap.getUsed() / (1024 * 1024) + "MB");
+            lastIndexed = current;
+        }
+        measure = false;
+        float secs = (System.currentTimeMillis() - start) / 1000f;
+
+        producer.interrupt();
+        consumer.interrupt();
+        resolver.interrupt();
+        tweetSearch.finish();
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        System.out.println("throughput:\t" + (indexed.get() - startIndexed) / secs + " tweets/s");
+        System.out.println("latency ms:\tp50:" + getPercentile(0.5) + "\tp90:" + getPercentile(0.9)
+                + "\tp99:" + getPercentile(0.99) + "\tp999:" + getPercentile(0.999)
+                + "\tmax:" + getPercentile(1));
+        System.out.println("produced:\t" + producer.getProduced() + "\tdropped by producer:" + producer.getDropped()
+                + "\tcoalesced in index queue:" + tweetSearch.getCoalescedObjects());
+        System.out.println("gc:\t" + (getGcCount() - startGcCount) + " collections, "
+                + (getGcTime() - startGcTime) + " ms");
+        System.out.println("heap:\tused " + heap.getUsed() / (1024 * 1024) + "MB, committed "
+                + heap.getCommitted() / (1024 * 1024) + "MB, max " + heap.getMax() / (1024 * 1024) + "MB");
+        node.stop();
+    }
+
+    /**
+     * @return the smallest latency in milliseconds which is greater or equal
+     * than the specified fraction of all measured latencies
+     */
+    long getPercentile(double fraction) {
+        long all = 0;
+        for (int i = 0; i < latencies.length(); i++) {
+            all += latencies.get(i);
+        }
+        if (all == 0)
+            return 0;
+
+        long limit = (long) Math.ceil(fraction * all);
+        long sum = 0;
+        for (int i = 0; i < latencies.length(); i++) {
+            sum += latencies.get(i);
+            if (sum >= limit)
+                return i;
+        }
+        return latencies.length() - 1;
+    }
+
+    private static long getGcCount() {
+        long sum = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sum += Math.max(0, gc.getCollectionCount());
+        }
+        return sum;
+    }
+
+    private static long getGcTime() {
+        long sum = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sum += Math.max(0, gc.getCollectionTime());
+        }
+        return sum;
+    }
+}
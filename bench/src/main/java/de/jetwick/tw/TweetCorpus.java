@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2010 Peter Karich <jetwick_@_pannous_._info>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.data.JUser;
+import de.jetwick.util.Helper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The tweets of the corpus shared with the unit tests (tweets.txt) as input
+ * for the benchmarks.
+ *
+ * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
+ */
+public class TweetCorpus {
+
+    public static List<String> readTexts() throws IOException {
+        List<String> lines = Helper.readFile(Helper.createBuffReaderCP("/de/jetwick/tw/tweets.txt"));
+        List<String> texts = new ArrayList<String>(lines.size());
+        for (String line : lines) {
+            if (line.trim().isEmpty())
+                continue;
+            texts.add(line.replace("\\n", "\n").replace("\\t", "\t"));
+        }
+        return texts;
+    }
+
+    /**
+     * Creates the tweets of the corpus in the order of the file. They are
+     * distributed round robin to the specified number of users and every
+     * tweet is one minute older than the next.
+     */
+    public static List<JTweet> createTweets(int users) throws IOException {
+        List<JUser> userList = new ArrayList<JUser>(users);
+        for (int i = 0; i < users; i++) {
+            userList.add(new JUser("user" + i));
+        }
+
+        List<String> texts = readTexts();
+        List<JTweet> tweets = new ArrayList<JTweet>(texts.size());
+        long time = System.currentTimeMillis() - texts.size() * 60 * 1000L;
+        for (int i = 0; i < texts.size(); i++) {
+            JTweet tw = new JTweet(i + 1, texts.get(i), new Date(time + i * 60 * 1000L));
+            userList.get(i % users).addOwnTweet(tw);
+            tweets.add(tw);
+        }
+        return tweets;
+    }
+
+    /**
+     * @return for every retweet of the corpus the retweet and the original
+     * tweet created from its text and the retweeted user
+     */
+    public static List<JTweet[]> createRetweetPairs() throws IOException {
+        List<JTweet[]> pairs = new ArrayList<JTweet[]>();
+        long id = 1;
+        for (String text : readTexts()) {
+            JTweet retweet = new JTweet(id++, text, new JUser("retweeter"));
+            if (!retweet.isRetweet())
+                continue;
+
+            String lower = retweet.getLowerCaseText();
+            int index = lower.indexOf("rt @") + 4;
+            int end = index;
+            while (end < lower.length() && (Character.isLetterOrDigit(lower.charAt(end)) || lower.charAt(end) == '_')) {
+                end++;
+            }
+            if (end == index)
+                continue;
+
+            String orig = retweet.extractRTText();
+            if (orig.isEmpty())
+                continue;
+
+            pairs.add(new JTweet[]{retweet, new JTweet(id++, orig, new JUser(lower.substring(index, end)))});
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2010 Peter Karich <jetwick_@_pannous_._info>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.util.Helper;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the char scanning stripNoiseFromWord and term splitting of
+ * TweetDetector with the former regex based implementation.
+ *
+ * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TweetDetectorBenchmark {
+
+    private String[] tweets;
+    private int counter;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<String> lines = Helper.readFile(Helper.createBuffReaderCP("/de/jetwick/tw/tweets.txt"));
+        tweets = new String[lines.size()];
+        for (int i = 0; i < tweets.length; i++) {
+            tweets[i] = lines.get(i).replace("\\n", "\n").replace("\\t", "\t").toLowerCase();
+        }
+    }
+
+    private String next() {
+        counter++;
+        if (counter >= tweets.length)
+            counter = 0;
+        return tweets[counter];
+    }
+
+    @Benchmark
+    public String stripNoise() {
+        return TweetDetector.stripNoiseFromWord(next());
+    }
+
+    @Benchmark
+    public String stripNoiseRegex() {
+        return regexStripNoiseFromWord(next());
+    }
+
+    @Benchmark
+    public TweetDetector runOne() {
+        return new TweetDetector().runOne(next());
+    }
+
+    @Benchmark
+    public Map<String, Integer> runOneRegex() {
+        Map<String, Integer> terms = new LinkedHashMap<String, Integer>();
+        String[] tmpTerms = regexStripNoiseFromWord(next()).split("\\s");
+        for (String term : tmpTerms) {
+            if (term.length() < 2 || term.length() > 70 || term.startsWith("@"))
+                continue;
+
+            JTweet.LANG_DET_WORDS.get(term);
+            if (JTweet.NOISE_WORDS.get(term) == null) {
+                Integer integ = terms.put(term, 1);
+                if (integ != null)
+                    terms.put(term, integ + 1);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * the former regex based implementation of stripNoiseFromWord
+     */
+    static String regexStripNoiseFromWord(String str) {
+        if (str.length() < 2)
+            return str;
+
+        str = str.replaceAll("<b>", "");
+        str = str.replaceAll("</b>", "");
+        str = str.replaceAll("http[s]?://[^ ]*", " ");
+        str = str.replaceAll("[\\\"\\:\\;\\&\\.\\!\\?\\)\\(\\[\\]\\,\\>\\<\\-\\n\\t\\&]", " ");
+        str = str.replaceAll(" #", " ");
+        if (str.charAt(0) == '#')
+            str = str.substring(1);
+        str = str.replaceAll("^#", " ");
+        str = str.replaceAll(":-", " ");
+        str = str.replaceAll(";-", " ");
+        return str;
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2010 Peter Karich <jetwick_@_pannous_._info>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw.cmd;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the open addressing StringFreqMap with the former LinkedHashMap
+ * based implementation for tweet sized term maps.
+ *
+ * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringFreqMapBenchmark {
+
+    /**
+     * number of terms per map. A tweet has ~8 terms, the merged terms of
+     * the older tweets of one user have more
+     */
+    @Param({"8", "64"})
+    public int terms;
+    private String[][] termArrays;
+    private StringFreqMap[] maps;
+    private LegacyStringFreqMap[] legacyMaps;
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        Random rand = new Random(1);
+        termArrays = new String[64][];
+        maps = new StringFreqMap[termArrays.length];
+        legacyMaps = new LegacyStringFreqMap[termArrays.length];
+        for (int i = 0; i < termArrays.length; i++) {
+            termArrays[i] = new String[terms];
+            maps[i] = new StringFreqMap();
+            legacyMaps[i] = new LegacyStringFreqMap();
+            for (int j = 0; j < terms; j++) {
+                // small vocabulary so that maps overlap
+                String term = "term" + rand.nextInt(terms * 3);
+                termArrays[i][j] = term;
+                maps[i].inc(term, 1);
+                legacyMaps[i].inc(term, 1);
+            }
+        }
+    }
+
+    private int next() {
+        counter = (counter + 1) & (termArrays.length - 1);
+        return counter;
+    }
+
+    @Benchmark
+    public StringFreqMap inc() {
+        StringFreqMap map = new StringFreqMap(8);
+        for (String term : termArrays[next()]) {
+            map.inc(term, 1);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public LegacyStringFreqMap incLegacy() {
+        LegacyStringFreqMap map = new LegacyStringFreqMap(8);
+        for (String term : termArrays[next()]) {
+            map.inc(term, 1);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public double jaccard() {
+        int i = next();
+        StringFreqMap m1 = maps[i];
+        StringFreqMap m2 = maps[(i + 1) & (maps.length - 1)];
+        return m1.andSize(m2) / (double) m1.orSize(m2);
+    }
+
+    @Benchmark
+    public double jaccardLegacy() {
+        int i = next();
+        LegacyStringFreqMap m1 = legacyMaps[i];
+        LegacyStringFreqMap m2 = legacyMaps[(i + 1) & (legacyMaps.length - 1)];
+        return m1.andSize(m2) / (double) m1.orSize(m2);
+    }
+
+    @Benchmark
+    public StringFreqMap addOne2All() {
+        StringFreqMap merged = new StringFreqMap();
+        int i = next();
+        for (int j = 0; j < 8; j++) {
+            merged.addOne2All(maps[(i + j) & (maps.length - 1)]);
+        }
+        return merged;
+    }
+
+    @Benchmark
+    public LegacyStringFreqMap addOne2AllLegacy() {
+        LegacyStringFreqMap merged = new LegacyStringFreqMap();
+        int i = next();
+        for (int j = 0; j < 8; j++) {
+            merged.addOne2All(legacyMaps[(i + j) & (legacyMaps.length - 1)]);
+        }
+        return merged;
+    }
+}
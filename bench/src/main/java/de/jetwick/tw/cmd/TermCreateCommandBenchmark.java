@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2010 Peter Karich <jetwick_@_pannous_._info>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw.cmd;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.tw.TweetCorpus;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The quality and term calculation which TweetSearch.store does for every
+ * tweet. The corpus is distributed to a number of users so that every tweet
+ * is compared to the other tweets of its user. The terms of these older
+ * tweets are already calculated, like for tweets of the same batch.
+ *
+ * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TermCreateCommandBenchmark {
+
+    /**
+     * fewer users mean more own tweets to compare with
+     */
+    @Param({"4", "12"})
+    public int users;
+    private JTweet[] tweets;
+    private TermCreateCommand cmd;
+    private int counter;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<JTweet> list = TweetCorpus.createTweets(users);
+        tweets = list.toArray(new JTweet[list.size()]);
+        // do not remove terms as the tweets are reused
+        cmd = new TermCreateCommand(false);
+        for (JTweet tw : tweets) {
+            cmd.calcTermsWithoutNoise(tw);
+        }
+    }
+
+    private JTweet next() {
+        counter++;
+        if (counter >= tweets.length)
+            counter = 0;
+        return tweets[counter];
+    }
+
+    @Benchmark
+    public JTweet execute() {
+        JTweet tw = next();
+        // force the term calculation of the current tweet
+        tw.setTextTerms(new StringFreqMap());
+        tw.setQuality(JTweet.QUAL_MAX);
+        return cmd.execute(tw);
+    }
+
+    @Benchmark
+    public double checkSpamInExistingTweets() {
+        JTweet tw = next();
+        tw.setQuality(JTweet.QUAL_MAX);
+        return cmd.checkSpamInExistingTweets(tw, new StringFreqMap(), new StringFreqMap());
+    }
+
+    @Benchmark
+    public double calcJaccardIndex() {
+        JTweet tw = next();
+        return TermCreateCommand.calcJaccardIndex(tw.getTextTerms(),
+                tweets[(counter + 1) % tweets.length].getTextTerms());
+    }
+}
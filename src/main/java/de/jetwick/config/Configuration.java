@@ -50,6 +50,14 @@ public class Configuration {
     /**
      * @return either development or production. if empty it returns production
      */
+    /**
+     * @return true if the metrics should be served under /metrics for
+     * requests from the local host. The JMX bean is always registered.
+     */
+    public boolean isMetricsResourceEnabled() {
+        return "true".equals(get("jetslide.metrics.http"));
+    }
+
     public String getStage() {
         String key = "app.stage";
         String val = get(key);
@@ -74,6 +82,170 @@ public class Configuration {
         return Integer.parseInt(get(key, true));
     }
 
+    /**
+     * @return the number of bulk requests which are in flight at the same time
+     */
+    public int getTweetSearchConcurrentBulks() {
+        String key = get("jetslide.twsearch.bulk.concurrent");
+        if (key == null)
+            return 1;
+        return Integer.parseInt(key);
+    }
+
+    public long getTweetSearchBulkMaxBytes() {
+        String key = get("jetslide.twsearch.bulk.maxbytes");
+        if (key == null)
+            return 5 * 1024 * 1024;
+        return Long.parseLong(key);
+    }
+
+    /**
+     * @return milliseconds until a batch is indexed even if it is not full
+     */
+    public long getTweetSearchBulkFlushInterval() {
+        String key = get("jetslide.twsearch.bulk.flushinterval");
+        if (key == null)
+            return 30 * 1000;
+        return Long.parseLong(key);
+    }
+
+    /**
+     * @return the milliseconds a bulk request should take. If positive the
+     * batch size and the flush interval are adapted to it and the configured
+     * values are their upper bounds.
+     */
+    public long getTweetSearchBulkTargetLatency() {
+        String key = get("jetslide.twsearch.bulk.targetlatency");
+        if (key == null)
+            return 0;
+        return Long.parseLong(key);
+    }
+
+    /**
+     * @return the lower bound of the adaptive batch size or 0 to use a tenth
+     * of the batch size
+     */
+    public int getTweetSearchBulkMinBatch() {
+        String key = get("jetslide.twsearch.bulk.minbatch");
+        if (key == null)
+            return 0;
+        return Integer.parseInt(key);
+    }
+
+    /**
+     * @return the number of queued but not yet indexed tweets which blocks
+     * the producers
+     */
+    public int getTweetSearchMaxPending() {
+        String key = get("jetslide.twsearch.bulk.maxpending");
+        if (key == null)
+            return 2000;
+        return Integer.parseInt(key);
+    }
+
+    /**
+     * @return the hours of one partition index or 0 if the tweet index should
+     * not be partitioned by date
+     */
+    public int getTweetSearchPartitionHours() {
+        String key = get("jetslide.twsearch.partition.hours");
+        if (key == null)
+            return 0;
+        return Integer.parseInt(key);
+    }
+
+    /**
+     * @return the hours of one date bucket used to route tweets into shards
+     * or 0 if tweets are routed by id
+     */
+    public int getTweetSearchRoutingHours() {
+        String key = get("jetslide.twsearch.routing.hours");
+        if (key == null)
+            return 0;
+        return Integer.parseInt(key);
+    }
+
+    /**
+     * @return the number of search responses cached for identical queries
+     * or 0 to disable the result cache
+     */
+    public int getTweetSearchCacheSize() {
+        String key = get("jetslide.twsearch.cache.size");
+        if (key == null)
+            return 1000;
+        return Integer.parseInt(key);
+    }
+
+    /**
+     * @return the milliseconds a cached search response is used or -1 for
+     * the refresh interval of the index
+     */
+    public long getTweetSearchCacheTTL() {
+        String key = get("jetslide.twsearch.cache.ttl");
+        if (key == null)
+            return -1;
+        return Long.parseLong(key);
+    }
+
+    /**
+     * @return the number of facet responses cached for paging and sorting
+     * or 0 to disable the facet cache
+     */
+    public int getTweetSearchFacetCacheSize() {
+        String key = get("jetslide.twsearch.facetcache.size");
+        if (key == null)
+            return 1000;
+        return Integer.parseInt(key);
+    }
+
+    /**
+     * @return the milliseconds a cached facet response is used
+     */
+    public long getTweetSearchFacetCacheTTL() {
+        String key = get("jetslide.twsearch.facetcache.ttl");
+        if (key == null)
+            return 30000;
+        return Long.parseLong(key);
+    }
+
+    /**
+     * @return the number of threads processing the pages when copying an
+     * index or iterating over all users
+     */
+    public int getScanThreads() {
+        String key = get("jetslide.scan.threads");
+        if (key == null)
+            return 1;
+        return Integer.parseInt(key);
+    }
+
+    /**
+     * @return the maximal number of fetched scroll pages not yet processed
+     */
+    public int getScanInFlight() {
+        String key = get("jetslide.scan.inflight");
+        if (key == null)
+            return 2;
+        return Integer.parseInt(key);
+    }
+
+    /**
+     * @return the maximal number of tweets of one tsv or json export
+     */
+    public int getTweetSearchExportMaxDocs() {
+        String key = get("jetslide.twsearch.export.maxdocs");
+        if (key == null)
+            return 10000;
+        return Integer.parseInt(key);
+    }
+
+    public int getTweetSearchCommandThreads() {
+        String key = get("jetslide.twsearch.commandthreads");
+        if (key == null)
+            return 1;
+        return Integer.parseInt(key);
+    }
+
     public String getTweetSearchUrl() {
         String key = "jetslide.twsearch.url";
         return get(key, true);
@@ -133,6 +305,27 @@ public class Configuration {
         return Boolean.parseBoolean(key);
     }
 
+    public int getTweetConsumerExtractThreads() {
+        String key = get("jetslide.consumer.extractthreads");
+        if (key == null)
+            return 1;
+        return Integer.parseInt(key);
+    }
+
+    public int getTweetConsumerCheckThreads() {
+        String key = get("jetslide.consumer.checkthreads");
+        if (key == null)
+            return 2;
+        return Integer.parseInt(key);
+    }
+
+    public int getTweetConsumerQueueThreads() {
+        String key = get("jetslide.consumer.queuethreads");
+        if (key == null)
+            return 1;
+        return Integer.parseInt(key);
+    }
+
     public int getUrlResolverInputQueueSize() {
         String key = get("jetslide.urlresolver.inputqueuesize");
         if (key == null)
@@ -154,6 +347,49 @@ public class Configuration {
         return Integer.parseInt(key);
     }
 
+    /**
+     * @return true if the urls should be fetched via non-blocking
+     * connections. Then the resolver threads only extract the pages.
+     */
+    public boolean isUrlResolverAsync() {
+        return "true".equals(get("jetslide.urlresolver.async"));
+    }
+
+    /**
+     * @return the number of urls fetched at the same time in async mode
+     */
+    public int getUrlResolverMaxInFlight() {
+        String key = get("jetslide.urlresolver.maxinflight");
+        if (key == null)
+            return 1000;
+        return Integer.parseInt(key);
+    }
+
+    public int getUrlResolverConnectionsPerHost() {
+        String key = get("jetslide.urlresolver.perhost");
+        if (key == null)
+            return 4;
+        return Integer.parseInt(key);
+    }
+
+    public int getUrlResolverIOThreads() {
+        String key = get("jetslide.urlresolver.iothreads");
+        if (key == null)
+            return 2;
+        return Integer.parseInt(key);
+    }
+
+    /**
+     * @return the number of threads which resolve the host names in async
+     * mode. The lookup blocks so use more than the io threads.
+     */
+    public int getUrlResolverConnectThreads() {
+        String key = get("jetslide.urlresolver.connectthreads");
+        if (key == null)
+            return 20;
+        return Integer.parseInt(key);
+    }
+
     public int getUrlResolverTimeout() {
         String key = get("jetslide.urlresolver.timeout");
         if (key == null)
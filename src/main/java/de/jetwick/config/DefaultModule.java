@@ -29,8 +29,10 @@ import de.jetwick.tw.Credits;
 import de.jetwick.tw.TweetProducer;
 import de.jetwick.tw.TweetProducerViaSearch;
 import de.jetwick.tw.TwitterSearch;
+import de.jetwick.util.AsyncUrlFetcher;
 import de.jetwick.util.GenericUrlResolver;
 import de.jetwick.util.MaxBoundSet;
+import de.jetwick.util.Metrics;
 import org.elasticsearch.client.Client;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,14 +71,27 @@ public class DefaultModule extends AbstractModule {
                 config.getTweetSearchUrl(), ElasticNode.PORT);
 
         ElasticTweetSearch tweetSearch = new ElasticTweetSearch(client);
+        // UI and collector need to know the partitions for get requests
+        tweetSearch.setPartitionHours(config.getTweetSearchPartitionHours());
+        tweetSearch.setRoutingHours(config.getTweetSearchRoutingHours());
         try {
             tweetSearch.nodeInfo();
         } catch (Exception ex) {
             logger.warn("Problem to get node info:" + ex.getMessage());
         } 
+        try {
+            tweetSearch.setResultCache(config.getTweetSearchCacheSize(), config.getTweetSearchCacheTTL());
+            tweetSearch.setFacetCache(config.getTweetSearchFacetCacheSize(), config.getTweetSearchFacetCacheTTL());
+        } catch (Exception ex) {
+            logger.warn("Problem to create result cache:" + ex.getMessage());
+        }
+        tweetSearch.setScanThreads(config.getScanThreads(), config.getScanInFlight());
+        tweetSearch.setExportMaxDocs(config.getTweetSearchExportMaxDocs());
+        tweetSearch.registerMetrics(Metrics.getDefault(), "tweets");
         bind(ElasticTweetSearch.class).toInstance(tweetSearch);
 
         ElasticUserSearch userSearch = new ElasticUserSearch(client);
+        userSearch.setScanThreads(config.getScanThreads(), config.getScanInFlight());
         bind(ElasticUserSearch.class).toInstance(userSearch);
 
         ElasticTagSearch tagSearch = new ElasticTagSearch(client);
@@ -87,6 +102,13 @@ public class DefaultModule extends AbstractModule {
         final GenericUrlResolver urlResolver = new GenericUrlResolver(config.getUrlResolverQueueSize());
         urlResolver.setResolveThreads(config.getUrlResolverThreads());
         urlResolver.setResolveTimeout(config.getUrlResolverTimeout());
+        if (config.isUrlResolverAsync()) {
+            AsyncUrlFetcher asyncFetcher = new AsyncUrlFetcher(config.getUrlResolverIOThreads(),
+                    config.getUrlResolverConnectThreads(), urlResolver.getService()).
+                    setMaxConnectionsPerHost(config.getUrlResolverConnectionsPerHost()).
+                    setMaxTextLength(JTweet.MAX_LENGTH);
+            urlResolver.setAsyncFetcher(asyncFetcher).setMaxInFlight(config.getUrlResolverMaxInFlight());
+        }
 //        urlResolver.setMaxQueueSize(config.getUrlResolverHelperQueueSize());        
         return urlResolver;
     }
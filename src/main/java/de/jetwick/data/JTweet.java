@@ -83,6 +83,7 @@ public class JTweet implements ElasticObject<JTweet>, Serializable {
     private double longitude;
     private int updateCount;
     private boolean isProtected = false;
+    private int[] minHash;
 
     /**
      * You'll need to call init after that constructor
@@ -610,7 +611,14 @@ public class JTweet implements ElasticObject<JTweet>, Serializable {
     }
 
     public int getQueueAgeInSeconds() {
-        return Math.round((System.currentTimeMillis() - instantiatedAt.getTime()) / 1000f);
+        return Math.round(getQueueAgeInMillis() / 1000f);
+    }
+
+    /**
+     * @return the milliseconds since this object was created
+     */
+    public long getQueueAgeInMillis() {
+        return System.currentTimeMillis() - instantiatedAt.getTime();
     }
 
     public JTweet setFeedSource(String feedSource) {
@@ -669,9 +677,23 @@ public class JTweet implements ElasticObject<JTweet>, Serializable {
         for (Long val : a.getDuplicates()) {
             addDuplicate(val);
         }
+        if (minHash == null)
+            minHash = a.minHash;
         return this;
     }
 
+    /**
+     * @return the MinHash signature of the text terms used for near duplicate
+     * detection or null if not yet calculated
+     */
+    public int[] getMinHash() {
+        return minHash;
+    }
+
+    public void setMinHash(int[] minHash) {
+        this.minHash = minHash;
+    }
+
     public JTweet setProtected(boolean aProtected) {
         isProtected = aProtected;
         return this;
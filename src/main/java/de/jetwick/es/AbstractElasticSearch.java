@@ -18,12 +18,14 @@ package de.jetwick.es;
 import de.jetwick.data.DbObject;
 import de.jetwick.util.AnyExecutor;
 import de.jetwick.util.Helper;
+import de.jetwick.util.Metrics;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.lucene.search.Explanation;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
 import org.elasticsearch.action.admin.cluster.node.info.NodesInfoRequest;
@@ -48,7 +50,6 @@ import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.Requests;
 import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.common.StopWatch;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
@@ -74,6 +75,8 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
     private Logger logger = LoggerFactory.getLogger(getClass());
     protected boolean testing = false;
     protected Client client;
+    private int scanThreads = 1;
+    private int scanInFlight = 2;
     
     AbstractElasticSearch() {
     }
@@ -146,38 +149,68 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
         client.admin().cluster().health(new ClusterHealthRequest(name).waitForGreenStatus()).actionGet();
     }
 
+    /**
+     * Executes any for all objects of the index. If more than one scan thread
+     * is configured the executor has to be thread safe.
+     */
     public void executeForAll(AnyExecutor<T> any, int pageSize) {
         long keepTimeInMinutes = 60;
-        scanThis(any, QueryBuilders.matchAllQuery(), keepTimeInMinutes, pageSize);
+        scanThis(any, QueryBuilders.matchAllQuery(), keepTimeInMinutes, pageSize, scanThreads);
     }
 
     public void scanThis(AnyExecutor<T> any, QueryBuilder query,
             long keepTimeInMinutes, int pageSize) {
+        scanThis(any, query, keepTimeInMinutes, pageSize, 1);
+    }
+
+    void scanThis(AnyExecutor<T> any, QueryBuilder query,
+            long keepTimeInMinutes, int pageSize, int threads) {
         SearchRequestBuilder srb = client.prepareSearch(getIndexName()).
                 setQuery(query).setSize(pageSize).
                 setSearchType(SearchType.SCAN).
                 setScroll(TimeValue.timeValueMinutes(keepTimeInMinutes));
-        SearchResponse rsp = srb.execute().actionGet();
-
         try {
-            int counter = 0;
-            while (true) {
-                rsp = client.prepareSearchScroll(rsp.scrollId()).
-                        setScroll(TimeValue.timeValueMinutes(keepTimeInMinutes)).execute().actionGet();
-                long currentResults = rsp.hits().hits().length;
-                logger.info("(" + counter++ + ") scanquery with " + pageSize + " page size and " + currentResults + " hits");
-                if (currentResults == 0)
-                    break;
-
-                for (T t : collectObjects(rsp)) {
-                    any.execute(t);
-                }
-            }
+            scan(srb, any, keepTimeInMinutes, threads);
         } catch (Exception ex) {
             logger.error("Cannot run scanThis", ex);
         }
     }
 
+    /**
+     * The number of threads used to process the pages of executeForAll and
+     * mergeIndices and the maximal number of fetched pages waiting for them.
+     */
+    public void setScanThreads(int scanThreads, int scanInFlight) {
+        this.scanThreads = scanThreads;
+        this.scanInFlight = Math.max(scanThreads, scanInFlight);
+    }
+
+    /**
+     * Executes the specified scan request and passes all hits in scroll order
+     * to the executor. The next page is fetched while the current one is
+     * processed, so at most two pages of objects are in memory.
+     *
+     * @return the number of scanned objects
+     */
+    protected long scan(SearchRequestBuilder scanRequest, AnyExecutor<T> any, long keepTimeInMinutes) {
+        return scan(scanRequest, any, keepTimeInMinutes, 1);
+    }
+
+    long scan(SearchRequestBuilder scanRequest, final AnyExecutor<T> any, long keepTimeInMinutes, int threads) {
+        return new ParallelScanner<T>(client, this).setThreads(threads, Math.max(threads, scanInFlight)).
+                setName("scan " + getIndexName()).
+                scan(scanRequest, keepTimeInMinutes, new AnyExecutor<List<T>>() {
+
+            @Override
+            public List<T> execute(List<T> objs) {
+                for (T t : objs) {
+                    any.execute(t);
+                }
+                return objs;
+            }
+        });
+    }
+
     public void refresh() {
         refresh(getIndexName());
     }
@@ -266,12 +299,16 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
         SearchRequestBuilder srb = createSearchBuilder();
         srb.setExplain(query.isExplain());
         query.initRequestBuilder(srb);
+        initRouting(srb, query);
         if (log)
             try {
                 logger.info(srb.internalBuilder().toXContent(JsonXContent.contentBuilder(), null).string());
             } catch (Exception ex) {
             }
-        return srb.execute().actionGet();
+        long start = System.nanoTime();
+        SearchResponse rsp = srb.execute().actionGet();
+        Metrics.getDefault().histogram("query." + query.getClass().getSimpleName()).recordSince(start);
+        return rsp;
     }
 
     public List<T> search(JetwickQuery q) {
@@ -304,8 +341,11 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
 
     /**
      * All indices has to be created before!
+     *
+     * @return the number of matching objects which were not copied e.g. due
+     * to failed bulk requests or an aborted scan
      */
-    public void mergeIndices(Collection<String> indexList, String intoIndex,
+    public long mergeIndices(Collection<String> indexList, final String intoIndex,
             int hitsPerPage, boolean forceRefresh, CreateObjectsInterface<T> createObj,
             FilterBuilder additionalFilter) {
         if (forceRefresh) {
@@ -314,7 +354,8 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
         }
 
         int keepTime = 100;
-        for (String fromIndex : indexList) {
+        long notCopied = 0;
+        for (final String fromIndex : indexList) {
             SearchRequestBuilder srb = client.prepareSearch(fromIndex).
                     setVersion(true).
                     setQuery(QueryBuilders.matchAllQuery()).setSize(hitsPerPage).
@@ -322,39 +363,45 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
                     setScroll(TimeValue.timeValueMinutes(keepTime));
             if (additionalFilter != null)
                 srb.setFilter(additionalFilter);
-            SearchResponse rsp = srb.execute().actionGet();
 
+            final AtomicLong failed = new AtomicLong(0);
+            final AtomicLong copied = new AtomicLong(0);
+            long expected = -1;
             try {
-                long total = rsp.hits().totalHits();
-                int collectedResults = 0;
-                while (true) {
-                    StopWatch queryWatch = new StopWatch().start();
-                    rsp = client.prepareSearchScroll(rsp.scrollId()).
-                            setScroll(TimeValue.timeValueMinutes(keepTime)).execute().actionGet();
-                    long currentResults = rsp.hits().hits().length;
-                    if (currentResults == 0)
-                        break;
-
-                    queryWatch.stop();
-                    Collection<T> objs = createObj.collectObjects(rsp);
-                    StopWatch updateWatch = new StopWatch().start();
-                    int failed = bulkUpdate(objs, intoIndex, false, false).size();
-                    // trying to enable flushing to avoid memory issues on the server side?
-                    flush(intoIndex);
-                    updateWatch.stop();
-                    collectedResults += currentResults;
-                    logger.info("Progress " + collectedResults + "/" + total + " fromIndex="
-                            + fromIndex + " update:" + updateWatch.totalTime().getSeconds() + " query:" + queryWatch.totalTime().getSeconds() + " failed:" + failed);
-                }
-                logger.info("Finished copying of index:" + fromIndex + ". Total:" + total + " collected:" + collectedResults);
+                QueryBuilder countQuery = QueryBuilders.matchAllQuery();
+                if (additionalFilter != null)
+                    countQuery = QueryBuilders.filteredQuery(countQuery, additionalFilter);
+                expected = client.prepareCount(fromIndex).setQuery(countQuery).execute().actionGet().getCount();
+
+                // several bulk requests are sent concurrently if scanThreads > 1
+                long collected = new ParallelScanner<T>(client, createObj).
+                        setThreads(scanThreads, scanInFlight).
+                        setName("copy " + fromIndex + " into " + intoIndex).
+                        scan(srb, keepTime, new AnyExecutor<List<T>>() {
+
+                    @Override
+                    public List<T> execute(List<T> objs) {
+                        int failedObjs = bulkUpdate(objs, intoIndex, false, false).size();
+                        failed.addAndGet(failedObjs);
+                        copied.addAndGet(objs.size() - failedObjs);
+                        // trying to enable flushing to avoid memory issues on the server side?
+                        flush(intoIndex);
+                        return objs;
+                    }
+                });
+                logger.info("Finished copying of index:" + fromIndex + ". Collected:" + collected + " failed:" + failed.get());
             } catch (Exception ex) {
 //                throw new RuntimeException(ex);
                 logger.error("Failed to copy data from index " + fromIndex + " into " + intoIndex + ".", ex);
             }
+
+            // if even the count failed at least one object is unknown
+            notCopied += expected < 0 ? 1 : Math.max(0, expected - copied.get());
         }
 
         if (forceRefresh)
             refresh(intoIndex);
+        return notCopied;
     }
 
     /**
@@ -398,6 +445,22 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
      * @return the id's of the failed objects (e.g. due to versioning)
      */
     public Collection<Integer> bulkUpdate(Collection<T> objects, String indexName, boolean refresh, boolean enableVersioning) {
+        BulkRequestBuilder brb = createBulkRequest(objects, indexName, enableVersioning);
+        if (brb.numberOfActions() > 0) {
+            long start = System.nanoTime();
+            BulkResponse rsp = brb.execute().actionGet();
+            List<Integer> failed = getFailedItems(rsp);
+            recordBulk(brb.numberOfActions(), failed.size(), start);
+            if (!failed.isEmpty())
+                return failed;
+            if (refresh)
+                refresh(indexName);
+        }
+
+        return Collections.emptyList();
+    }
+
+    protected BulkRequestBuilder createBulkRequest(Collection<T> objects, String indexName, boolean enableVersioning) {
         // now using bulk API instead of feeding each doc separate with feedDoc
         BulkRequestBuilder brb = client.prepareBulk();
         // this works differently then the direct call to refresh!? maybe refresh is not async?
@@ -410,33 +473,73 @@ public abstract class AbstractElasticSearch<T extends DbObject> implements Creat
 
             try {
                 XContentBuilder source = createDoc(o);
-                IndexRequest indexReq = Requests.indexRequest(indexName).type(getIndexType()).id(o.getId()).source(source);
+                IndexRequest indexReq = Requests.indexRequest(getWriteIndex(o, indexName)).type(getIndexType()).id(o.getId()).source(source);
                 
                 if (enableVersioning)
                     indexReq.version(o.getVersion());
 
+                String routing = getRouting(o);
+                if (routing != null)
+                    indexReq.routing(routing);
+
                 brb.add(indexReq);
             } catch (IOException ex) {
                 logger.warn("Cannot add object:" + o + " to bulkIndexing action." + ex.getMessage());
             }
         }
-        if (brb.numberOfActions() > 0) {
-            BulkResponse rsp = brb.execute().actionGet();
-            if (rsp.hasFailures()) {
-                List<Integer> list = new ArrayList<Integer>(rsp.items().length);
-                for (BulkItemResponse br : rsp.items()) {                    
-                    if(br.isFailed()) {
-//                        logger.info("Error:" + br.failureMessage());
-                        list.add(br.itemId());
-                    }
-                }
-                return list;
+        return brb;
+    }
+
+    /**
+     * Records size, latency and failures of a finished bulk request
+     */
+    protected void recordBulk(int actions, int failed, long startNanos) {
+        Metrics metrics = Metrics.getDefault();
+        metrics.histogram("bulk.latency").recordSince(startNanos);
+        metrics.histogram("bulk.size").record(actions);
+        metrics.counter("bulk.docs").addAndGet(actions);
+        if (failed > 0)
+            metrics.counter("bulk.failures").addAndGet(failed);
+    }
+
+    /**
+     * @return the id's of the failed objects (e.g. due to versioning)
+     */
+    protected List<Integer> getFailedItems(BulkResponse rsp) {
+        if (!rsp.hasFailures())
+            return Collections.emptyList();
+
+        List<Integer> list = new ArrayList<Integer>(rsp.items().length);
+        for (BulkItemResponse br : rsp.items()) {                    
+            if(br.isFailed()) {
+//                logger.info("Error:" + br.failureMessage());
+                list.add(br.itemId());
             }
-            if (refresh)
-                refresh(indexName);
         }
+        return list;
+    }
 
-        return Collections.emptyList();
+    /**
+     * @return the index where the specified object should be written to if
+     * bulkUpdate was called with indexName. E.g. if indexName is an alias.
+     */
+    protected String getWriteIndex(T o, String indexName) {
+        return indexName;
+    }
+
+    /**
+     * @return the routing value of the specified object or null to route it
+     * by its id
+     */
+    protected String getRouting(T o) {
+        return null;
+    }
+
+    /**
+     * Restricts the shards of a search for the specified query. E.g. if the
+     * documents are routed by a property which is filtered.
+     */
+    protected void initRouting(SearchRequestBuilder srb, JetwickQuery query) {
     }
 
     public void flush(String... indices) {
@@ -16,16 +16,22 @@
 package de.jetwick.es;
 
 import de.jetwick.data.DbObject;
+import de.jetwick.util.Metrics;
+import de.jetwick.util.Metrics.Gauge;
 import de.jetwick.util.MyDate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.client.Client;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +40,15 @@ import org.slf4j.LoggerFactory;
  * This class was necessary to properly support versioning, because
  * failed objects need to re-added but at a later time.
  * 
+ * The queue thread collects the queued objects into batches. A batch is
+ * processed if it contains batchSize objects, if its estimated size exceeds
+ * bulkMaxBytes or if its first object is older than bulkFlushInterval. The
+ * bulk requests of a batch are sent asynchronously so that up to
+ * concurrentBulks requests are in flight while the next batch is collected.
+ * queueObjects blocks if more than maxPendingObjects are not yet indexed.
+ * With an AdaptiveBatchSize the batch size and the flush interval are tuned
+ * from the answered bulk requests.
+ * 
  * To be migrated into AbstractElasticSearch so that all data objects can support versioning
  * 
  * @author Peter Karich, jetwick_@_pannous_._info
@@ -43,13 +58,21 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
 
     private Logger logger = LoggerFactory.getLogger(getClass());
     protected int removeOlderThanMinutes = Integer.MAX_VALUE;
-    private BlockingQueue<T> todoObjects;
+    private CoalescingQueue<T> todoObjects;
     private BlockingDeque<FailedObject<T>> failedObjects = new LinkedBlockingDeque<FailedObject<T>>();
     private int bulkUpdateSize = 200;
     private transient long bulkIndexingWait = 3 * 1000L;
+    private long bulkFlushInterval = 10 * bulkIndexingWait;
+    private long bulkMaxBytes = 5 * 1024 * 1024;
+    private int concurrentBulks = 1;
+    private final ResizableSemaphore bulkPermits = new ResizableSemaphore(concurrentBulks);
+    private int maxPendingObjects = 2000;
+    private final ResizableSemaphore pendingPermits = new ResizableSemaphore(maxPendingObjects);
+    private final AtomicInteger pendingObjects = new AtomicInteger(0);
+    private final ThreadLocal<Batch> currentBatch = new ThreadLocal<Batch>();
+    private volatile AdaptiveBatchSize adaptiveBatchSize;
     private Thread todoObjectsThread;
     private Thread failedObjsThread;
-    private AtomicInteger todoCount = new AtomicInteger(0);
 
     public AbstractElasticSearchQueueEnabled(String url) {
         super(url);
@@ -74,6 +97,7 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
         this.testing = testing;
         if (testing) {
             bulkIndexingWait = 1;
+            bulkFlushInterval = 20;
         }
     }
 
@@ -85,6 +109,145 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
         return bulkUpdateSize;
     }
 
+    /**
+     * @param bulkFlushInterval the maximal time in milliseconds a batch waits
+     * for more objects
+     */
+    public void setBulkFlushInterval(long bulkFlushInterval) {
+        this.bulkFlushInterval = bulkFlushInterval;
+    }
+
+    /**
+     * @param bulkMaxBytes the estimated size of a batch which triggers its
+     * processing
+     */
+    public void setBulkMaxBytes(long bulkMaxBytes) {
+        this.bulkMaxBytes = bulkMaxBytes;
+    }
+
+    /**
+     * @param concurrentBulks the maximal number of bulk requests which are
+     * sent but not yet answered. With one bulk the requests are sent
+     * synchronously.
+     */
+    public synchronized void setConcurrentBulks(int concurrentBulks) {
+        if (concurrentBulks < 1)
+            throw new IllegalArgumentException("concurrentBulks must be positive but was " + concurrentBulks);
+        bulkPermits.resize(this.concurrentBulks, concurrentBulks);
+        this.concurrentBulks = concurrentBulks;
+    }
+
+    public int getConcurrentBulks() {
+        return concurrentBulks;
+    }
+
+    /**
+     * @param adaptiveBatchSize overrules batchSize and bulkFlushInterval or
+     * null to use them directly
+     */
+    public void setAdaptiveBatchSize(AdaptiveBatchSize adaptiveBatchSize) {
+        this.adaptiveBatchSize = adaptiveBatchSize;
+    }
+
+    public AdaptiveBatchSize getAdaptiveBatchSize() {
+        return adaptiveBatchSize;
+    }
+
+    /**
+     * @param maxPendingObjects the number of queued but not yet indexed objects
+     * which blocks queueObjects
+     */
+    public synchronized void setMaxPendingObjects(int maxPendingObjects) {
+        if (maxPendingObjects < 1)
+            throw new IllegalArgumentException("maxPendingObjects must be positive but was " + maxPendingObjects);
+        pendingPermits.resize(this.maxPendingObjects, maxPendingObjects);
+        this.maxPendingObjects = maxPendingObjects;
+    }
+
+    /**
+     * @return the number of queued objects which are not yet indexed
+     */
+    public int getPendingObjects() {
+        return pendingObjects.get();
+    }
+
+    /**
+     * @return the number of queued objects which were merged into an already
+     * queued object with the same id
+     */
+    public long getCoalescedObjects() {
+        return getTodoObjects().getCoalesced();
+    }
+
+    public int getBulksInFlight() {
+        return concurrentBulks - bulkPermits.availablePermits();
+    }
+
+    /**
+     * Registers the gauges of the indexing queue under the specified prefix
+     */
+    public void registerMetrics(Metrics metrics, String prefix) {
+        metrics.register(prefix + ".queue", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return getTodoObjects().size();
+            }
+        }).register(prefix + ".pending", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return getPendingObjects();
+            }
+        }).register(prefix + ".coalesced", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return getCoalescedObjects();
+            }
+        }).register(prefix + ".bulksInFlight", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return getBulksInFlight();
+            }
+        }).register(prefix + ".failedQueue", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return getRawFailedObjects().size();
+            }
+        }).register(prefix + ".batchSize", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                AdaptiveBatchSize abs = adaptiveBatchSize;
+                return abs == null ? bulkUpdateSize : abs.getBatchSize();
+            }
+        }).register(prefix + ".flushInterval", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                AdaptiveBatchSize abs = adaptiveBatchSize;
+                return abs == null ? bulkFlushInterval : abs.getFlushInterval();
+            }
+        }).register(prefix + ".batchSize.increases", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                AdaptiveBatchSize abs = adaptiveBatchSize;
+                return abs == null ? null : abs.getIncreases();
+            }
+        }).register(prefix + ".batchSize.decreases", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                AdaptiveBatchSize abs = adaptiveBatchSize;
+                return abs == null ? null : abs.getDecreases();
+            }
+        });
+    }
+
     public void setRemoveOlderThanDays(int removeDays) {
         setRemoveOlderThanHours(removeDays * 24);
     }
@@ -101,21 +264,148 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
 
     public abstract void innerThreadMethod() throws InterruptedException;
 
+    /**
+     * @return the estimated size of the document in bytes
+     */
+    protected int getEstimatedSize(T o) {
+        return 1024;
+    }
+
     public void queueFailedObject(T o) {
         getRawFailedObjects().offer(new FailedObject<T>(System.currentTimeMillis(), o));
     }
 
+    /**
+     * Called for every object which could not be indexed via
+     * bulkUpdateAndRequeue
+     */
+    protected void onFailedObject(T o) {
+        queueFailedObject(o);
+    }
+
+    /**
+     * Indexes the objects and passes the failed ones to onFailedObject. If
+     * called from innerThreadMethod and concurrentBulks is greater than one
+     * the bulk request is sent asynchronously. It blocks only if already
+     * concurrentBulks requests are in flight.
+     */
+    protected void bulkUpdateAndRequeue(final List<T> objects, String indexName) {
+        final Batch batch = currentBatch.get();
+        BulkRequestBuilder brb = createBulkRequest(objects, indexName, hasVersionSupport());
+        if (brb.numberOfActions() == 0)
+            return;
+
+        if (batch == null || concurrentBulks <= 1) {
+            long start = System.nanoTime();
+            onBulkResponse(objects, brb.execute().actionGet(), brb.numberOfActions(), start);
+            return;
+        }
+
+        try {
+            bulkPermits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        batch.open.incrementAndGet();
+        final int actions = brb.numberOfActions();
+        final long start = System.nanoTime();
+        try {
+            brb.execute(new ActionListener<BulkResponse>() {
+
+                @Override
+                public void onResponse(BulkResponse rsp) {
+                    try {
+                        onBulkResponse(objects, rsp, actions, start);
+                    } finally {
+                        bulkPermits.release();
+                        batch.finish();
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    logger.error("Bulk request with " + objects.size() + " objects failed", e);
+                    try {
+                        recordBulk(actions, actions, start);
+                        onBulkAnswered(actions, start);
+                        for (T o : objects) {
+                            onFailedObject(o);
+                        }
+                    } finally {
+                        bulkPermits.release();
+                        batch.finish();
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            bulkPermits.release();
+            batch.finish();
+            throw ex;
+        }
+    }
+
+    private void onBulkResponse(List<T> objects, BulkResponse rsp, int actions, long startNanos) {
+        List<Integer> failed = getFailedItems(rsp);
+        recordBulk(actions, failed.size(), startNanos);
+        int overloaded = 0;
+        if (rsp.hasFailures()) {
+            for (BulkItemResponse br : rsp.items()) {
+                if (br.isFailed() && AdaptiveBatchSize.isOverload(br.failureMessage()))
+                    overloaded++;
+            }
+        }
+        onBulkAnswered(overloaded, startNanos);
+        for (Integer integ : failed) {
+            onFailedObject(objects.get(integ));
+        }
+    }
+
+    private void onBulkAnswered(int overloaded, long startNanos) {
+        AdaptiveBatchSize abs = adaptiveBatchSize;
+        if (abs != null)
+            abs.onBulk(overloaded, (System.nanoTime() - startNanos) / 1000000, getTodoObjects().size());
+    }
+
+    /**
+     * Runs the specified task after all bulk requests of the current batch
+     * were answered or immediately if not called from innerThreadMethod.
+     */
+    protected void runAfterIndexing(Runnable task) {
+        Batch batch = currentBatch.get();
+        if (batch == null)
+            task.run();
+        else
+            batch.afterIndexing.add(task);
+    }
+
     protected int getTodoObjectsSize() {
         return 1000;
     }
 
-    public synchronized BlockingQueue<T> getTodoObjects() {
+    public synchronized CoalescingQueue<T> getTodoObjects() {
         if (todoObjects == null)
-            todoObjects = new LinkedBlockingDeque<T>(getTodoObjectsSize());
+            todoObjects = new CoalescingQueue<T>(getTodoObjectsSize()) {
+
+                @Override
+                protected T merge(T queued, T o) {
+                    return AbstractElasticSearchQueueEnabled.this.merge(queued, o);
+                }
+            };
 
         return todoObjects;
     }
 
+    /**
+     * Called if an object is queued while another object with the same id is
+     * still in the queue.
+     *
+     * @return the object which should be indexed instead of both
+     */
+    protected T merge(T queued, T o) {
+        return o;
+    }
+
     private synchronized BlockingDeque<FailedObject<T>> getRawFailedObjects() {
         if (failedObjects == null)
             failedObjects = new LinkedBlockingDeque<FailedObject<T>>();
@@ -128,41 +418,32 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
     }
 
     public void queueObjects(Collection<T> objs) {        
-        todoCount.addAndGet(objs.size());
         try {
             int cap = getTodoObjects().remainingCapacity();
             long start = System.currentTimeMillis();
             for (T t : objs) {
-                getTodoObjects().put(t);
+                // released if the batch containing the object was indexed
+                pendingPermits.acquire();
+                pendingObjects.incrementAndGet();
+                if (getTodoObjects().put(t)) {
+                    // merged objects are indexed together with the queued one
+                    pendingObjects.decrementAndGet();
+                    pendingPermits.release();
+                }
             }
             float secs = (System.currentTimeMillis() - start) / 1000f;
             if (secs > 1) {
                 logger.error("ES too slow? Putting " + objs.size()
                         + " objects into queue took too long (" + secs + " secs)"
                         + " Capacity is:" + getTodoObjects().remainingCapacity()
-                        + " and was before queueing:" + cap);
+                        + " and was before queueing:" + cap
+                        + " Pending:" + pendingObjects.get());
             }
         } catch (Exception ex) {
             logger.error("problem while queueObjects", ex);
         }
     }
 
-    void skipAlreadyQueued(Collection<T> newObjs, Collection<T> existing) {
-        // TODO PERFORMANCE use separate set which stores queued objects!
-        Iterator<T> iter = newObjs.iterator();
-        while (iter.hasNext()) {
-            T newT = iter.next();
-            for (T existingT : existing) {
-                if (existingT.equals(newT)) {
-                    // TODO
-//                    existingT.updateFrom(newT);
-                    iter.remove();
-                    break;
-                }
-            }
-        }
-    }
-
     @Override
     public boolean hasVersionSupport() {
         return true;
@@ -217,33 +498,50 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
                     getTodoObjects();
                     while (!isInterrupted()) {
                         try {
-                            // use 'take' and this while loop to make sure that 
-                            // all of the objects added via todoObjects.addAll 
-                            // will be updated in one batch (via innerThreadMethod)
+                            // wait for the first object and then collect until
+                            // one of the limits of the batch is reached
                             int counter = 0;
+                            long bytes = 0;
+                            long flushTime = 0;
+                            int batchSize = bulkUpdateSize;
+                            long flushInterval = bulkFlushInterval;
+                            AdaptiveBatchSize abs = adaptiveBatchSize;
+                            if (abs != null) {
+                                batchSize = abs.getBatchSize();
+                                flushInterval = abs.getFlushInterval();
+                            }
                             while (true) {
-                                T obj = todoObjects.take();
+                                T obj;
+                                if (counter == 0) {
+                                    obj = todoObjects.take();
+                                    flushTime = System.currentTimeMillis() + flushInterval;
+                                } else {
+                                    obj = todoObjects.poll(flushTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                                    if (obj == null)
+                                        break;
+                                }
+
                                 innerAdd(obj);
                                 counter++;
-                                if (todoCount.decrementAndGet() <= 0)
-                                    break;
-
-                                if (counter >= bulkUpdateSize)
+                                bytes += getEstimatedSize(obj);
+                                if (counter >= batchSize || bytes >= bulkMaxBytes)
                                     break;
                             }
-                            innerThreadMethod();
 
-                            // now trigger refresh for tests
-                            synchronized (todoObjects) {
-                                todoObjects.notifyAll();
+                            Batch batch = new Batch(counter);
+                            currentBatch.set(batch);
+                            try {
+                                innerThreadMethod();
+                            } finally {
+                                currentBatch.remove();
+                                // now trigger refresh for tests if all bulk requests are answered
+                                batch.finish();
                             }
 
-                            logger.info("Alive with entries:" + todoObjects.size() + " failedQueueSize:" + getRawFailedObjects().size()
-                                    + " updated:" + counter + " ... going to sleep");
-//                            logger.info("Failed:" + getRawFailedObjects());
-                            for (int i = 0; i < 10 && todoObjects.size() < bulkUpdateSize; i++) {
-                                Thread.sleep(bulkIndexingWait);
-                            }
+                            logger.info("Alive with entries:" + todoObjects.size() + " pending:" + pendingObjects.get()
+                                    + " bulksInFlight:" + getBulksInFlight()
+                                    + " failedQueueSize:" + getRawFailedObjects().size()
+                                    + " updated:" + counter + " bytes:" + bytes);
                         } catch (Exception ex) {
                             logger.error(getName() + " was interrupted!!", ex);
                             break;
@@ -281,7 +579,7 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
                         todoObjects.wait(maxWaitTime);
                     else
                         todoObjects.wait();
-                } while (todoObjects.size() > 0);
+                } while (pendingObjects.get() > 0);
 
                 refresh();
                 return true;
@@ -297,4 +595,54 @@ public abstract class AbstractElasticSearchQueueEnabled<T extends DbObject>
         if (failedObjsThread != null)
             failedObjsThread.interrupt();
     }
+
+    /**
+     * The objects taken from the queue in one go. It is finished if
+     * innerThreadMethod returned and all of its bulk requests are answered.
+     */
+    private class Batch {
+
+        private final int objects;
+        // one for innerThreadMethod
+        private final AtomicInteger open = new AtomicInteger(1);
+        private final List<Runnable> afterIndexing = new ArrayList<Runnable>(1);
+
+        Batch(int objects) {
+            this.objects = objects;
+        }
+
+        void finish() {
+            if (open.decrementAndGet() > 0)
+                return;
+
+            pendingObjects.addAndGet(-objects);
+            pendingPermits.release(objects);
+            for (Runnable task : afterIndexing) {
+                try {
+                    task.run();
+                } catch (Exception ex) {
+                    logger.error("Problem after indexing", ex);
+                }
+            }
+            synchronized (todoObjects) {
+                todoObjects.notifyAll();
+            }
+        }
+    }
+
+    private static class ResizableSemaphore extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        void resize(int oldPermits, int newPermits) {
+            if (newPermits > oldPermits)
+                release(newPermits - oldPermits);
+            else if (newPermits < oldPermits)
+                reducePermits(oldPermits - newPermits);
+        }
+    }
 }
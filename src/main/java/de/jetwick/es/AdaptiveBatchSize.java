@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+/**
+ * Tunes the batch size and the flush interval of the indexing queue from the
+ * answered bulk requests (AIMD): if items of a bulk request were rejected or
+ * it took longer than the target latency both are halved. Version conflicts
+ * are not an overload signal. If it was fast enough and
+ * at least one batch is still waiting in the queue both are increased by a
+ * constant step. The configured values are the upper bounds.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class AdaptiveBatchSize {
+
+    private final int maxBatchSize;
+    private final long maxFlushInterval;
+    private final long targetLatency;
+    private int minBatchSize;
+    private long minFlushInterval;
+    private int batchSize;
+    private long flushInterval;
+    private long increases;
+    private long decreases;
+
+    /**
+     * @param targetLatency the maximal milliseconds a bulk request should take
+     */
+    public AdaptiveBatchSize(int maxBatchSize, long maxFlushInterval, long targetLatency) {
+        if (maxBatchSize < 1 || maxFlushInterval < 1 || targetLatency < 1)
+            throw new IllegalArgumentException("values must be positive " + maxBatchSize + " "
+                    + maxFlushInterval + " " + targetLatency);
+
+        this.maxBatchSize = batchSize = maxBatchSize;
+        this.maxFlushInterval = flushInterval = maxFlushInterval;
+        this.targetLatency = targetLatency;
+        minBatchSize = Math.max(1, maxBatchSize / 10);
+        minFlushInterval = Math.max(1, maxFlushInterval / 10);
+    }
+
+    public synchronized AdaptiveBatchSize setMinBatchSize(int minBatchSize) {
+        this.minBatchSize = Math.max(1, Math.min(minBatchSize, maxBatchSize));
+        batchSize = Math.max(batchSize, this.minBatchSize);
+        return this;
+    }
+
+    public synchronized AdaptiveBatchSize setMinFlushInterval(long minFlushInterval) {
+        this.minFlushInterval = Math.max(1, Math.min(minFlushInterval, maxFlushInterval));
+        flushInterval = Math.max(flushInterval, this.minFlushInterval);
+        return this;
+    }
+
+    /**
+     * Called for every answered bulk request of the queue
+     *
+     * @param overloaded the number of objects of the request which failed
+     * due to an overload, see isOverload
+     * @param queued the number of objects waiting in the queue
+     */
+    public synchronized void onBulk(int overloaded, long latencyMillis, int queued) {
+        if (overloaded > 0 || latencyMillis > targetLatency) {
+            int newSize = Math.max(minBatchSize, batchSize / 2);
+            long newInterval = Math.max(minFlushInterval, flushInterval / 2);
+            if (newSize != batchSize || newInterval != flushInterval)
+                decreases++;
+            batchSize = newSize;
+            flushInterval = newInterval;
+        } else if (queued >= batchSize) {
+            int newSize = Math.min(maxBatchSize, batchSize + Math.max(1, maxBatchSize / 20));
+            long newInterval = Math.min(maxFlushInterval, flushInterval + Math.max(1, maxFlushInterval / 20));
+            if (newSize != batchSize || newInterval != flushInterval)
+                increases++;
+            batchSize = newSize;
+            flushInterval = newInterval;
+        }
+    }
+
+    /**
+     * @return false if the failure message of a bulk item is a version
+     * conflict which happens if a newer version was already indexed
+     */
+    public static boolean isOverload(String failureMessage) {
+        return failureMessage == null || !failureMessage.contains("VersionConflictEngineException");
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    public synchronized long getFlushInterval() {
+        return flushInterval;
+    }
+
+    public long getTargetLatency() {
+        return targetLatency;
+    }
+
+    public synchronized long getIncreases() {
+        return increases;
+    }
+
+    public synchronized long getDecreases() {
+        return decreases;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "batchSize:" + batchSize + " flushInterval:" + flushInterval
+                + " increases:" + increases + " decreases:" + decreases;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.data.DbObject;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded FIFO queue which holds at most one object per id. Putting an
+ * object whose id is already queued merges both via merge and keeps the
+ * position of the queued one, so frequently updated objects are written
+ * only once.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class CoalescingQueue<T extends DbObject> {
+
+    private final Map<Object, T> objects = new LinkedHashMap<Object, T>();
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public CoalescingQueue(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive but was " + capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the object which should be queued instead of both. The default
+     * implementation replaces the queued object.
+     */
+    protected T merge(T queued, T o) {
+        return o;
+    }
+
+    /**
+     * Queues the object or merges it into the queued object with the same id.
+     * Waits if the queue is full and the id is not queued.
+     *
+     * @return true if the object was merged
+     */
+    public boolean put(T o) throws InterruptedException {
+        Object key = getKey(o);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                T queued = objects.get(key);
+                if (queued != null) {
+                    // put does not change the insertion order of an existing key
+                    objects.put(key, merge(queued, o));
+                    coalesced.incrementAndGet();
+                    return true;
+                }
+
+                if (objects.size() < capacity)
+                    break;
+
+                notFull.await();
+            }
+
+            objects.put(key, o);
+            notEmpty.signal();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until an object is available and removes the oldest one.
+     */
+    public T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (objects.isEmpty()) {
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the oldest object or null if none was available within the
+     * specified time
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (objects.isEmpty()) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private T removeFirst() {
+        Iterator<T> iter = objects.values().iterator();
+        T o = iter.next();
+        iter.remove();
+        notFull.signal();
+        return o;
+    }
+
+    private Object getKey(T o) {
+        // objects without id are never merged
+        if (o.getId() == null)
+            return new Object();
+        return o.getId();
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return objects.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * @return the number of objects which were merged into a queued object
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.util.MyDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Routes tweets into shards by a bucket of their creation date so that a
+ * query for the latest tweets only needs to ask the shards of a few buckets.
+ *
+ * The creation date is calculated from the twitter id (snowflake ids contain
+ * the milliseconds since the twitter epoch) so that get requests can be
+ * routed without knowing the tweet. All older ids share one extra bucket
+ * which is always queried.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class DateRouting {
+
+    static final long TWEPOCH = 1288834974657L;
+    /**
+     * ids below are not created via snowflake
+     */
+    static final long MIN_SNOWFLAKE_ID = 30000000000L;
+    public static final String LEGACY_ROUTING = "legacy";
+    private final long bucketMillis;
+    private int maxRoutings = 24;
+
+    public DateRouting(int hours) {
+        if (hours < 1)
+            throw new IllegalArgumentException("hours must be positive but was " + hours);
+        bucketMillis = hours * MyDate.ONE_HOUR;
+    }
+
+    /**
+     * @param maxRoutings if a query would need more routing values all shards
+     * are queried
+     */
+    public DateRouting setMaxRoutings(int maxRoutings) {
+        this.maxRoutings = maxRoutings;
+        return this;
+    }
+
+    /**
+     * @return the creation time encoded in the specified id or -1 if it is
+     * not a snowflake id
+     */
+    public static long getCreationTime(long twitterId) {
+        if (twitterId < MIN_SNOWFLAKE_ID)
+            return -1;
+        return (twitterId >> 22) + TWEPOCH;
+    }
+
+    public String getRouting(long twitterId) {
+        long time = getCreationTime(twitterId);
+        if (time < 0)
+            return LEGACY_ROUTING;
+        return Long.toString(time / bucketMillis);
+    }
+
+    /**
+     * @param from null means unbounded
+     * @param to null means now
+     * @return the routing values of all buckets between from and to or null if
+     * all shards have to be queried
+     */
+    public String[] getRoutings(Date from, Date to) {
+        if (from == null)
+            return null;
+
+        // tweets can be a bit in the future
+        long toTime = (to == null ? System.currentTimeMillis() + bucketMillis : to.getTime());
+        long first = from.getTime() / bucketMillis;
+        long last = toTime / bucketMillis;
+        if (last < first)
+            last = first;
+        if (last - first + 1 > maxRoutings)
+            return null;
+
+        List<String> res = new ArrayList<String>();
+        for (long b = first; b <= last; b++) {
+            res.add(Long.toString(b));
+        }
+        res.add(LEGACY_ROUTING);
+        return res.toArray(new String[res.size()]);
+    }
+}
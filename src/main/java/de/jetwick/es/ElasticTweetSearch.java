@@ -24,13 +24,21 @@ import de.jetwick.data.UrlEntry;
 import de.jetwick.data.JTweet;
 import de.jetwick.data.JUser;
 import de.jetwick.tw.Extractor;
+import de.jetwick.tw.cmd.ParallelCommandExecutor;
 import de.jetwick.tw.cmd.SerialCommandExecutor;
+import de.jetwick.tw.cmd.StringFreqMap;
+import de.jetwick.tw.cmd.TermCache;
 import de.jetwick.tw.cmd.TermCreateCommand;
 import de.jetwick.util.AnyExecutor;
 import de.jetwick.util.Helper;
 import de.jetwick.util.MapEntry;
+import de.jetwick.util.ResultCache;
+import de.jetwick.util.Metrics;
+import de.jetwick.util.Metrics.Gauge;
 import de.jetwick.util.StopWatch;
 import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -44,14 +52,28 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.unit.DistanceUnit;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.index.query.FilterBuilder;
@@ -95,6 +117,7 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
     public static final String URL_COUNT = "url_i";
     public static final String FIRST_URL_TITLE = "dest_title_1_s";
     public static final String USER = "user";
+    public static final String MINHASH = "minhash";
     public static final String FILTER_NO_DUPS = DUP_COUNT + ":0";
     public static final String FILTER_ONLY_DUPS = DUP_COUNT + ":[1 TO *]";
     public static final String FILTER_NO_URL_ENTRY = URL_COUNT + ":0";
@@ -105,6 +128,30 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
     public static final String _ID = "_id_";
     private String indexName = "twindex";
     private List<AnyExecutor<JTweet>> commitListener = new ArrayList<AnyExecutor<JTweet>>(1);
+    private ReplyGraph replyGraph = new ReplyGraph(20000, 60);
+    private int maxReplyEdges = 2000;
+    private AtomicLong localRetweetLinks = new AtomicLong(0);
+    private AtomicLong indexRetweetLinks = new AtomicLong(0);
+    private MinHashIndex dupIndex = new MinHashIndex(200000);
+    private TermCache termCache = new TermCache(50000, 60);
+    private final AtomicBoolean dupIndexLoading = new AtomicBoolean(false);
+    private long dupIndexCleaned = System.currentTimeMillis();
+    private static final int DUP_HOURS = 24;
+    private int commandThreads = 1;
+    private int exportPageSize = 200;
+    private int exportMaxDocs = 10000;
+    public static final String KEEP_SUFFIX = "_keep";
+    private int partitionHours = 0;
+    private DateRouting dateRouting;
+    private volatile ResultCache<JetwickQuery, SearchResponse> resultCache;
+    private volatile ResultCache<JetwickQuery, SearchResponse> facetCache;
+    private AtomicLong routedQueries = new AtomicLong(0);
+    private AtomicLong unroutedQueries = new AtomicLong(0);
+    private AtomicLong routingValues = new AtomicLong(0);
+    private volatile List<String> partitionIndices;
+    private volatile long partitionIndicesTime;
+    private Map<Long, String> partitionNames = new ConcurrentHashMap<Long, String>();
+    private ExecutorService commandService;
     private Logger logger = LoggerFactory.getLogger(getClass());
 
     public ElasticTweetSearch() {
@@ -141,7 +188,450 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
         return client;
     }
 
+    /**
+     * Enables the rolling index mode: tweets are stored in one index per
+     * partitionHours (e.g. twindex_2012061800) behind the index name as alias.
+     * Old tweets are removed by dropping whole partitions. Persistent tweets
+     * and tweets with a lot of retweets are copied into twindex_keep before.
+     *
+     * The index name must not exist as a real index. 0 disables it.
+     */
+    public void setPartitionHours(int partitionHours) {
+        this.partitionHours = partitionHours;
+        partitionNames.clear();
+        partitionIndices = null;
+    }
+
+    public int getPartitionHours() {
+        return partitionHours;
+    }
+
+    /**
+     * Routes the tweets by a bucket of their creation date, see DateRouting.
+     * Queries with a date filter then only ask the shards of the matching
+     * buckets. Only use this for a new index, documents without routing
+     * cannot be found via get requests afterwards. 0 disables it.
+     */
+    public void setRoutingHours(int hours) {
+        if (hours > 0)
+            dateRouting = new DateRouting(hours);
+        else
+            dateRouting = null;
+    }
+
+    public DateRouting getDateRouting() {
+        return dateRouting;
+    }
+
+    /**
+     * @return the routing value or null if date routing is disabled
+     */
+    String getRouting(long twitterId) {
+        if (dateRouting == null)
+            return null;
+        return dateRouting.getRouting(twitterId);
+    }
+
+    @Override
+    protected String getRouting(JTweet tw) {
+        return getRouting(tw.getTwitterId());
+    }
+
+    @Override
+    protected void initRouting(SearchRequestBuilder srb, JetwickQuery query) {
+        if (dateRouting == null)
+            return;
+
+        String[] routings = null;
+        Date[] range = query.getDateRange(DATE);
+        if (range != null)
+            routings = dateRouting.getRoutings(range[0], range[1]);
+
+        long all;
+        if (routings == null) {
+            all = routedQueries.get() + unroutedQueries.incrementAndGet();
+        } else {
+            srb.setRouting(routings);
+            routingValues.addAndGet(routings.length);
+            all = routedQueries.incrementAndGet() + unroutedQueries.get();
+        }
+
+        if (all % 100 == 0)
+            logger.info("date routing: " + routedQueries.get() + " of " + all + " queries routed to "
+                    + (float) routingValues.get() / Math.max(1, routedQueries.get()) + " buckets on average");
+    }
+
+    public long getRoutedQueries() {
+        return routedQueries.get();
+    }
+
+    /**
+     * Caches the responses of queryCached for ttl milliseconds. A negative
+     * ttl uses the refresh interval of the index: newer results could not
+     * be found anyway. A size of 0 disables the cache.
+     */
+    public void setResultCache(int size, long ttl) {
+        if (size <= 0) {
+            resultCache = null;
+            return;
+        }
+        if (ttl < 0)
+            ttl = getRefreshInterval();
+        resultCache = new ResultCache<JetwickQuery, SearchResponse>(size, ttl);
+        logger.info("result cache with size:" + size + " ttl:" + ttl + "ms");
+    }
+
+    public ResultCache<JetwickQuery, SearchResponse> getResultCache() {
+        return resultCache;
+    }
+
+    @Override
+    public void registerMetrics(Metrics metrics, String prefix) {
+        super.registerMetrics(metrics, prefix);
+        metrics.register(prefix + ".replyGraph.size", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return replyGraph.size();
+            }
+        }).register(prefix + ".replyGraph.hits", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return replyGraph.getHits();
+            }
+        }).register(prefix + ".replyGraph.misses", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return replyGraph.getMisses();
+            }
+        }).register(prefix + ".retweetLinks.local", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return localRetweetLinks.get();
+            }
+        }).register(prefix + ".retweetLinks.index", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return indexRetweetLinks.get();
+            }
+        }).register(prefix + ".termCache.size", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return termCache.size();
+            }
+        }).register(prefix + ".termCache.hits", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return termCache.getHits();
+            }
+        }).register(prefix + ".termCache.misses", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return termCache.getMisses();
+            }
+        }).register(prefix + ".dupIndex.size", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return dupIndex.size();
+            }
+        }).register(prefix + ".dupIndex.evicted", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return dupIndex.getEvicted();
+            }
+        }).register(prefix + ".queries.routed", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return routedQueries.get();
+            }
+        }).register(prefix + ".queries.unrouted", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return unroutedQueries.get();
+            }
+        });
+        registerCacheMetrics(metrics, prefix + ".resultCache", false);
+        registerCacheMetrics(metrics, prefix + ".facetCache", true);
+    }
+
+    private void registerCacheMetrics(Metrics metrics, String prefix, final boolean facets) {
+        metrics.register(prefix + ".hits", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                ResultCache cache = facets ? facetCache : resultCache;
+                return cache == null ? null : cache.getHits();
+            }
+        }).register(prefix + ".misses", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                ResultCache cache = facets ? facetCache : resultCache;
+                return cache == null ? null : cache.getMisses();
+            }
+        }).register(prefix + ".hitRate", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                ResultCache cache = facets ? facetCache : resultCache;
+                return cache == null ? null : cache.getHitRate();
+            }
+        });
+    }
+
+    /**
+     * @return the refresh interval in milliseconds of the tweet index or of
+     * its partitions
+     */
+    long getRefreshInterval() {
+        long res = 0;
+        Map<String, IndexMetaData> map = client.admin().cluster().prepareState().execute().actionGet().
+                getState().getMetaData().getIndices();
+        for (Entry<String, IndexMetaData> e : map.entrySet()) {
+            if (!e.getKey().equals(getIndexName()) && !e.getKey().startsWith(getIndexName() + "_"))
+                continue;
+            TimeValue tv = e.getValue().settings().getAsTime("index.refresh_interval", TimeValue.timeValueSeconds(1));
+            res = Math.max(res, tv.millis());
+        }
+        return res > 0 ? res : 1000;
+    }
+
+    /**
+     * Same as query(users, query) but identical queries share the response
+     * of the result cache if enabled.
+     */
+    public SearchResponse queryCached(Collection<JUser> users, JetwickQuery query) {
+        ResultCache<JetwickQuery, SearchResponse> cache = resultCache;
+        if (cache == null || !isCacheable(query))
+            return query(users, query);
+
+        return query(users, queryCached(cache, "result", query.getCopy()));
+    }
+
+    /**
+     * Fetches only the hits of the specified query without its facets, which
+     * should be fetched via queryFacets. Queries which cannot be split are
+     * executed with their facets.
+     */
+    public SearchResponse queryHits(Collection<JUser> users, JetwickQuery query) {
+        if (!isCacheable(query))
+            return query(users, query);
+
+        JetwickQuery hitQuery = query.getCopy();
+        hitQuery.getFacetFields().clear();
+        hitQuery.getFacetQueries().clear();
+        hitQuery.setDateFacets(false);
+        ResultCache<JetwickQuery, SearchResponse> cache = resultCache;
+        if (cache == null)
+            return query(users, hitQuery);
+        return query(users, queryCached(cache, "result", hitQuery));
+    }
+
+    /**
+     * Fetches only the facets of the specified query. They do not depend on
+     * paging and sorting so they are cached per query string and filters
+     * if the facet cache is enabled.
+     *
+     * @param hitRsp the response of queryHits which is returned if the query
+     * cannot be split
+     */
+    public SearchResponse queryFacets(JetwickQuery query, SearchResponse hitRsp) {
+        if (!isCacheable(query))
+            return hitRsp;
+
+        JetwickQuery facetQuery = query.getCopy();
+        facetQuery.setFrom(0).setSize(0).setCursor(null);
+        facetQuery.getSortFields().clear();
+        ResultCache<JetwickQuery, SearchResponse> cache = facetCache;
+        if (cache == null)
+            return super.query(facetQuery);
+        return queryCached(cache, "facet", facetQuery);
+    }
+
+    /**
+     * Caches the facet responses of queryFacets for ttl milliseconds. A size
+     * of 0 disables the cache.
+     */
+    public void setFacetCache(int size, long ttl) {
+        if (size <= 0)
+            facetCache = null;
+        else
+            facetCache = new ResultCache<JetwickQuery, SearchResponse>(size, ttl);
+    }
+
+    public ResultCache<JetwickQuery, SearchResponse> getFacetCache() {
+        return facetCache;
+    }
+
+    /**
+     * getCopy only preserves TweetQuery, e.g. SimilarTweetQuery state is not
+     * part of equals
+     */
+    private boolean isCacheable(JetwickQuery query) {
+        return query.getClass() == TweetQuery.class && !query.isExplain();
+    }
+
+    private SearchResponse queryCached(ResultCache<JetwickQuery, SearchResponse> cache, String name,
+            final JetwickQuery key) {
+        SearchResponse rsp = cache.get(key, new Callable<SearchResponse>() {
+
+            @Override
+            public SearchResponse call() {
+                return ElasticTweetSearch.super.query(key);
+            }
+        });
+
+        long all = cache.getHits() + cache.getMisses() + cache.getCoalesced();
+        if (all % 1000 == 0)
+            logger.info(name + " cache " + cache);
+        return rsp;
+    }
+
+    public boolean isRolling() {
+        return partitionHours > 0;
+    }
+
+    @Override
+    public void saveCreateIndex() {
+        if (!isRolling()) {
+            super.saveCreateIndex();
+            return;
+        }
+        ensurePartition(getKeepIndexName());
+        ensurePartition(getPartitionName(new Date()));
+    }
+
+    public String getKeepIndexName() {
+        return getIndexName() + KEEP_SUFFIX;
+    }
+
+    /**
+     * @return the name of the partition index containing the specified date
+     */
+    public String getPartitionName(Date date) {
+        long size = partitionHours * MyDate.ONE_HOUR;
+        long start = date.getTime() - date.getTime() % size;
+        String name = partitionNames.get(start);
+        if (name == null) {
+            SimpleDateFormat df = new SimpleDateFormat("yyyyMMddHH");
+            df.setTimeZone(TimeZone.getTimeZone("UTC"));
+            name = getIndexName() + "_" + df.format(new Date(start));
+            partitionNames.put(start, name);
+        }
+        return name;
+    }
+
+    /**
+     * @return all indices of the alias including the keep index. The list
+     * is read from the cluster state at most once a minute.
+     */
+    public List<String> getPartitionIndices() {
+        List<String> list = partitionIndices;
+        if (list != null && System.currentTimeMillis() - partitionIndicesTime < MyDate.ONE_MINUTE)
+            return list;
+
+        list = new ArrayList<String>();
+        Map map = client.admin().cluster().prepareState().execute().actionGet().
+                getState().getMetaData().getIndices();
+        for (Object key : map.keySet()) {
+            String name = key.toString();
+            if (name.startsWith(getIndexName() + "_"))
+                list.add(name);
+        }
+        Collections.sort(list);
+        partitionIndicesTime = System.currentTimeMillis();
+        partitionIndices = list;
+        return list;
+    }
+
+    synchronized void ensurePartition(String name) {
+        if (getPartitionIndices().contains(name))
+            return;
+
+        saveCreateIndex(name, true);
+        addIndexAlias(name, getIndexName());
+        waitForYellow(name);
+        partitionIndices = null;
+    }
+
+    /**
+     * Writes a tweet into the partition of its creation date or into the
+     * keep index if this partition was already dropped.
+     */
+    @Override
+    protected String getWriteIndex(JTweet tw, String indexName) {
+        if (!isRolling() || !indexName.equals(getIndexName()))
+            return indexName;
+
+        Date date = tw.getCreatedAt() == null ? new Date() : tw.getCreatedAt();
+        String partition = getPartitionName(date);
+        List<String> indices = getPartitionIndices();
+        if (!indices.contains(partition)) {
+            String oldest = null;
+            for (String index : indices) {
+                if (!index.equals(getKeepIndexName())) {
+                    oldest = index;
+                    break;
+                }
+            }
+            if (oldest != null && partition.compareTo(oldest) < 0)
+                partition = getKeepIndexName();
+            ensurePartition(partition);
+        }
+        return partition;
+    }
+
+    /**
+     * Drops all partitions which only contain tweets older than removeUntil.
+     * A partition is only dropped if all of its persistent tweets were copied
+     * into the keep index.
+     *
+     * @return the dropped indices
+     */
+    public List<String> dropPartitionsUntil(Date removeUntil) {
+        String limit = getPartitionName(removeUntil);
+        List<String> dropped = new ArrayList<String>();
+        FilterBuilder keepFilter = FilterBuilders.orFilter(FilterBuilders.existsFilter(UPDATE_DT),
+                FilterBuilders.rangeFilter(RT_COUNT).gte(100));
+        for (String index : getPartitionIndices()) {
+            if (index.equals(getKeepIndexName()) || index.compareTo(limit) >= 0)
+                continue;
+
+            ensurePartition(getKeepIndexName());
+            logger.info("Dropping partition " + index + " older than " + removeUntil);
+            long notCopied = mergeIndices(Collections.singletonList(index), getKeepIndexName(), 500, true, this, keepFilter);
+            if (notCopied > 0) {
+                // otherwise the persistent tweets would be lost
+                logger.error("Keeping partition " + index + ". " + notCopied + " tweets were not copied into "
+                        + getKeepIndexName());
+                continue;
+            }
+            deleteIndex(index);
+            dropped.add(index);
+        }
+        if (!dropped.isEmpty())
+            partitionIndices = null;
+        return dropped;
+    }
+
     public void deleteUntil(Date removeUntil) {
+        if (isRolling()) {
+            dropPartitionsUntil(removeUntil);
+            replyGraph.clear();
+            return;
+        }
+
         logger.info("Deleting tweets older than " + removeUntil);
         NotFilterBuilder notPersistentFilter = FilterBuilders.notFilter(FilterBuilders.existsFilter(UPDATE_DT));
         FilterBuilder fewRetweetsFilter = FilterBuilders.rangeFilter(RT_COUNT).lt(100).includeUpper(false);
@@ -154,6 +644,9 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
                 setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filter)).
                 execute().
                 actionGet();
+
+        // cached edges could point to deleted replies
+        replyGraph.clear();
     }
 
     public void delete(Collection<JTweet> tws) {
@@ -162,8 +655,12 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
 
         try {
             for (JTweet tw : tws) {
-                deleteById(tw.getId());
+                for (String index : getGetIndices()) {
+                    client.prepareDelete(index, getIndexType(), tw.getId()).
+                            setRouting(getRouting(tw.getTwitterId())).execute().actionGet();
+                }
             }
+            replyGraph.clear();
 
         } catch (Exception ex) {
             throw new RuntimeException(ex);
@@ -246,6 +743,14 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
         b.field("repl_i", tw.getReplyCount());
         b.field(RT_COUNT, tw.getRetweetCount());
 
+        if (tw.getMinHash() != null) {
+            b.startArray(MINHASH);
+            for (int val : tw.getMinHash()) {
+                b.value(val);
+            }
+            b.endArray();
+        }
+
         b.endObject();
         return b;
     }
@@ -298,6 +803,15 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
             tw.setInReplyTwitterId(replyId);
         }
 
+        if (source.get(MINHASH) instanceof List) {
+            List<Number> list = (List<Number>) source.get(MINHASH);
+            int[] sig = new int[list.size()];
+            for (int i = 0; i < sig.length; i++) {
+                sig[i] = list.get(i).intValue();
+            }
+            tw.setMinHash(sig);
+        }
+
         tw.setUrlEntries(Arrays.asList(parseUrlEntries(source)));
         return tw;
     }
@@ -466,32 +980,13 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
     public Collection<JTweet> update(Collection<JTweet> tmpTweets, Date removeUntil, boolean performDelete) {
         try {
             Map<String, JUser> usersMap = new LinkedHashMap<String, JUser>();
-            Map<Long, JTweet> existingTweets = new LinkedHashMap<Long, JTweet>();
-            StringBuilder idStr = new StringBuilder();
-            int counts = 0;
-            // we can add max ~150 tweets per request (otherwise the webcontainer won't handle the long request)
+            List<Long> ids = new ArrayList<Long>(tmpTweets.size());
             for (JTweet tw : tmpTweets) {
-                if (counts > 0)
-                    idStr.append(" OR ");
-                counts++;
-                idStr.append(tw.getTwitterId());
+                ids.add(tw.getTwitterId());
             }
 
-            // get existing tweets and users                
-            JetwickQuery query = new TweetQuery().addFilterQuery(_ID + getIndexType(), idStr.toString()).setSize(counts);
-            SearchResponse rsp = query(query);
-            SearchHits docs = rsp.getHits();
-
-            for (SearchHit sd : docs) {
-                JTweet tw = readDoc(sd.getId(), sd.getVersion(), sd.getSource());
-                existingTweets.put(tw.getTwitterId(), tw);
-                JUser u = tw.getFromUser();
-                JUser uOld = usersMap.get(u.getScreenName());
-                if (uOld == null)
-                    usersMap.put(u.getScreenName(), u);
-                else
-                    uOld.addOwnTweet(u.getOwnTweets().iterator().next());
-            }
+            // get versions of existing tweets via one multi get
+            Map<Long, Long> existingVersions = findVersions(ids);
 
             // Avoid storing existing tweets again
             Map<Long, JTweet> twMap = new LinkedHashMap<Long, JTweet>();
@@ -500,9 +995,9 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
                 if (!tmpTweet.isPersistent() && tmpTweet.getCreatedAt().getTime() < removeUntil.getTime())
                     continue;
 
-                JTweet exTw = existingTweets.get(tmpTweet.getTwitterId());
+                Long exVersion = existingVersions.get(tmpTweet.getTwitterId());
                 // feed if new or if it should be persistent
-                if (exTw == null || tmpTweet.isPersistent()) {
+                if (exVersion == null || tmpTweet.isPersistent()) {
                     String name = tmpTweet.getFromUser().getScreenName();
                     JUser u = usersMap.get(name);
                     if (u == null) {
@@ -515,11 +1010,19 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
                     twMap.put(tmpTweet.getTwitterId(), tmpTweet);
 
                     // overwrite existing tweets if persistent BUT update version
-                    if (tmpTweet.isPersistent() && exTw != null)
-                        tmpTweet.setVersion(exTw.getVersion());
+                    if (tmpTweet.isPersistent() && exVersion != null)
+                        tmpTweet.setVersion(exVersion);
                 }
             }
 
+            // load replies of all tweets which could be an original in one query
+            Set<Long> origIds = new LinkedHashSet<Long>(twMap.keySet());
+            for (JTweet tw : twMap.values()) {
+                if (!JTweet.isDefaultInReplyId(tw.getInReplyTwitterId()))
+                    origIds.add(tw.getInReplyTwitterId());
+            }
+            loadReplyEdges(origIds);
+
             LinkedHashSet<JTweet> updateTweets = new LinkedHashSet<JTweet>(twMap.values());
             updateTweets.addAll(findReplies(twMap));
             updateTweets.addAll(findRetweets(twMap, usersMap));
@@ -543,34 +1046,62 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
             throw new RuntimeException(ex);
         }
     }
-    private StopWatch sw1 = new StopWatch();
-    private StopWatch sw2 = new StopWatch();
-    private StopWatch sw3 = new StopWatch();
-    private StopWatch sw4 = new StopWatch();
 
     void store(Collection<JTweet> tweets, boolean refresh) {
         try {
             if (tweets.isEmpty())
                 return;
 
-            tweets = new SerialCommandExecutor(tweets).add(
-                    new TermCreateCommand().setSw1(sw1).setSw2(sw2).setSw3(sw3).setSw4(sw4)).execute();
-
-            List<JTweet> list = new ArrayList<JTweet>(tweets);
-            Collection<Integer> failedArticleIndices = bulkUpdate(list, getIndexName());
-            for (Integer integ : failedArticleIndices) {
-                JTweet tw = list.get(integ);
-                tw.setUpdateCount(tw.getUpdateCount() + 1);
-                if (tw.getUpdateCount() > 10)
-                    logger.warn("PROBLEM: skipped tweet. it failed " + tw.getUpdateCount() + " times:" + tw);
-                else
-                    queueFailedObject(tw);
+            for (JTweet tw : tweets) {
+                // before TermCreateCommand removes the unimportant terms.
+                // tweets with a signature went through findDuplicates or were
+                // loaded from the index and are already in the dup index
+                if (tw.getMinHash() == null)
+                    addToDupIndex(tw);
             }
+
+            TermCreateCommand cmd = new TermCreateCommand().setTermCache(termCache);
+            SerialCommandExecutor executor;
+            if (commandThreads > 1)
+                executor = new ParallelCommandExecutor(tweets, getCommandService(), commandThreads * 4);
+            else
+                executor = new SerialCommandExecutor(tweets);
+            tweets = executor.add(cmd).execute();
+
+            final List<JTweet> list = new ArrayList<JTweet>(tweets);
+            // onFailedObject increases the update count
+            final int[] updateCounts = new int[list.size()];
+            for (int i = 0; i < updateCounts.length; i++) {
+                updateCounts[i] = list.get(i).getUpdateCount();
+            }
+            bulkUpdateAndRequeue(list, getIndexName());
+            runAfterIndexing(new Runnable() {
+
+                @Override
+                public void run() {
+                    // keep reply graph in sync with indexed replies which did not go through addReplyNoTricks
+                    for (int i = 0; i < updateCounts.length; i++) {
+                        JTweet tw = list.get(i);
+                        if (!JTweet.isDefaultInReplyId(tw.getInReplyTwitterId())
+                                && tw.getUpdateCount() == updateCounts[i])
+                            replyGraph.addEdge(tw.getInReplyTwitterId(), tw.getFromUser().getScreenName(), tw.getTwitterId());
+                    }
+                }
+            });
         } catch (Exception e) {
             logger.error("Exception while updating.", e);
         }
     }
 
+    @Override
+    protected void onFailedObject(JTweet tw) {
+        tw.setUpdateCount(tw.getUpdateCount() + 1);
+        if (tw.getUpdateCount() > 10)
+            logger.warn("PROBLEM: skipped tweet. it failed " + tw.getUpdateCount() + " times:" + tw);
+        else
+            queueFailedObject(tw);
+    }
+
     /**
      * For every user there should be at least 5 tweets to make spam detection
      * more efficient
@@ -608,6 +1139,8 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
         // 2. check if tweets contains retweets -> done for 'tweets' and for tweets in solr
 
         final Set<JTweet> updatedTweets = new LinkedHashSet<JTweet>();
+        // retweets which couldn't be connected locally grouped by the retweeted user
+        final Map<String, List<JTweet>> unconnected = new LinkedHashMap<String, List<JTweet>>();
         Extractor extractor = new Extractor() {
 
             @Override
@@ -630,14 +1163,22 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
                             }
                         }
 
-                    // check ifRetweetOf against tweets existing in index
-                    if (resTw == null)
-                        resTw = connectToOrigTweet(tweet, user);
-
                     if (resTw != null) {
+                        localRetweetLinks.incrementAndGet();
                         updatedTweets.add(resTw);
                         return false;
                     }
+
+                    // check ifRetweetOf against tweets existing in index later for all retweets at once
+                    // but do not connect if retweeted user == user who retweets
+                    if (!user.equals(tweet.getFromUser().getScreenName())) {
+                        List<JTweet> list = unconnected.get(user);
+                        if (list == null) {
+                            list = new ArrayList<JTweet>(2);
+                            unconnected.put(user, list);
+                        }
+                        list.add(tweet);
+                    }
                 }
 
                 // break loop of Extractor because we only need the first user!
@@ -650,6 +1191,8 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
                 extractor.setTweet(tw).run();
             }
         }
+
+        updatedTweets.addAll(connectToOrigTweets(unconnected));
         return updatedTweets;
     }
 
@@ -657,30 +1200,94 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
      * add relation to existing/original tweet
      */
     public JTweet connectToOrigTweet(JTweet tw, String toUserStr) {
-        if (tw.isRetweet()) {
-            // do not connect if retweeted user == user who retweets  
-            if (toUserStr.equals(tw.getFromUser().getScreenName()))
-                return null;
+        if (!tw.isRetweet() || toUserStr.equals(tw.getFromUser().getScreenName()))
+            return null;
 
-            try {
-                // connect retweets to tweets only searchTweetsDays old
-                SearchResponse rsp = query(new TweetQuery(JetwickQuery.escapeQuery(tw.extractRTText())).addFilterQuery(USER, toUserStr).
-                        addFilterQuery(IS_RT, false).
-                        setSize(10));
-                List<JTweet> existingTw = collectObjects(rsp);
-                for (JTweet tmp : existingTw) {
-                    boolean isRetweet = tw.isRetweetOf(tmp);
-                    if (isRetweet) {
-                        boolean check = addReplyNoTricks(tmp, tw);
-                        if (check)
-                            return tmp;
+        Collection<JTweet> res = connectToOrigTweets(Collections.singletonMap(toUserStr,
+                Collections.singletonList(tw)));
+        if (res.isEmpty())
+            return null;
+        return res.iterator().next();
+    }
+
+    /**
+     * Connects retweets to their original tweets existing in the index. For
+     * all retweets one multi search is executed with one request per
+     * retweeted user.
+     *
+     * @param retweetsPerUser the retweets grouped by the retweeted user
+     * @return the original tweets which were connected
+     */
+    Collection<JTweet> connectToOrigTweets(Map<String, List<JTweet>> retweetsPerUser) {
+        Set<JTweet> updatedTweets = new LinkedHashSet<JTweet>();
+        List<String> users = new ArrayList<String>(retweetsPerUser.size());
+        MultiSearchRequestBuilder msrb = client.prepareMultiSearch();
+        for (Entry<String, List<JTweet>> e : retweetsPerUser.entrySet()) {
+            StringBuilder sb = new StringBuilder();
+            Set<String> texts = new HashSet<String>();
+            for (JTweet rt : e.getValue()) {
+                String rtText = rt.extractRTText();
+                if (rtText.isEmpty() || !texts.add(rtText))
+                    continue;
+
+                if (sb.length() > 0)
+                    sb.append(" OR ");
+                sb.append("(").append(JetwickQuery.escapeQuery(rtText)).append(")");
+            }
+            if (texts.isEmpty())
+                continue;
+
+            // connect retweets to tweets only searchTweetsDays old
+            JetwickQuery q = new TweetQuery(sb.toString()).addFilterQuery(USER, e.getKey()).
+                    addFilterQuery(IS_RT, false).
+                    setSize(Math.min(100, 10 * texts.size()));
+            msrb.add(q.initRequestBuilder(createSearchBuilder()));
+            users.add(e.getKey());
+        }
+
+        if (users.isEmpty())
+            return updatedTweets;
+
+        try {
+            MultiSearchResponse.Item[] items = msrb.execute().actionGet().responses();
+            Map<String, List<JTweet>> origsPerUser = new LinkedHashMap<String, List<JTweet>>();
+            List<Long> origIds = new ArrayList<Long>();
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].failed()) {
+                    logger.error("couldn't connect retweets of " + users.get(i) + " to orig tweet:" + items[i].failureMessage());
+                    continue;
+                }
+                List<JTweet> origs = collectObjects(items[i].response());
+                origsPerUser.put(users.get(i), origs);
+                for (JTweet tmp : origs) {
+                    origIds.add(tmp.getTwitterId());
+                }
+            }
+
+            loadReplyEdges(origIds);
+            for (Entry<String, List<JTweet>> e : origsPerUser.entrySet()) {
+                for (JTweet rt : retweetsPerUser.get(e.getKey())) {
+                    for (JTweet tmp : e.getValue()) {
+                        if (rt.isRetweetOf(tmp) && addReplyNoTricks(tmp, rt)) {
+                            indexRetweetLinks.incrementAndGet();
+                            updatedTweets.add(tmp);
+                            break;
+                        }
                     }
                 }
-            } catch (Exception ex) {
-                logger.error("couldn't connect tweet to orig tweet:" + ex.getMessage());
             }
+        } catch (Exception ex) {
+            logger.error("couldn't connect " + users.size() + " retweeted users to orig tweet:" + ex.getMessage());
         }
-        return null;
+        return updatedTweets;
+    }
+
+    public long getLocalRetweetLinks() {
+        return localRetweetLinks.get();
+    }
+
+    public long getIndexRetweetLinks() {
+        return indexRetweetLinks.get();
     }
 
     /**
@@ -809,14 +1416,27 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
             return false;
 
         try {
-            // ensure that reply.user has not already a tweet in orig.replies   
-            JetwickQuery q = new TweetQuery().addFilterQuery(INREPLY_ID, orig.getTwitterId()).
-                    addFilterQuery("-" + _ID + getIndexType(), reply.getTwitterId()).
-                    addFilterQuery("user", reply.getFromUser().getScreenName());
-            if (query(q).getHits().getTotalHits() > 0)
+            // ensure that reply.user has not already a tweet in orig.replies
+            String user = reply.getFromUser().getScreenName();
+            Boolean hasReply = replyGraph.hasOtherReply(orig.getTwitterId(), user, reply.getTwitterId());
+            if (hasReply == null) {
+                loadReplyEdges(Collections.singleton(orig.getTwitterId()));
+                hasReply = replyGraph.hasOtherReply(orig.getTwitterId(), user, reply.getTwitterId());
+            }
+
+            if (hasReply == null) {
+                // too many replies to load them all
+                JetwickQuery q = new TweetQuery().addFilterQuery(INREPLY_ID, orig.getTwitterId()).
+                        addFilterQuery("-" + _ID + getIndexType(), reply.getTwitterId()).
+                        addFilterQuery("user", user);
+                hasReply = query(q).getHits().getTotalHits() > 0;
+            }
+
+            if (hasReply)
                 return false;
 
             orig.addReply(reply);
+            replyGraph.addEdge(orig.getTwitterId(), user, reply.getTwitterId());
             return true;
         } catch (Exception ex) {
             logger.error("couldn't add reply to:" + orig, ex);
@@ -824,6 +1444,44 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
         }
     }
 
+    /**
+     * Fetches the replies of all specified tweets from the index with one
+     * query and puts them into the reply graph.
+     */
+    void loadReplyEdges(Collection<Long> origIds) {
+        List<Object> todo = new ArrayList<Object>();
+        for (Long id : origIds) {
+            if (!replyGraph.isLoaded(id))
+                todo.add(id);
+        }
+        if (todo.isEmpty())
+            return;
+
+        try {
+            SearchRequestBuilder srb = createSearchBuilder().setSize(maxReplyEdges).addFields(USER, INREPLY_ID).
+                    setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+                    FilterBuilders.termsFilter(INREPLY_ID, todo.toArray())));
+            SearchHits hits = srb.execute().actionGet().getHits();
+            for (SearchHit sd : hits) {
+                long origId = ((Number) sd.field(INREPLY_ID).getValue()).longValue();
+                replyGraph.addEdge(origId, (String) sd.field(USER).getValue(), Long.parseLong(sd.getId()));
+            }
+
+            // if we got not all replies we cannot say that a user has no reply
+            if (hits.getTotalHits() <= hits.getHits().length) {
+                for (Object id : todo) {
+                    replyGraph.setLoaded((Long) id);
+                }
+            }
+        } catch (Exception ex) {
+            logger.error("couldn't load replies of " + todo.size() + " tweets", ex);
+        }
+    }
+
+    public ReplyGraph getReplyGraph() {
+        return replyGraph;
+    }
+
     /**
      * @param exec will be called directly after the tweets have beed feeded 
      * into the index. WARNING: it is not guarantueed that the tweets are 
@@ -840,9 +1498,8 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
 
     public JTweet findByTwitterId(Long twitterId) {
         try {
-            GetResponse rsp = client.prepareGet(getIndexName(), getIndexType(), Long.toString(twitterId)).
-                    execute().actionGet();
-            if (rsp.getSource() == null)
+            GetResponse rsp = findByTwitterIdRaw(twitterId);
+            if (rsp == null || rsp.getSource() == null)
                 return null;
             return readDoc(rsp.getId(), rsp.getVersion(), rsp.getSource());
         } catch (Exception ex) {
@@ -850,6 +1507,39 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
         }
     }
 
+    /**
+     * Checks which of the specified tweets already exist in the index. All ids
+     * are fetched with one multi get request and no source is loaded.
+     *
+     * @return the versions of the existing tweets keyed by twitter id
+     */
+    public Map<Long, Long> findVersions(Collection<Long> twitterIds) {
+        Map<Long, Long> res = new LinkedHashMap<Long, Long>(twitterIds.size());
+        if (twitterIds.isEmpty())
+            return res;
+
+        try {
+            MultiGetRequestBuilder mgrb = client.prepareMultiGet().setRealtime(true);
+            for (String index : getGetIndices()) {
+                for (Long id : twitterIds) {
+                    // no fields -> skip _source, we only need the version
+                    mgrb.add(new MultiGetRequest.Item(index, getIndexType(), Long.toString(id)).
+                            routing(getRouting(id)).fields());
+                }
+            }
+
+            for (MultiGetItemResponse item : mgrb.execute().actionGet()) {
+                if (item.failed() || !item.response().exists())
+                    continue;
+
+                res.put(Long.parseLong(item.id()), item.response().version());
+            }
+            return res;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     public Collection<String> getUserChoices(JetwickQuery lastQ, String input) {
         try {
             if (input.length() < 1)
@@ -989,69 +1679,258 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
 
     public String getTweetsAsString(JetwickQuery q, String separator) {
         StringBuilder sb = new StringBuilder();
-        List<JTweet> tmpTweets = searchTweets(q);
-        for (JTweet tweet : tmpTweets) {
-            sb.append(Helper.toTwitterHref(tweet.getFromUser().getScreenName(), tweet.getTwitterId()));
-            sb.append(separator);
-            sb.append(tweet.getRetweetCount());
-            sb.append(separator);
-            sb.append(tweet.getText().replaceAll("\n", " "));
-            sb.append("\n");
+        try {
+            for (JTweet tweet : searchTweets(q)) {
+                appendTweet(sb, tweet, separator);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
         }
-
         return sb.toString();
     }
 
+    /**
+     * Writes all tweets matching the specified query (not only the current
+     * page) to the writer but at most exportMaxDocs. The hits are scanned
+     * page by page so that the memory stays constant and the first tweets
+     * are written quickly. Sorting is ignored.
+     *
+     * @param separator the separator of the columns or null to write one
+     * json object per line
+     * @return the number of written tweets
+     */
+    public long writeTweets(JetwickQuery query, final Writer writer, final String separator) {
+        JetwickQuery q = query.getCopy();
+        q.getFacetFields().clear();
+        q.getFacetQueries().clear();
+        q.setDateFacets(false);
+        q.getSortFields().clear();
+        q.setCursor(null);
+        SearchRequestBuilder srb = q.initRequestBuilder(createSearchBuilder());
+        initRouting(srb, q);
+        long keepTimeInMinutes = 1;
+        srb.setSearchType(SearchType.SCAN).setFrom(0).setSize(exportPageSize).
+                setScroll(TimeValue.timeValueMinutes(keepTimeInMinutes));
+
+        final AtomicLong counter = new AtomicLong(0);
+        try {
+            scan(srb, new AnyExecutor<JTweet>() {
+
+                @Override
+                public JTweet execute(JTweet tw) {
+                    if (counter.get() >= exportMaxDocs)
+                        throw new ExportLimitReached();
+
+                    try {
+                        if (separator == null)
+                            appendTweetAsJson(writer, tw);
+                        else
+                            appendTweet(writer, tw, separator);
+
+                        // the first tweets should arrive quickly
+                        if (counter.incrementAndGet() % exportPageSize == 0)
+                            writer.flush();
+                    } catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                    return tw;
+                }
+            }, keepTimeInMinutes);
+        } catch (ExportLimitReached ex) {
+            logger.info("Stopped export after " + counter.get() + " tweets for " + query);
+        }
+        return counter.get();
+    }
+
+    /**
+     * stops the scan of writeTweets
+     */
+    private static class ExportLimitReached extends RuntimeException {
+    }
+
+    /**
+     * Sets the maximal number of tweets written by writeTweets
+     */
+    public void setExportMaxDocs(int exportMaxDocs) {
+        this.exportMaxDocs = exportMaxDocs;
+    }
+
+    /**
+     * Sets the number of hits per shard fetched at once when exporting
+     */
+    public void setExportPageSize(int exportPageSize) {
+        this.exportPageSize = exportPageSize;
+    }
+
+    void appendTweet(Appendable sb, JTweet tweet, String separator) throws IOException {
+        sb.append(Helper.toTwitterHref(tweet.getFromUser().getScreenName(), tweet.getTwitterId()));
+        sb.append(separator);
+        sb.append(Integer.toString(tweet.getRetweetCount()));
+        sb.append(separator);
+        sb.append(tweet.getText().replaceAll("\n", " "));
+        sb.append("\n");
+    }
+
+    void appendTweetAsJson(Appendable sb, JTweet tweet) throws IOException {
+        XContentBuilder b = JsonXContent.contentBuilder().startObject();
+        b.field("id", tweet.getTwitterId());
+        b.field("user", tweet.getFromUser().getScreenName());
+        b.field("url", Helper.toTwitterHref(tweet.getFromUser().getScreenName(), tweet.getTwitterId()));
+        b.field("date", tweet.getCreatedAt());
+        b.field("retweets", tweet.getRetweetCount());
+        b.field("text", tweet.getText());
+        b.endObject();
+        sb.append(b.string());
+        sb.append("\n");
+    }
+
+    /**
+     * Detects near duplicates of the specified tweets against all tweets of
+     * the last 24 hours via the in-memory MinHash index. No index queries are
+     * necessary except the initial loading of the MinHash index which happens
+     * in the background.
+     */
     public Collection<JTweet> findDuplicates(Map<Long, JTweet> tweets) {
         final Set<JTweet> updatedTweets = new LinkedHashSet<JTweet>();
-        TermCreateCommand termCommand = new TermCreateCommand();
         double JACC_BORDER = 0.7;
-        for (JTweet currentTweet : tweets.values()) {
-            if (currentTweet.isRetweet())
-                continue;
+        loadDupIndexInBackground();
 
-            JetwickQuery reqBuilder = new SimilarTweetQuery(currentTweet, false).addLatestDateFilter(24);
-            if (currentTweet.getTextTerms().size() < 3)
-                continue;
+        long minCreatedAt = System.currentTimeMillis() - DUP_HOURS * MyDate.ONE_HOUR;
+        if (dupIndexCleaned < System.currentTimeMillis() - MyDate.ONE_MINUTE) {
+            dupIndex.removeOlderThan(minCreatedAt);
+            dupIndexCleaned = System.currentTimeMillis();
+        }
 
-            int dups = 0;
-            try {
-                // find dups in index
-                for (JTweet simTweet : collectObjects(query(reqBuilder))) {
-                    if (simTweet.getTwitterId().equals(currentTweet.getTwitterId()))
-                        continue;
+        // add tweets before detection to find dups within the tweets map too
+        List<JTweet> candidates = new ArrayList<JTweet>(tweets.size());
+        for (JTweet tw : tweets.values()) {
+            if (addToDupIndex(tw))
+                candidates.add(tw);
+        }
 
-                    termCommand.calcTermsWithoutNoise(simTweet);
-                    if (TermCreateCommand.calcJaccardIndex(currentTweet.getTextTerms(), simTweet.getTextTerms())
-                            >= JACC_BORDER) {
-                        currentTweet.addDuplicate(simTweet.getTwitterId());
-                        dups++;
-                    }
-                }
-            } catch (Exception ex) {
-                logger.error("Error while findDuplicate query execution", ex);
+        for (JTweet currentTweet : candidates) {
+            for (Long simId : dupIndex.findSimilar(currentTweet.getTwitterId(), currentTweet.getMinHash(),
+                    currentTweet.getTextTerms(), JACC_BORDER, minCreatedAt)) {
+                // only older tweets of the tweets map are dups of the current tweet
+                JTweet simTweet = tweets.get(simId);
+                if (simTweet != null && currentTweet.getCreatedAt().getTime() < simTweet.getCreatedAt().getTime())
+                    continue;
+
+                currentTweet.addDuplicate(simId);
             }
+        }
 
-            // find dups in tweets map
-            for (JTweet simTweet : tweets.values()) {
-                if (simTweet.getTwitterId().equals(currentTweet.getTwitterId()) || simTweet.isRetweet())
-                    continue;
+        return updatedTweets;
+    }
 
-                if (currentTweet.getCreatedAt().getTime() < simTweet.getCreatedAt().getTime())
-                    continue;
+    /**
+     * Calculates the MinHash signature if necessary and adds the tweet to the
+     * MinHash index if it is a candidate for duplicate detection.
+     *
+     * @return true if the tweet is a candidate
+     */
+    boolean addToDupIndex(JTweet tw) {
+        if (tw.isRetweet())
+            return false;
 
-                termCommand.calcTermsWithoutNoise(simTweet);
-                if (TermCreateCommand.calcJaccardIndex(currentTweet.getTextTerms(), simTweet.getTextTerms())
-                        >= JACC_BORDER) {
-                    currentTweet.addDuplicate(simTweet.getTwitterId());
-                    dups++;
-                }
+        new TermCreateCommand().setTermCache(termCache).calcTermsWithoutNoise(tw);
+        if (tw.getTextTerms().size() < 3)
+            return false;
+
+        if (tw.getMinHash() == null)
+            tw.setMinHash(dupIndex.createSignature(tw.getTextTerms().keySet()));
+
+        // copy as the terms of the tweet will be reduced while storing
+        dupIndex.add(tw.getTwitterId(), tw.getCreatedAt().getTime(), tw.getMinHash(),
+                new StringFreqMap(tw.getTextTerms()));
+        return true;
+    }
+
+    /**
+     * Starts loading the MinHash index in a daemon thread if not already done
+     * so that the indexing thread won't wait for the scan.
+     */
+    public void loadDupIndexInBackground() {
+        if (dupIndexLoading.get())
+            return;
+
+        Thread thread = new Thread("dup-index-loader") {
+
+            @Override
+            public void run() {
+                loadDupIndex();
             }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Rebuilds the MinHash index from the signatures stored in the tweets of
+     * the last 24 hours. E.g. necessary after a restart.
+     */
+    public void loadDupIndex() {
+        if (!dupIndexLoading.compareAndSet(false, true))
+            return;
+
+        RangeFilterBuilder filter = FilterBuilders.rangeFilter(DATE).
+                gte(new MyDate().minusHours(DUP_HOURS).toDate());
+        try {
+            scanThis(new AnyExecutor<JTweet>() {
+
+                @Override
+                public JTweet execute(JTweet tw) {
+                    if (tw.getMinHash() != null && tw.getMinHash().length == dupIndex.getSignatureLength())
+                        dupIndex.add(tw.getTwitterId(), tw.getCreatedAt().getTime(), tw.getMinHash(), null);
+                    return tw;
+                }
+            }, QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filter), 10, 500);
+            logger.info("Loaded " + dupIndex.size() + " signatures into duplicate index");
+        } catch (Exception ex) {
+            logger.error("Couldn't load duplicate index", ex);
+        }
+    }
+
+    public MinHashIndex getDupIndex() {
+        return dupIndex;
+    }
+
+    public TermCache getTermCache() {
+        return termCache;
+    }
+
+    /**
+     * Executes the TermCreateCommand with the specified number of threads
+     * where the tweets are partitioned by user. 1 means serial execution.
+     */
+    public synchronized void setCommandThreads(int commandThreads) {
+        this.commandThreads = commandThreads;
+        // the next store recreates the pool with the new size
+        shutdownCommandService();
+    }
+
+    public int getCommandThreads() {
+        return commandThreads;
+    }
 
-//            tw.setDuplicates(dups);
+    synchronized ExecutorService getCommandService() {
+        if (commandService == null)
+            commandService = Executors.newFixedThreadPool(commandThreads);
+
+        return commandService;
+    }
+
+    private synchronized void shutdownCommandService() {
+        if (commandService != null) {
+            commandService.shutdown();
+            commandService = null;
         }
+    }
 
-        return updatedTweets;
+    @Override
+    public void finish() {
+        super.finish();
+        shutdownCommandService();
     }
 
     public SearchResponse updateSavedSearches(final Collection<SavedSearch> savedSearches) {
@@ -1176,8 +2055,34 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
     }
 
     public GetResponse findByTwitterIdRaw(Long twitterId) {
-        return client.prepareGet(getIndexName(), getIndexType(), Long.toString(twitterId)).
-                execute().actionGet();
+        if (!isRolling())
+            return client.prepareGet(getIndexName(), getIndexType(), Long.toString(twitterId)).
+                    setRouting(getRouting(twitterId)).execute().actionGet();
+
+        // get does not work on an alias with several indices
+        MultiGetRequestBuilder mgrb = client.prepareMultiGet().setRealtime(true);
+        for (String index : getGetIndices()) {
+            mgrb.add(new MultiGetRequest.Item(index, getIndexType(), Long.toString(twitterId)).
+                    routing(getRouting(twitterId)));
+        }
+        GetResponse res = null;
+        for (MultiGetItemResponse item : mgrb.execute().actionGet()) {
+            if (item.failed())
+                continue;
+            res = item.response();
+            if (res.exists())
+                break;
+        }
+        return res;
+    }
+
+    /**
+     * @return the indices which need to be asked for a document by id
+     */
+    List<String> getGetIndices() {
+        if (isRolling())
+            return getPartitionIndices();
+        return Collections.singletonList(getIndexName());
     }
 
     SearchRequestBuilder createSearchBuilder(String indexName) {
@@ -1187,7 +2092,6 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
     private StopWatch sw = new StopWatch();
     private int tweetCounter = 0;
     private AtomicInteger feededTweets = new AtomicInteger(0);
-    private Collection<JTweet> protectedTweets = new LinkedHashSet<JTweet>();
     private int feedCounter = 0;
 
     public int getFeededTweets() {
@@ -1196,23 +2100,61 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
 
     @Override
     public void innerAdd(JTweet tw) {
-        // do not add protected tweets and add them only once
-        if (!tw.isProtected()) {
-            JTweet existingTweet = tweets.put(tw.getId(), tw);            
-            if (existingTweet != null) {
-                existingTweet.updateFrom(tw);                
-                tweets.put(existingTweet.getId(), existingTweet);
-            }
-        } else
-            protectedTweets.add(tw);
+        // the queue merges queued tweets but a tweet can be queued again
+        // after it was taken for this batch
+        JTweet existingTweet = tweets.get(tw.getId());
+        tweets.put(tw.getId(), existingTweet == null ? tw : merge(existingTweet, tw));
+    }
+
+    @Override
+    protected JTweet merge(JTweet queued, JTweet tw) {
+        if (queued == tw)
+            return queued;
+
+        queued.updateFrom(tw);
+        // updateFrom only copies the counts so keep the state set by the
+        // url resolver and never index a protected tweet as unprotected
+        if (tw.isProtected())
+            queued.setProtected(true);
+        if (hasFetchedUrls(tw) && queued.getUrlEntries() != tw.getUrlEntries())
+            queued.setUrlEntries(new ArrayList<UrlEntry>(tw.getUrlEntries()));
+        // the resolver lowers the quality of spam titles and broken urls
+        queued.setQuality(Math.min(queued.getQuality(), tw.getQuality()));
+        return queued;
+    }
+
+    /**
+     * @return true if the url resolver fetched the snippet of an url
+     */
+    private static boolean hasFetchedUrls(JTweet tw) {
+        for (UrlEntry ue : tw.getUrlEntries()) {
+            if (ue.getResolvedSnippet() != null)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected int getEstimatedSize(JTweet tw) {
+        // the text is stored and indexed in several fields
+        return 512 + 4 * tw.getText().length();
     }
 
     @Override
     public void innerThreadMethod() throws InterruptedException {
         sw.start();
         boolean delete = testing || feedCounter++ % 400 == 0;
+        // do not index protected tweets but pass them to the listeners
+        List<JTweet> unprotectedTweets = new ArrayList<JTweet>(tweets.size());
+        List<JTweet> protectedTweets = new ArrayList<JTweet>();
+        for (JTweet tw : tweets.values()) {
+            if (tw.isProtected())
+                protectedTweets.add(tw);
+            else
+                unprotectedTweets.add(tw);
+        }
         // tweets can be updated from another thread (failed tweets)
-        Collection<JTweet> res = update(new ArrayList<JTweet>(tweets.values()), createRemoveOlderThan().toDate(), delete);
+        Collection<JTweet> res = update(unprotectedTweets, createRemoveOlderThan().toDate(), delete);
         tweetCounter += res.size();
         feededTweets.set(res.size());
         sw.stop();
@@ -1220,20 +2162,29 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
             logger.info("Updated " + tweetCounter + " tweets "
                     + tweetCounter / sw.getSeconds() + " per sec. Remaining:"
                     + getTodoObjects().size());
-            logger.info("sw1:" + sw1.getSeconds() + "\t sw2:" + sw2.getSeconds()
-                    + "\t sw3:" + sw3.getSeconds() + "\t sw4:" + sw4.getSeconds());
+            logger.info("retweets connected locally:" + localRetweetLinks.get()
+                    + "\t via index:" + indexRetweetLinks.get());
+            logger.info("term cache hits:" + termCache.getHits()
+                    + "\t misses:" + termCache.getMisses() + "\t size:" + termCache.size());
             tweetCounter = 0;
             sw = new StopWatch();
         }
 
         res.addAll(protectedTweets);
-        for (AnyExecutor<JTweet> exec : commitListener) {
-            for (JTweet tw : res) {
-                exec.execute(tw);
+        final Collection<JTweet> committed = res;
+        // the listeners could search for the tweets
+        runAfterIndexing(new Runnable() {
+
+            @Override
+            public void run() {
+                for (AnyExecutor<JTweet> exec : commitListener) {
+                    for (JTweet tw : committed) {
+                        exec.execute(tw);
+                    }
+                }
             }
-        }
+        });
 
-        protectedTweets.clear();
         tweets.clear();
     }
 
@@ -1257,8 +2208,9 @@ public class ElasticTweetSearch extends AbstractElasticSearchQueueEnabled<JTweet
 
     @Override
     public void deleteAll(String indexName, String indexType) {
-        protectedTweets.clear();
         tweets.clear();
+        replyGraph.clear();
+        dupIndex.clear();
         super.deleteAll(indexName, indexType);
     }        
 }
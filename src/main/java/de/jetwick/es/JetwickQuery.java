@@ -22,6 +22,7 @@ import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.RangeFilterBuilder;
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import org.apache.lucene.analysis.TokenStream;
@@ -32,12 +33,14 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import de.jetwick.data.JTweet;
 import java.util.Collection;
+import java.util.Date;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.elasticsearch.search.facet.AbstractFacetBuilder;
 import org.elasticsearch.search.facet.FacetBuilders;
+import de.jetwick.util.GenericUrlResolver;
 import de.jetwick.util.Helper;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.search.sort.SortOrder;
@@ -60,12 +63,14 @@ public abstract class JetwickQuery implements Serializable {
 
     private static final Logger logger = LoggerFactory.getLogger(JetwickQuery.class);
     private static final long serialVersionUID = 1L;
+    private static final Map<String, FilterBuilder> filterCache = GenericUrlResolver.createGenericCache(2000, 60);
     public final static String SAVED_SEARCHES = "ss";   
     private int from;
     private int size = 10;
     protected String queryString;
     protected boolean escape = false;
     protected boolean explain = false;
+    private SortCursor cursor;
     private List<StrEntry> sortFields = new ArrayList<StrEntry>();
     private List<Entry<String, Object>> filterQueries = new ArrayList<Entry<String, Object>>();
     private Map<String, Integer> facetFields = new LinkedHashMap<String, Integer>();
@@ -93,11 +98,13 @@ public abstract class JetwickQuery implements Serializable {
         Integer start = getFrom();
         if (start == null)
             start = 0;
+        if (cursor != null)
+            start = cursor.getTies();
 
         srb.setSearchType(SearchType.QUERY_THEN_FETCH).//QUERY_AND_FETCH would return too many results
                 setFrom(start).setSize(rows);
 
-        for (StrEntry e : getSortFields()) {
+        for (StrEntry e : getCursorSortFields()) {
             if ("asc".equals(e.getValue()))
                 srb.addSort(e.getKey(), SortOrder.ASC);
             else if ("desc".equals(e.getValue()))
@@ -106,6 +113,8 @@ public abstract class JetwickQuery implements Serializable {
 
         QueryBuilder qb = createQuery(getQuery());
         qb = processFilterQueries(qb);
+        if (cursor != null)
+            qb = QueryBuilders.filteredQuery(qb, cursor.createFilter(getCursorSortFields()));
         processFacetFields(srb);
         processFacetQueries(srb);
         srb.setQuery(qb);
@@ -190,8 +199,27 @@ public abstract class JetwickQuery implements Serializable {
         return QueryBuilders.matchAllQuery();
     }
 
+    /**
+     * The same filters (spam, dups, language, date of the last hours) are
+     * used for nearly every query, so reuse the parsed builders. They are
+     * not modified after creation.
+     */
     public static FilterBuilder filterQuery2Builder(String key, Object input) {
         String val = input.toString();
+        String cacheKey = key + ":" + val;
+        FilterBuilder fb = filterCache.get(cacheKey);
+        if (fb == null) {
+            fb = parseFilter(key, val);
+            filterCache.put(cacheKey, fb);
+        }
+        return fb;
+    }
+
+    /**
+     * @return the filter for key:val where the ES filter cache is enabled
+     * so that recurring filters are only bitset intersections
+     */
+    static FilterBuilder parseFilter(String key, String val) {
         if (key.contains(ElasticTweetSearch._ID))
             return idFilter(key, val);
         else if (val.contains(" OR ")) {
@@ -204,7 +232,8 @@ public abstract class JetwickQuery implements Serializable {
             for (int i = 0; i < res.length; i++) {
                 terms[i] = getTermValue(res[i]);
             }
-            return FilterBuilders.termsFilter(key, terms);
+            // avoid big cache keys for e.g. the friends filter
+            return FilterBuilders.termsFilter(key, terms).cache(true).cacheKey(key + ":" + digest(val));
         }
 
         if (val.startsWith("[NOW") || val.startsWith("[DAY")) {
@@ -215,7 +244,7 @@ public abstract class JetwickQuery implements Serializable {
             if (index1 < 0)
                 throw new IllegalStateException("couldn't handle filter " + key + ":" + val);
 
-            RangeFilterBuilder rfb = FilterBuilders.rangeFilter(key);
+            RangeFilterBuilder rfb = FilterBuilders.rangeFilter(key).cache(true);
             Object from = null;
             Object to = null;
 
@@ -247,12 +276,29 @@ public abstract class JetwickQuery implements Serializable {
 
             return rfb;
         } else if (key.startsWith("-")) {
-            return FilterBuilders.notFilter(FilterBuilders.termFilter(key.substring(1), getTermValue(val)));
+            return FilterBuilders.notFilter(FilterBuilders.termFilter(key.substring(1), getTermValue(val)).cache(true)).cache(true);
         } else
-            return FilterBuilders.termFilter(key, getTermValue(val));
+            return FilterBuilders.termFilter(key, getTermValue(val)).cache(true);
 
     }
 
+    /**
+     * @return the hex encoded MD5 of the specified string
+     */
+    static String digest(String str) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("MD5").digest(str.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     public static BaseFilterBuilder idFilter(String key, String val) {
         int index = key.indexOf(ElasticTweetSearch._ID);
         String type = key.substring(index + ElasticTweetSearch._ID.length());
@@ -361,6 +407,41 @@ public abstract class JetwickQuery implements Serializable {
         return sortFields;
     }
 
+    /**
+     * @return the sort fields plus the tie break field so that hits with
+     * equal sort values are returned in a stable order
+     */
+    public List<StrEntry> getCursorSortFields() {
+        String tieBreak = getTieBreakField();
+        if (tieBreak == null || sortFields.isEmpty())
+            return sortFields;
+
+        for (StrEntry e : sortFields) {
+            if (e.getKey().equals(tieBreak))
+                return sortFields;
+        }
+        List<StrEntry> res = new ArrayList<StrEntry>(sortFields);
+        res.add(new StrEntry(tieBreak, sortFields.get(0).getValue()));
+        return res;
+    }
+
+    protected String getTieBreakField() {
+        return null;
+    }
+
+    /**
+     * Fetches the hits after the specified cursor instead of skipping them
+     * via from. See SortCursor.
+     */
+    public JetwickQuery setCursor(SortCursor cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    public SortCursor getCursor() {
+        return cursor;
+    }
+
     public JetwickQuery init(String queryStr, boolean facets) {
         if (queryStr == null)
             queryStr = "";
@@ -440,6 +521,43 @@ public abstract class JetwickQuery implements Serializable {
         return getFirstFilterQuery(filterKey) != null;
     }
 
+    /**
+     * @return the intersection of all range filters of the specified date
+     * field as from and to where null means unbounded. Or null if there is
+     * no such filter.
+     */
+    public Date[] getDateRange(String key) {
+        Date[] range = null;
+        for (Entry<String, Object> e : getFilterQueries()) {
+            String val = e.getValue().toString();
+            if (!e.getKey().equals(key) || !val.startsWith("[") || !val.endsWith("]"))
+                continue;
+
+            String[] strs = val.substring(1, val.length() - 1).split(" TO ");
+            if (strs.length != 2)
+                continue;
+
+            if (range == null)
+                range = new Date[2];
+            try {
+                if (!strs[0].equals("*")) {
+                    Date from = Helper.toDate(strs[0]);
+                    if (range[0] == null || from.after(range[0]))
+                        range[0] = from;
+                }
+                if (!strs[1].equals("*")) {
+                    Date to = Helper.toDate(strs[1]);
+                    if (range[1] == null || to.before(range[1]))
+                        range[1] = to;
+                }
+            } catch (Exception ex) {
+                // e.g. date math
+                return null;
+            }
+        }
+        return range;
+    }
+
     public String getFirstFilterQuery(String key) {
         for (Entry<String, Object> e : getFilterQueries()) {
             if (e.getKey().equals(key))
@@ -556,6 +674,8 @@ public abstract class JetwickQuery implements Serializable {
         }
 
         q.setDateFacets(dateFacets);
+        q.setEscape(escape);
+        q.setCursor(cursor);
 
         return q;
     }
@@ -775,6 +895,10 @@ public abstract class JetwickQuery implements Serializable {
             return false;
         if (this.dateFacets != other.dateFacets)
             return false;
+        if (this.escape != other.escape)
+            return false;
+        if (this.cursor != other.cursor && (this.cursor == null || !this.cursor.equals(other.cursor)))
+            return false;
         return true;
     }
 
@@ -789,6 +913,8 @@ public abstract class JetwickQuery implements Serializable {
         hash = 41 * hash + (this.facetFields != null ? this.facetFields.hashCode() : 0);
         hash = 41 * hash + (this.facetQueries != null ? this.facetQueries.hashCode() : 0);
         hash = 41 * hash + (this.dateFacets ? 1 : 0);
+        hash = 41 * hash + (this.escape ? 1 : 0);
+        hash = 41 * hash + (this.cursor != null ? this.cursor.hashCode() : 0);
         return hash;
     }
 
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.tw.cmd.StringFreqMap;
+import de.jetwick.tw.cmd.TermCreateCommand;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * An in-memory near duplicate index. Every tweet gets a MinHash signature of
+ * its terms which is split into bands. Tweets sharing at least one band are
+ * candidates. If the terms of both tweets are known their jaccard index is
+ * calculated, otherwise the fraction of equal signature values estimates it.
+ *
+ * The hash functions are created from a fixed seed so that signatures
+ * stored in the index documents stay valid after a restart.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class MinHashIndex {
+
+    private static final long SEED = 123456789L;
+    private final int bands;
+    private final int rows;
+    private final int[] seeds;
+    private final int maxEntries;
+    // insertion order to evict the oldest entries if the index is full
+    private final Map<Long, Entry> entries = new LinkedHashMap<Long, Entry>();
+    private final Map<Long, Set<Long>> buckets = new HashMap<Long, Set<Long>>();
+    private long evicted = 0;
+
+    /**
+     * 16 bands with 3 rows find tweets with a jaccard index of 0.7 with a
+     * probability of over 99%
+     */
+    public MinHashIndex(int maxEntries) {
+        this(16, 3, maxEntries);
+    }
+
+    public MinHashIndex(int bands, int rows, int maxEntries) {
+        this.bands = bands;
+        this.rows = rows;
+        this.maxEntries = maxEntries;
+        seeds = new int[bands * rows];
+        Random rand = new Random(SEED);
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = rand.nextInt();
+        }
+    }
+
+    public int getSignatureLength() {
+        return seeds.length;
+    }
+
+    public int[] createSignature(Collection<String> terms) {
+        int[] sig = new int[seeds.length];
+        for (int i = 0; i < sig.length; i++) {
+            sig[i] = Integer.MAX_VALUE;
+        }
+
+        for (String term : terms) {
+            int h = term.hashCode();
+            for (int i = 0; i < sig.length; i++) {
+                int val = mix(h ^ seeds[i]);
+                if (val < sig[i])
+                    sig[i] = val;
+            }
+        }
+        return sig;
+    }
+
+    /**
+     * Adds or replaces the signature of the specified tweet. If the index is
+     * full the oldest added entry is evicted.
+     *
+     * @param terms the terms of the tweet or null if only the signature is
+     * known e.g. if it was loaded from the index
+     */
+    public synchronized void add(long id, long createdAt, int[] sig, StringFreqMap terms) {
+        if (sig.length != seeds.length)
+            throw new IllegalArgumentException("Signature length " + sig.length + " does not match " + seeds.length);
+
+        Entry old = entries.remove(id);
+        if (old != null)
+            removeFromBuckets(old);
+        else if (entries.size() >= maxEntries) {
+            Iterator<Entry> iter = entries.values().iterator();
+            Entry eldest = iter.next();
+            iter.remove();
+            removeFromBuckets(eldest);
+            evicted++;
+        }
+
+        Entry e = new Entry(id, createdAt, sig, terms);
+        entries.put(id, e);
+        for (int b = 0; b < bands; b++) {
+            long key = bandKey(b, sig);
+            Set<Long> ids = buckets.get(key);
+            if (ids == null) {
+                ids = new LinkedHashSet<Long>(2);
+                buckets.put(key, ids);
+            }
+            ids.add(id);
+        }
+    }
+
+    /**
+     * @return the ids of all tweets created after minCreatedAt which have a
+     * jaccard index of at least minSimilarity
+     */
+    public synchronized List<Long> findSimilar(long id, int[] sig, StringFreqMap terms,
+            double minSimilarity, long minCreatedAt) {
+        List<Long> res = new ArrayList<Long>(2);
+        Set<Long> checked = new LinkedHashSet<Long>();
+        for (int b = 0; b < bands; b++) {
+            Set<Long> ids = buckets.get(bandKey(b, sig));
+            if (ids == null)
+                continue;
+
+            for (Long candidate : ids) {
+                if (candidate == id || !checked.add(candidate))
+                    continue;
+
+                Entry e = entries.get(candidate);
+                if (e.createdAt < minCreatedAt)
+                    continue;
+
+                double sim;
+                if (terms != null && e.terms != null)
+                    sim = TermCreateCommand.calcJaccardIndex(terms, e.terms);
+                else
+                    sim = calcSimilarity(sig, e.sig);
+
+                if (sim >= minSimilarity)
+                    res.add(candidate);
+            }
+        }
+        return res;
+    }
+
+    public static double calcSimilarity(int[] sig1, int[] sig2) {
+        int equal = 0;
+        for (int i = 0; i < sig1.length; i++) {
+            if (sig1[i] == sig2[i])
+                equal++;
+        }
+        return (double) equal / sig1.length;
+    }
+
+    public synchronized void removeOlderThan(long createdAt) {
+        Iterator<Entry> iter = entries.values().iterator();
+        while (iter.hasNext()) {
+            Entry e = iter.next();
+            if (e.createdAt < createdAt) {
+                iter.remove();
+                removeFromBuckets(e);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        buckets.clear();
+    }
+
+    private void removeFromBuckets(Entry e) {
+        for (int b = 0; b < bands; b++) {
+            long key = bandKey(b, e.sig);
+            Set<Long> ids = buckets.get(key);
+            if (ids != null) {
+                ids.remove(e.id);
+                if (ids.isEmpty())
+                    buckets.remove(key);
+            }
+        }
+    }
+
+    private long bandKey(int band, int[] sig) {
+        int h = 17;
+        for (int r = band * rows; r < (band + 1) * rows; r++) {
+            h = h * 31 + sig[r];
+        }
+        return ((long) band << 32) | (h & 0xFFFFFFFFL);
+    }
+
+    /**
+     * finalization step of murmur3
+     */
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static class Entry {
+
+        final long id;
+        final long createdAt;
+        final int[] sig;
+        final StringFreqMap terms;
+
+        Entry(long id, long createdAt, int[] sig, StringFreqMap terms) {
+            this.id = id;
+            this.createdAt = createdAt;
+            this.sig = sig;
+            this.terms = terms;
+        }
+    }
+}
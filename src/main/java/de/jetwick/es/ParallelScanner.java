@@ -0,0 +1,160 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.util.AnyExecutor;
+import de.jetwick.util.Metrics;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks through the pages of a scroll while the previous pages are still
+ * processed: the next page is requested asynchronously as soon as the
+ * current one arrived and a pool of workers creates the objects and calls
+ * the page executor. At most inFlight pages are fetched but not yet
+ * processed.
+ *
+ * With one thread the pages are processed in scroll order.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class ParallelScanner<T> {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Client client;
+    private final CreateObjectsInterface<T> createObj;
+    private int threads = 1;
+    private int inFlight = 2;
+    private String name = "scan";
+
+    public ParallelScanner(Client client, CreateObjectsInterface<T> createObj) {
+        this.client = client;
+        this.createObj = createObj;
+    }
+
+    /**
+     * @param threads the number of workers which execute the pages
+     * @param inFlight the maximal number of fetched pages not yet processed
+     */
+    public ParallelScanner<T> setThreads(int threads, int inFlight) {
+        if (threads < 1 || inFlight < threads)
+            throw new IllegalArgumentException("threads must be positive and not more than inFlight "
+                    + threads + " " + inFlight);
+        this.threads = threads;
+        this.inFlight = inFlight;
+        return this;
+    }
+
+    /**
+     * used for logging
+     */
+    public ParallelScanner<T> setName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    /**
+     * @param scanRequest a request with search type scan and a scroll
+     * @param pageExecutor is called concurrently if more than one thread is
+     * used. An exception stops the scan and is thrown from this method.
+     * @return the number of scanned objects
+     */
+    public long scan(SearchRequestBuilder scanRequest, long keepTimeInMinutes,
+            final AnyExecutor<List<T>> pageExecutor) {
+        final TimeValue keepTime = TimeValue.timeValueMinutes(keepTimeInMinutes);
+        SearchResponse rsp = scanRequest.execute().actionGet();
+        long total = rsp.hits().totalHits();
+        final Semaphore pages = new Semaphore(inFlight);
+        final AtomicReference<RuntimeException> error = new AtomicReference<RuntimeException>();
+        final AtomicLong processed = new AtomicLong(0);
+        final AtomicLong scanned = Metrics.getDefault().counter("scan.docs");
+        ExecutorService service = Executors.newFixedThreadPool(threads);
+        long start = System.currentTimeMillis();
+        long lastLog = start;
+        long all = 0;
+        try {
+            ListenableActionFuture<SearchResponse> next = client.prepareSearchScroll(rsp.scrollId()).
+                    setScroll(keepTime).execute();
+            while (error.get() == null) {
+                final SearchResponse page = next.actionGet();
+                int currentResults = page.hits().hits().length;
+                if (currentResults == 0)
+                    break;
+
+                // prefetch while the workers are busy
+                next = client.prepareSearchScroll(page.scrollId()).setScroll(keepTime).execute();
+                all += currentResults;
+                pages.acquire();
+                service.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            if (error.get() == null) {
+                                List<T> objs = createObj.collectObjects(page);
+                                pageExecutor.execute(objs);
+                                processed.addAndGet(objs.size());
+                                scanned.addAndGet(objs.size());
+                            }
+                        } catch (RuntimeException ex) {
+                            error.compareAndSet(null, ex);
+                        } finally {
+                            pages.release();
+                        }
+                    }
+                });
+
+                long now = System.currentTimeMillis();
+                if (now - lastLog > 10000) {
+                    lastLog = now;
+                    logger.info(name + " progress " + processed.get() + "/" + total + " "
+                            + getDocsPerSec(processed.get(), now - start) + " docs/sec");
+                }
+            }
+
+            // wait for the last pages
+            pages.acquire(inFlight);
+            pages.release(inFlight);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } finally {
+            service.shutdownNow();
+        }
+
+        if (error.get() != null)
+            throw error.get();
+
+        logger.info(name + " finished " + processed.get() + " of " + all + " fetched docs with "
+                + getDocsPerSec(processed.get(), System.currentTimeMillis() - start) + " docs/sec");
+        return processed.get();
+    }
+
+    static long getDocsPerSec(long docs, long millis) {
+        return docs * 1000 / Math.max(1, millis);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.util.GenericUrlResolver;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded local cache of reply edges (original tweet -> replying user ->
+ * reply ids). It is used to check if a user has already replied to or
+ * retweeted a tweet without one index query per reply.
+ *
+ * An original tweet is 'loaded' if all its replies from the index were
+ * added. Only for loaded tweets a negative answer can be given.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class ReplyGraph {
+
+    private final ConcurrentMap<Long, Node> nodes;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    public ReplyGraph(int maxTweets, int minutes) {
+        nodes = GenericUrlResolver.createGenericCache(maxTweets, minutes);
+    }
+
+    public boolean isLoaded(long origId) {
+        Node n = nodes.get(origId);
+        return n != null && n.loaded;
+    }
+
+    public void setLoaded(long origId) {
+        getOrCreate(origId).loaded = true;
+    }
+
+    public void addEdge(long origId, String user, long replyId) {
+        Node n = getOrCreate(origId);
+        synchronized (n) {
+            Set<Long> ids = n.edges.get(user);
+            if (ids == null) {
+                ids = new LinkedHashSet<Long>(2);
+                n.edges.put(user, ids);
+            }
+            ids.add(replyId);
+        }
+    }
+
+    /**
+     * @return true if the specified user has already a reply (different to
+     * replyId) for the specified tweet, false if not and null if this is
+     * unknown because the tweet was not loaded.
+     */
+    public Boolean hasOtherReply(long origId, String user, long replyId) {
+        Node n = nodes.get(origId);
+        if (n == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        synchronized (n) {
+            Set<Long> ids = n.edges.get(user);
+            if (ids != null) {
+                for (Long id : ids) {
+                    if (id != replyId) {
+                        hits.incrementAndGet();
+                        return true;
+                    }
+                }
+            }
+        }
+
+        if (!n.loaded) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return false;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public void clear() {
+        nodes.clear();
+    }
+
+    private Node getOrCreate(long origId) {
+        Node n = nodes.get(origId);
+        if (n == null) {
+            Node newNode = new Node();
+            n = nodes.putIfAbsent(origId, newNode);
+            if (n == null)
+                n = newNode;
+        }
+        return n;
+    }
+
+    private static class Node {
+
+        volatile boolean loaded = false;
+        final Map<String, Set<Long>> edges = new LinkedHashMap<String, Set<Long>>(4);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.util.StrEntry;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.RangeFilterBuilder;
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * Position after the last hit of a page for queries sorted by numeric fields.
+ * The next page is then fetched via a range filter on the sort values instead
+ * of skipping all previous hits via from, so page N is as cheap as page 1.
+ *
+ * The hits of the last page which have exactly the same sort values are
+ * counted and skipped via from.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class SortCursor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private final Object[] values;
+    private final int ties;
+
+    public SortCursor(Object[] values, int ties) {
+        this.values = values;
+        this.ties = ties;
+    }
+
+    /**
+     * @return the cursor pointing after the last hit of the response or null
+     * if the hits are not sorted by numeric fields
+     */
+    public static SortCursor create(SortCursor previous, SearchResponse rsp) {
+        SearchHit[] hits = rsp.getHits().getHits();
+        if (hits.length == 0)
+            return null;
+
+        Object[] last = normalize(hits[hits.length - 1].sortValues());
+        if (last == null)
+            return null;
+
+        int ties = 0;
+        for (int i = hits.length - 1; i >= 0; i--) {
+            if (!Arrays.equals(last, normalize(hits[i].sortValues())))
+                break;
+            ties++;
+        }
+
+        // the whole page had the sort values of the previous cursor
+        if (ties == hits.length && previous != null && Arrays.equals(last, previous.values))
+            ties += previous.ties;
+
+        return new SortCursor(last, ties);
+    }
+
+    static Object[] normalize(Object[] sortValues) {
+        if (sortValues == null || sortValues.length == 0)
+            return null;
+
+        Object[] res = new Object[sortValues.length];
+        for (int i = 0; i < sortValues.length; i++) {
+            Object o = sortValues[i];
+            if (o instanceof Double || o instanceof Float)
+                res[i] = ((Number) o).doubleValue();
+            else if (o instanceof Number)
+                res[i] = ((Number) o).longValue();
+            else
+                return null;
+        }
+        return res;
+    }
+
+    /**
+     * Parses the string created via toString
+     */
+    public static SortCursor parse(String token) {
+        String[] strs = token.split("_");
+        Object[] values = new Object[strs.length - 1];
+        for (int i = 1; i < strs.length; i++) {
+            String str = strs[i];
+            if (str.startsWith("d"))
+                values[i - 1] = Double.parseDouble(str.substring(1));
+            else
+                values[i - 1] = Long.parseLong(str.substring(1));
+        }
+        return new SortCursor(values, Integer.parseInt(strs[0]));
+    }
+
+    /**
+     * @return the number of hits to skip, as they were already returned
+     */
+    public int getTies() {
+        return ties;
+    }
+
+    public Object[] getValues() {
+        return values;
+    }
+
+    /**
+     * @param sortFields the field names with their order (asc or desc). They
+     * need to be in the same order as in the query which created this cursor
+     * @return a filter matching the hit where this cursor points to and all
+     * hits after it
+     */
+    public FilterBuilder createFilter(List<StrEntry> sortFields) {
+        if (sortFields.size() != values.length)
+            throw new IllegalStateException("cursor " + this + " does not match sort " + sortFields);
+
+        // (f1 after v1) OR (f1 = v1 AND f2 after v2) OR ... OR (f1 = v1 AND ... AND fn after or = vn)
+        FilterBuilder[] ors = new FilterBuilder[values.length];
+        for (int i = 0; i < values.length; i++) {
+            FilterBuilder[] ands = new FilterBuilder[i + 1];
+            for (int j = 0; j < i; j++) {
+                ands[j] = FilterBuilders.rangeFilter(sortFields.get(j).getKey()).
+                        from(values[j]).to(values[j]).includeLower(true).includeUpper(true);
+            }
+
+            boolean last = i == values.length - 1;
+            RangeFilterBuilder rfb = FilterBuilders.rangeFilter(sortFields.get(i).getKey());
+            if ("asc".equals(sortFields.get(i).getValue())) {
+                if (last)
+                    rfb.gte(values[i]);
+                else
+                    rfb.gt(values[i]);
+            } else {
+                if (last)
+                    rfb.lte(values[i]);
+                else
+                    rfb.lt(values[i]);
+            }
+            ands[i] = rfb;
+            ors[i] = ands.length == 1 ? ands[0] : FilterBuilders.andFilter(ands);
+        }
+
+        if (ors.length == 1)
+            return ors[0];
+        return FilterBuilders.orFilter(ors);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        final SortCursor other = (SortCursor) obj;
+        return ties == other.ties && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 67 * hash + Arrays.hashCode(values);
+        hash = 67 * hash + ties;
+        return hash;
+    }
+
+    /**
+     * @return an opaque token which can be used in urls
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(ties);
+        for (Object o : values) {
+            sb.append('_').append(o instanceof Double ? 'd' : 'l').append(o);
+        }
+        return sb.toString();
+    }
+}
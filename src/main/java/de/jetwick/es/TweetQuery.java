@@ -134,6 +134,11 @@ public class TweetQuery extends JetwickQuery {
         return facetBuilder;
     }
 
+    @Override
+    protected String getTieBreakField() {
+        return ElasticTweetSearch.DATE;
+    }
+
     @Override
     public TweetQuery attachFacetibility() {
 //        setDateFacets(true).
@@ -23,7 +23,10 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,7 +66,9 @@ public class RMIServer implements CommunicationService {
             }
         };
     }
-    int counter = 1;
+    private AtomicLong dropped = new AtomicLong(0);
+    // the maximal time the remote caller is blocked if the queue is full
+    private long maxWaitMillis = 2000;
 
     @Override
     public void send(JTweet tws) {
@@ -72,16 +77,7 @@ public class RMIServer implements CommunicationService {
             return;
         }
 
-        // prevent us from OOMs
-        if (tweetQueue.size() > 10000) {
-            if (counter++ % 100 == 0) {
-                logger.warn("Skipped " + counter + " tweets - queue is full: " + tweetQueue.size());
-                counter = 1;
-            }
-            return;
-        }
-
-        tweetQueue.add(tws);
+        offer(Collections.singleton(tws));
 //        logger.info("queued " + tws.getFeedSource());
     }
 
@@ -95,14 +91,43 @@ public class RMIServer implements CommunicationService {
             return;
         }
 
-        // prevent us from OOMs
-        if (tweetQueue.size() > 10000) {
-            logger.warn("Skipped " + tweets.size() + " tweets - queue is full: " + tweetQueue.size());
-            return;
+        int queued = offer(tweets);
+        logger.info("queued " + queued + " tweets. First name " + tweets.iterator().next().getFeedSource());
+    }
+
+    /**
+     * Slows down the caller if the consumer cannot keep up. Only if the queue
+     * stays full longer than maxWaitMillis the remaining tweets are dropped.
+     *
+     * @return the number of queued tweets
+     */
+    int offer(Collection<JTweet> tweets) {
+        long end = System.currentTimeMillis() + maxWaitMillis;
+        int queued = 0;
+        try {
+            for (JTweet tw : tweets) {
+                long wait = Math.max(0, end - System.currentTimeMillis());
+                if (!tweetQueue.offer(tw, wait, TimeUnit.MILLISECONDS))
+                    break;
+                queued++;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
 
-        tweetQueue.addAll(tweets);
-        logger.info("queued " + tweets.size() + " tweets. First name " + tweets.iterator().next().getFeedSource());
+        int skipped = tweets.size() - queued;
+        if (skipped > 0)
+            logger.warn("Skipped " + skipped + " tweets - queue is full: " + tweetQueue.size()
+                    + ". Dropped " + dropped.addAndGet(skipped) + " tweets so far");
+        return queued;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
     }
 
     public void setQueue(BlockingQueue<JTweet> tweets) {
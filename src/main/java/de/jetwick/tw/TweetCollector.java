@@ -20,11 +20,13 @@ import com.google.inject.Injector;
 import com.google.inject.Module;
 import de.jetwick.config.Configuration;
 import de.jetwick.config.DefaultModule;
+import de.jetwick.es.AdaptiveBatchSize;
 import de.jetwick.es.ElasticTagSearch;
 import de.jetwick.es.ElasticTweetSearch;
 import de.jetwick.es.ElasticUserSearch;
 import de.jetwick.rmi.RMIServer;
 import de.jetwick.util.GenericUrlResolver;
+import de.jetwick.util.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +62,7 @@ public class TweetCollector {
         };
 
         Runtime.getRuntime().addShutdownHook(new Thread(runOnExit));
+        Metrics.registerMBean();
 
         Module module = new DefaultModule();
         Injector injector = Guice.createInjector(module);
@@ -79,7 +82,8 @@ public class TweetCollector {
         //      ...
         
         // 2. TweetConsumer polls N elements from every queue and feeds the results
-        //    into the resolver - see GenericUrlResolver.
+        //    through its stages (url extraction, index check) into the resolver
+        //    - see GenericUrlResolver.
         
         // 4. Via ElasticTweetSearch:s commit listener the URL:s of tweets will be        
         //    resolved - 
@@ -87,6 +91,8 @@ public class TweetCollector {
 
         TweetConsumer twConsumer = injector.getInstance(TweetConsumer.class);
         twConsumer.setUncaughtExceptionHandler(excHandler);
+        twConsumer.setStageThreads(cfg.getTweetConsumerExtractThreads(),
+                cfg.getTweetConsumerCheckThreads(), cfg.getTweetConsumerQueueThreads());
 
         GenericUrlResolver resolver = injector.getInstance(GenericUrlResolver.class);        
         resolver.start();
@@ -115,12 +121,25 @@ public class TweetCollector {
 
         // feeding consumer from UI        
         RMIServer rmiServer = injector.getInstance(RMIServer.class);
-        rmiServer.setQueue(twConsumer.register("producer-rmi", queueCapacity, 20));
+        // tweets requested from the UI are preferred
+        rmiServer.setQueue(twConsumer.register("producer-rmi", queueCapacity, 20, 3));
         Thread rmiServerThread = rmiServer.createThread();
   
         // configure tweet index to call UrlResolver after feeding of a tweet        
         tweetSearch.setRemoveOlderThanDays(cfg.getTweetSearchRemoveDays());
         tweetSearch.setBatchSize(cfg.getTweetSearchBatch());                
+        tweetSearch.setConcurrentBulks(cfg.getTweetSearchConcurrentBulks());
+        tweetSearch.setBulkMaxBytes(cfg.getTweetSearchBulkMaxBytes());
+        tweetSearch.setBulkFlushInterval(cfg.getTweetSearchBulkFlushInterval());
+        tweetSearch.setMaxPendingObjects(cfg.getTweetSearchMaxPending());
+        if (cfg.getTweetSearchBulkTargetLatency() > 0) {
+            AdaptiveBatchSize abs = new AdaptiveBatchSize(cfg.getTweetSearchBatch(),
+                    cfg.getTweetSearchBulkFlushInterval(), cfg.getTweetSearchBulkTargetLatency());
+            if (cfg.getTweetSearchBulkMinBatch() > 0)
+                abs.setMinBatchSize(cfg.getTweetSearchBulkMinBatch());
+            tweetSearch.setAdaptiveBatchSize(abs);
+        }
+        tweetSearch.setCommandThreads(cfg.getTweetSearchCommandThreads());
 
         Thread twProducerThread = new Thread(twProducer, "tweet-producer");
         twProducerThread.setUncaughtExceptionHandler(excHandler);
@@ -20,21 +20,33 @@ import de.jetwick.data.JTweet;
 import de.jetwick.data.UrlEntry;
 import de.jetwick.snacktory.JResult;
 import de.jetwick.util.GenericUrlResolver;
-import de.jetwick.util.StopWatch;
+import de.jetwick.util.LatencyHistogram;
+import de.jetwick.util.Metrics;
+import de.jetwick.util.Metrics.Gauge;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import org.elasticsearch.common.cache.CacheBuilder;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * stores the tweets from the queue into the dbHelper and solr
+ * Feeds the tweets from the producer queues into the resolver. The work is
+ * done in stages which are connected via bounded queues:
+ *
+ * 1. this thread polls the producer queues and removes duplicates
+ * 2. the urls of the tweets are extracted
+ * 3. one request checks which tweets of a batch are already in the index
+ * 4. the tweets are queued into the resolver (which can block)
  *
  * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
  */
@@ -47,6 +59,15 @@ public class TweetConsumer extends Thread {
     private Map<Long, Object> tweetCache;
     private static final Object OBJECT = new Object();
     private UrlExtractor urlExtractor;
+    // released for every tweet put into one of the input queues
+    private final Semaphore arrivals = new Semaphore(0);
+    private int extractThreads = 1;
+    private int checkThreads = 2;
+    private int queueThreads = 1;
+    private int stageCapacity = 10;
+    private volatile List<BlockingQueue<?>> stageQueues = new ArrayList<BlockingQueue<?>>();
+    private final AtomicLong duplicates = Metrics.getDefault().counter("consumer.duplicates");
+    private final LatencyHistogram pollLatency = Metrics.getDefault().histogram("consumer.poll");
 
     public TweetConsumer() {
         super("tweet-consumer");
@@ -56,71 +77,186 @@ public class TweetConsumer extends Thread {
         return resolver;
     }
 
+    /**
+     * Sets the number of threads of the url extraction, the index check and
+     * the resolver stage
+     */
+    public TweetConsumer setStageThreads(int extractThreads, int checkThreads, int queueThreads) {
+        this.extractThreads = extractThreads;
+        this.checkThreads = checkThreads;
+        this.queueThreads = queueThreads;
+        return this;
+    }
+
+    /**
+     * @param stageCapacity the number of batches which can wait before a stage
+     */
+    public TweetConsumer setStageCapacity(int stageCapacity) {
+        this.stageCapacity = stageCapacity;
+        return this;
+    }
+
     @Override
     public void run() {
         initTweetCache();
-        urlExtractor = new UrlExtractor() {
-
-            @Override
-            public JResult getInfo(String originalUrl, int timeout) throws Exception {
-                JResult res = UrlEntry.createSimpleResult(originalUrl);
-                return res;
-            }
-        };
+        final BlockingQueue<List<JTweet>> extractQueue = new ArrayBlockingQueue<List<JTweet>>(stageCapacity);
+        final BlockingQueue<List<JTweet>> checkQueue = new ArrayBlockingQueue<List<JTweet>>(stageCapacity);
+        final BlockingQueue<CheckedBatch> resolveQueue = new ArrayBlockingQueue<CheckedBatch>(stageCapacity);
+        List<BlockingQueue<?>> tmpQueues = new ArrayList<BlockingQueue<?>>();
+        tmpQueues.add(extractQueue);
+        tmpQueues.add(checkQueue);
+        tmpQueues.add(resolveQueue);
+        stageQueues = tmpQueues;
+        registerGauge("consumer.stage.extract", extractQueue);
+        registerGauge("consumer.stage.check", checkQueue);
+        registerGauge("consumer.stage.resolve", resolveQueue);
+        ExecutorService service = Executors.newFixedThreadPool(extractThreads + checkThreads + queueThreads);
+        for (int i = 0; i < extractThreads; i++) {
+            service.execute(new Stage<List<JTweet>>("url extraction", extractQueue) {
+
+                final UrlExtractor extractor = createUrlExtractor();
+
+                @Override
+                void process(List<JTweet> batch) throws InterruptedException {
+                    extractUrls(extractor, batch);
+                    checkQueue.put(batch);
+                }
+            });
+        }
+        for (int i = 0; i < checkThreads; i++) {
+            service.execute(new Stage<List<JTweet>>("index check", checkQueue) {
 
-        int counter = 0;
-        StopWatch sw = new StopWatch();
-        while (true) {
-            counter++;
-            sw.start();
-            int feeded = executeOneBatch();
-            sw.stop();
-            if (feeded < 10) {
-                try {
-                    Thread.sleep(400);
-                } catch (InterruptedException ex) {
-                    logger.error(getName() + " interrupted while sleeping: " + ex.getLocalizedMessage());
-                    break;
+                @Override
+                void process(List<JTweet> batch) throws InterruptedException {
+                    resolveQueue.put(new CheckedBatch(batch, resolver.findExistingIds(batch)));
                 }
-            }
+            });
+        }
+        for (int i = 0; i < queueThreads; i++) {
+            service.execute(new Stage<CheckedBatch>("resolver", resolveQueue) {
 
-            // print stats
-            if (counter % 1000 == 0) {
-                logger.info("time of polling:\t" + sw.getSeconds());
-                sw = new StopWatch();
+                @Override
+                void process(CheckedBatch batch) {
+                    resolver.queueObjects(batch.tweets, batch.existingIds);
+                }
+            });
+        }
 
-                logger.info("tweetCache size:\t" + tweetCache.size());
-                logger.info("tweetTodo size:\t" + resolver.getInputQueue().size());
-                for (QueueInfo<JTweet> qi : inputQueues) {
-                    logger.info(qi.toString());
+        try {
+            while (!isInterrupted()) {
+                long start = System.nanoTime();
+                // tweets which arrive after this call will wake us up
+                arrivals.drainPermits();
+                int feeded = 0;
+                for (List<JTweet> batch : pollBatches()) {
+                    feeded += batch.size();
+                    extractQueue.put(batch);
                 }
+                if (feeded == 0)
+                    arrivals.tryAcquire(1, TimeUnit.SECONDS);
+                else
+                    pollLatency.recordSince(start);
             }
+        } catch (InterruptedException ex) {
+            logger.error(getName() + " interrupted: " + ex.getLocalizedMessage());
+        } finally {
+            service.shutdownNow();
         }
         logger.warn(getName() + " finished");
     }
 
+    /**
+     * @return the number of batches waiting before the url extraction, the
+     * index check and the resolver stage
+     */
+    public int[] getStageQueueSizes() {
+        List<BlockingQueue<?>> queues = stageQueues;
+        int[] sizes = new int[queues.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = queues.get(i).size();
+        }
+        return sizes;
+    }
+
+    private void registerGauge(String name, final BlockingQueue<?> queue) {
+        Metrics.getDefault().register(name, new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return queue.size();
+            }
+        });
+    }
+
+    /**
+     * Registers the gauges of the input queue. The queue name is used instead
+     * of the feed source of the tweets to keep the number of metrics small.
+     */
+    private void registerGauges(final QueueInfo<JTweet> qInfo) {
+        String prefix = "producer." + qInfo.getName();
+        registerGauge(prefix + ".size", qInfo.getQueue());
+        Metrics.getDefault().register(prefix + ".polled", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return qInfo.getOutputCount();
+            }
+        }).register(prefix + ".rate", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return qInfo.getOutputFrequency();
+            }
+        }).register(prefix + ".dropped", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return qInfo.getDropped();
+            }
+        }).register(prefix + ".latency", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return qInfo.getEstimatedLatency();
+            }
+        });
+    }
+
     public void setResolver(GenericUrlResolver resolver) {
         this.resolver = resolver;
     }
 
+    public List<QueueInfo<JTweet>> getQueueInfos() {
+        return inputQueues;
+    }
+
+    public BlockingQueue<JTweet> register(String queueName, int capacity, int batchSize) {
+        return register(queueName, capacity, batchSize, 1);
+    }
+
     /**
      * @param queueName the identifier of the input queue
      * @param capacity the number of elements which should fit into the input
      * queue. This should be at least twice times bigger than batchSize.
      * @param batchSize the number of elements to feed at once into main output
      * queue.
-     * @return the newly registered queue
+     * @param priority the weight of the queue. If other queues are empty the
+     * queue gets their share in the ratio of the priorities.
+     * @return the newly registered queue. Producers should use put or offer
+     * with a timeout to wait if the queue is full.
      */
-    public BlockingQueue<JTweet> register(String queueName, int capacity, int batchSize) {
-        BlockingQueue q = new LinkedBlockingQueue<JTweet>(capacity);
-        QueueInfo qInfo = new QueueInfo(queueName, q);
+    public BlockingQueue<JTweet> register(String queueName, int capacity, int batchSize, int priority) {
+        SignalingQueue<JTweet> q = new SignalingQueue<JTweet>(capacity, arrivals);
+        QueueInfo<JTweet> qInfo = new QueueInfo<JTweet>(queueName, q);
         for (QueueInfo<JTweet> qi : inputQueues) {
             if (qi.getName().equals(queueName))
                 throw new IllegalStateException("cannot register queue. Queue " + queueName + " already exists");
         }
 
         qInfo.setBatchSize(batchSize);
+        qInfo.setPriority(priority);
         inputQueues.add(qInfo);
+        registerGauges(qInfo);
 
         int sum = 0;
         for (QueueInfo<JTweet> qi : inputQueues) {
@@ -135,38 +271,189 @@ public class TweetConsumer extends Thread {
         return qInfo.getQueue();
     }
 
+    /**
+     * Executes all stages for one batch of every input queue in the calling
+     * thread.
+     */
     public int executeOneBatch() {
+        if (urlExtractor == null)
+            urlExtractor = createUrlExtractor();
+
         int feeded = 0;
-        for (QueueInfo<JTweet> qi : inputQueues) {
-            int batchSize = qi.getBatchSize();
-            Queue<JTweet> queue = qi.getQueue();
-            int newTweets = 0;
-            for (; newTweets < batchSize; newTweets++) {
-                JTweet tw = queue.poll();
-                if (tw == null)
-                    break;
+        for (List<JTweet> batch : pollBatches()) {
+            feeded += batch.size();
+            extractUrls(urlExtractor, batch);
+            resolver.queueObjects(batch);
+        }
+        return feeded;
+    }
 
-                if (!tw.isPersistent() && tweetCache != null && tweetCache.put(tw.getTwitterId(), OBJECT) != null) {
-                    newTweets--;
-                    continue;
-                }
+    /**
+     * Polls the input queues in a weighted round robin and skips the tweets
+     * which were already seen. Every queue gets batchSize * priority tweets
+     * per round. The share of the empty queues is distributed to the other
+     * queues in the same ratio, so that the round size stays the same.
+     */
+    List<List<JTweet>> pollBatches() {
+        int roundSize = 0;
+        int activeSize = 0;
+        for (QueueInfo<JTweet> qi : inputQueues) {
+            roundSize += qi.getQuantum();
+            if (!qi.getQueue().isEmpty())
+                activeSize += qi.getQuantum();
+        }
 
-                if (urlExtractor != null) {
-                    for (UrlEntry ue : ((UrlExtractor) urlExtractor.setTweet(tw).run()).getUrlEntries()) {
-                        tw.addUrlEntry(ue);
+        long now = System.currentTimeMillis();
+        List<List<JTweet>> batches = new ArrayList<List<JTweet>>(inputQueues.size());
+        for (QueueInfo<JTweet> qi : inputQueues) {
+            Queue<JTweet> queue = qi.getQueue();
+            int polled = 0;
+            List<JTweet> batch = new ArrayList<JTweet>(qi.getBatchSize());
+            if (activeSize > 0 && !queue.isEmpty()) {
+                int maxTweets = (int) ((long) qi.getQuantum() * roundSize / activeSize);
+                int newTweets = 0;
+                for (; newTweets < maxTweets; newTweets++) {
+                    JTweet tw = queue.poll();
+                    if (tw == null)
+                        break;
+
+                    polled++;
+                    if (!tw.isPersistent() && tweetCache != null && tweetCache.put(tw.getTwitterId(), OBJECT) != null) {
+                        newTweets--;
+                        duplicates.incrementAndGet();
+                        continue;
                     }
+                    batch.add(tw);
                 }
-                feeded++;
-                resolver.queueObject(tw);
             }
+            qi.updateOutput(polled, now);
 
+            if (!batch.isEmpty())
+                batches.add(batch);
         }
-        return feeded;
+        return batches;
+    }
+
+    void extractUrls(UrlExtractor extractor, List<JTweet> batch) {
+        for (JTweet tw : batch) {
+            for (UrlEntry ue : ((UrlExtractor) extractor.setTweet(tw).run()).getUrlEntries()) {
+                tw.addUrlEntry(ue);
+            }
+        }
+    }
+
+    /**
+     * UrlExtractor is not thread safe so every thread needs its own instance
+     */
+    UrlExtractor createUrlExtractor() {
+        return new UrlExtractor() {
+
+            @Override
+            public JResult getInfo(String originalUrl, int timeout) throws Exception {
+                JResult res = UrlEntry.createSimpleResult(originalUrl);
+                return res;
+            }
+        };
     }
 
     public void initTweetCache() {
-        if (tweetCache == null)
+        if (tweetCache == null) {
             tweetCache = GenericUrlResolver.createGenericCache(50000, 6 * 60);
+            Metrics.getDefault().register("consumer.tweetCache", new Gauge() {
+
+                @Override
+                public Number getValue() {
+                    return tweetCache.size();
+                }
+            });
+        }
+    }
+
+    /**
+     * Takes the batches from the input queue until the thread gets
+     * interrupted.
+     */
+    abstract class Stage<T> implements Runnable {
+
+        private final String name;
+        private final BlockingQueue<T> input;
+
+        Stage(String name, BlockingQueue<T> input) {
+            this.name = name;
+            this.input = input;
+        }
+
+        abstract void process(T batch) throws InterruptedException;
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    process(input.take());
+                } catch (InterruptedException ex) {
+                    logger.info(name + " stage stopped");
+                    break;
+                } catch (Exception ex) {
+                    logger.error("problem in " + name + " stage", ex);
+                }
+            }
+        }
+    }
+
+    static class CheckedBatch {
+
+        final List<JTweet> tweets;
+        final Set<Long> existingIds;
+
+        CheckedBatch(List<JTweet> tweets, Set<Long> existingIds) {
+            this.tweets = tweets;
+            this.existingIds = existingIds;
+        }
+    }
+
+    /**
+     * Wakes up the consumer if a producer adds a tweet and counts the tweets
+     * which were rejected because the queue was full.
+     */
+    static class SignalingQueue<E> extends LinkedBlockingQueue<E> {
+
+        private final Semaphore arrivals;
+        private final AtomicLong dropped = new AtomicLong(0);
+
+        SignalingQueue(int capacity, Semaphore arrivals) {
+            super(capacity);
+            this.arrivals = arrivals;
+        }
+
+        @Override
+        public boolean offer(E e) {
+            if (!super.offer(e)) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            arrivals.release();
+            return true;
+        }
+
+        @Override
+        public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+            if (!super.offer(e, timeout, unit)) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            arrivals.release();
+            return true;
+        }
+
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        @Override
+        public void put(E e) throws InterruptedException {
+            super.put(e);
+            arrivals.release();
+        }
     }
 
     public static class QueueInfo<JTweet> {
@@ -175,7 +462,9 @@ public class TweetConsumer extends Thread {
         private long lastMeasureTime = System.currentTimeMillis();
         private final BlockingQueue<JTweet> queue;
         private int batchSize = 200;
+        private int priority = 1;
         private int outputCount;
+        private int lastOutputCount;
         private float outputFrequency;
 
         public QueueInfo(String name, BlockingQueue<JTweet> queue) {
@@ -199,6 +488,62 @@ public class TweetConsumer extends Thread {
             this.batchSize = batchSize;
         }
 
+        public int getPriority() {
+            return priority;
+        }
+
+        public void setPriority(int priority) {
+            if (priority < 1)
+                throw new IllegalArgumentException("priority must be positive but was " + priority);
+            this.priority = priority;
+        }
+
+        /**
+         * @return the number of tweets polled in one round if all queues
+         * have enough tweets
+         */
+        public int getQuantum() {
+            return batchSize * priority;
+        }
+
+        /**
+         * Counts the polled tweets and updates the output frequency (tweets
+         * per second) at most once a second.
+         */
+        public void updateOutput(int polled, long now) {
+            outputCount += polled;
+            long delta = now - lastMeasureTime;
+            if (delta < 1000)
+                return;
+
+            float freq = (outputCount - lastOutputCount) * 1000f / delta;
+            // floating mean
+            outputFrequency = (outputFrequency + freq) / 2;
+            lastOutputCount = outputCount;
+            lastMeasureTime = now;
+        }
+
+        /**
+         * @return the number of tweets the producer could not put into the
+         * full queue
+         */
+        public long getDropped() {
+            if (queue instanceof SignalingQueue)
+                return ((SignalingQueue) queue).getDropped();
+            return 0;
+        }
+
+        /**
+         * @return the estimated milliseconds a new tweet waits in this queue
+         * calculated from the queue size and the output frequency or -1 if
+         * no tweets were polled recently
+         */
+        public long getEstimatedLatency() {
+            if (outputFrequency <= 0)
+                return queue.isEmpty() ? 0 : -1;
+            return Math.round(queue.size() * 1000 / outputFrequency);
+        }
+
         public void setOutputFrequency(float outputFrequency) {
             this.outputFrequency = outputFrequency;
         }
@@ -225,7 +570,8 @@ public class TweetConsumer extends Thread {
 
         @Override
         public String toString() {
-            return getName() + "\t size:" + getQueue().size() + "\t count:" + outputCount + "\t oFreq.:" + getOutputFrequency();
+            return getName() + "\t size:" + getQueue().size() + "\t count:" + outputCount + "\t oFreq.:" + getOutputFrequency()
+                    + "\t prio:" + priority + "\t dropped:" + getDropped() + "\t latency:" + getEstimatedLatency() + "ms";
         }
     }
 }
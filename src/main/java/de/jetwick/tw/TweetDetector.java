@@ -52,6 +52,7 @@ public class TweetDetector {
     private int termMaxCount = 6;
     private StringFreqMap languages = new StringFreqMap(4);
     private StringFreqMap terms = new StringFreqMap(8);
+    private char[] buffer = new char[160];
 
     public TweetDetector(Collection<JTweet> tweets) {
         this.tweets = tweets;
@@ -62,30 +63,134 @@ public class TweetDetector {
 
     /**
      * To create symbol-free terms
-     *
-     * TODO PERFORMANCE expensive method
      */
     public static String stripNoiseFromWord(String str) {
         if (str.length() < 2)
             return str;
 
+        char[] buf = new char[str.length()];
+        int len = stripNoise(str, buf);
+        return new String(buf, 0, len);
+    }
+
+    /**
+     * Removes highlighting, urls, punctuation and leading hash signs of the
+     * specified string in one pass and without creating intermediate strings.
+     *
+     * @param buf the buffer for the result, must have at least the length of str
+     * @return the number of chars of the result in buf
+     */
+    static int stripNoise(String str, char[] buf) {
+        int len = str.length();
+        str.getChars(0, len, buf, 0);
+
         // remove highlighting
-        str = str.replaceAll("<b>", "");
-        str = str.replaceAll("</b>", "");
-        // ignore urls
-        // urls contain all characters except spaces: [^ ] and we need this multple times: *
-        str = str.replaceAll("http[s]?://[^ ]*", " ");
-        str = str.replaceAll("[\\\"\\:\\;\\&\\.\\!\\?\\)\\(\\[\\]\\,\\>\\<\\-\\n\\t\\&]", " ");
-        str = str.replaceAll(" #", " ");
-        // or at the beginning of the line
-        if (str.charAt(0) == '#')
-            str = str.substring(1);
-        str = str.replaceAll("^#", " ");
+        if (str.indexOf('<') >= 0) {
+            len = removeAll(buf, len, "<b>");
+            len = removeAll(buf, len, "</b>");
+        }
+
+        // the result is never longer so we can write into the same buffer
+        int w = 0;
+        int pos = 0;
+        // previous char after replacing urls and symbols
+        char prev = 0;
+        for (int r = 0; r < len;) {
+            char c = buf[r];
+            int urlLen = urlStartLength(buf, r, len);
+            if (urlLen > 0) {
+                // ignore urls. they contain all characters except spaces
+                r += urlLen;
+                while (r < len && buf[r] != ' ') {
+                    r++;
+                }
+                c = ' ';
+            } else {
+                r++;
+                if (isNoiseChar(c))
+                    c = ' ';
+            }
+
+            boolean skip = false;
+            char out = c;
+            if (c == '#') {
+                // hashtags at the beginning of the line or after a space
+                if (pos == 0 || prev == ' ')
+                    skip = true;
+                else if (pos == 1 && prev == '#')
+                    out = ' ';
+            }
+
+            prev = c;
+            pos++;
+            if (!skip)
+                buf[w++] = out;
+        }
+        return w;
+    }
+
+    private static int removeAll(char[] buf, int len, String pattern) {
+        int w = 0;
+        for (int r = 0; r < len;) {
+            if (startsWith(buf, r, len, pattern))
+                r += pattern.length();
+            else
+                buf[w++] = buf[r++];
+        }
+        return w;
+    }
 
-        str = str.replaceAll(":-", " ");
-        str = str.replaceAll(";-", " ");
+    private static int urlStartLength(char[] buf, int index, int len) {
+        if (!startsWith(buf, index, len, "http"))
+            return 0;
+        if (startsWith(buf, index + 4, len, "://"))
+            return 7;
+        if (startsWith(buf, index + 4, len, "s://"))
+            return 8;
+        return 0;
+    }
+
+    private static boolean startsWith(char[] buf, int index, int len, String pattern) {
+        if (index + pattern.length() > len)
+            return false;
+
+        for (int i = 0; i < pattern.length(); i++) {
+            if (buf[index + i] != pattern.charAt(i))
+                return false;
+        }
+        return true;
+    }
 
-        return str;
+    private static boolean isNoiseChar(char c) {
+        switch (c) {
+            case '"':
+            case ':':
+            case ';':
+            case '&':
+            case '.':
+            case '!':
+            case '?':
+            case ')':
+            case '(':
+            case '[':
+            case ']':
+            case ',':
+            case '>':
+            case '<':
+            case '-':
+            case '\n':
+            case '\t':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * same characters as \\s in regular expressions
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
     public List<Entry<String, Integer>> getSortedTerms() {
@@ -136,32 +241,49 @@ public class TweetDetector {
     }
 
     private void oneTweet(Map<String, Integer> termMap, Map<String, Integer> langMap, String text) {
+        if (text.length() < 2)
+            return;
+
+        if (buffer.length < text.length())
+            buffer = new char[text.length()];
+
+        char[] buf = buffer;
+        int len = stripNoise(text, buf);
+
+        // skip the last term for language detection
+        int lastTermEnd = len;
+        while (lastTermEnd > 0 && isWhitespace(buf[lastTermEnd - 1])) {
+            lastTermEnd--;
+        }
+
         // split against white space characters
-        text = stripNoiseFromWord(text);
-        String tmpTerms[] = text.split("\\s");
-//        Analyzer ana = new JetwickAnalyzer();
-//        TokenStream ts = ana.tokenStream("tw", new StringReader(text));
-//        CharTermAttribute termAttribute = ts.getAttribute(CharTermAttribute.class);
-        int counter = 0;
-        for (String term : tmpTerms) {
-            counter++;
-            if (term.length() < 2 || term.length() > 70 || term.startsWith("@"))
+        int end = 0;
+        while (end < len) {
+            int start = end;
+            while (start < len && isWhitespace(buf[start])) {
+                start++;
+            }
+            end = start;
+            while (end < len && !isWhitespace(buf[end])) {
+                end++;
+            }
+
+            int termLen = end - start;
+            if (termLen < 2 || termLen > 70 || buf[start] == '@')
                 continue;
 
+            String term = new String(buf, start, termLen);
             Set<String> detectedLangs = JTweet.LANG_DET_WORDS.get(term);
-            if (langMap != null && detectedLangs != null) {
-                // skip the last term for language detection
-                if (counter < tmpTerms.length) {
-                    for (String lang : detectedLangs) {
-                        if (lang.equals(TweetDetector.NUM_TERMS)
-                                || lang.equals(TweetDetector.SINGLE_CHAR_TERMS)
-                                || lang.equals(TweetDetector.MISC_TERMS))
-                            continue;
-
-                        Integer integ = langMap.put(lang, 1);
-                        if (integ != null)
-                            langMap.put(lang, integ + 1);
-                    }
+            if (langMap != null && detectedLangs != null && end < lastTermEnd) {
+                for (String lang : detectedLangs) {
+                    if (lang.equals(TweetDetector.NUM_TERMS)
+                            || lang.equals(TweetDetector.SINGLE_CHAR_TERMS)
+                            || lang.equals(TweetDetector.MISC_TERMS))
+                        continue;
+
+                    Integer integ = langMap.put(lang, 1);
+                    if (integ != null)
+                        langMap.put(lang, integ + 1);
                 }
             }
 
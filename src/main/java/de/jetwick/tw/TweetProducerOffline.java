@@ -22,12 +22,17 @@ import de.jetwick.data.JUser;
 import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * fills the tweets queue via twitter searchAndGetUsers (does not cost API calls)
  * 
+ * The tweets can be produced with a fixed rate. In open loop mode the
+ * schedule is kept even if the queue is full and such tweets are dropped,
+ * otherwise the producer waits for the queue.
+ * 
  * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
  */
 public class TweetProducerOffline extends MyThread implements TweetProducer {
@@ -35,11 +40,48 @@ public class TweetProducerOffline extends MyThread implements TweetProducer {
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private BlockingQueue<JTweet> tweetPackages = new LinkedBlockingQueue<JTweet>();    
     private Random rand = new Random();
+    private int tweetsPerSec = 0;
+    private boolean openLoop = false;
+    private float urlRatio = 0;
+    private final AtomicLong produced = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
 
     public TweetProducerOffline() {
         super("fake tweet-producer");
     }
 
+    /**
+     * @param tweetsPerSec the rate or 0 to produce as fast as possible
+     */
+    public TweetProducerOffline setTweetsPerSec(int tweetsPerSec) {
+        this.tweetsPerSec = tweetsPerSec;
+        return this;
+    }
+
+    public TweetProducerOffline setOpenLoop(boolean openLoop) {
+        this.openLoop = openLoop;
+        return this;
+    }
+
+    /**
+     * @param urlRatio the fraction of tweets which contain an url
+     */
+    public TweetProducerOffline setUrlRatio(float urlRatio) {
+        this.urlRatio = urlRatio;
+        return this;
+    }
+
+    public long getProduced() {
+        return produced.get();
+    }
+
+    /**
+     * @return the tweets which were skipped in open loop mode
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
     @Override
     public void setQueue(BlockingQueue<JTweet> q) {
         tweetPackages = q;
@@ -48,6 +90,8 @@ public class TweetProducerOffline extends MyThread implements TweetProducer {
     @Override
     public void run() {
         int counter = 0;
+        long start = System.nanoTime();
+        long scheduled = 0;
         MAIN:
         while (!isInterrupted()) {
             counter++;
@@ -60,9 +104,10 @@ public class TweetProducerOffline extends MyThread implements TweetProducer {
                 for (int i = 0; i < TWEETS_PER_USER; i++) {
                     // make id random because otherwise all tweets will be overwritten 
                     // and not added for a new collector start
-                    JTweet tw = new JTweet(Math.abs(rand.nextLong()),
-                            createRandomWord(3) + " " + createRandomWord(4),
-                            user);
+                    String text = createRandomWord(3) + " " + createRandomWord(4);
+                    if (urlRatio > 0 && rand.nextFloat() < urlRatio)
+                        text += " http://" + createRandomWord(5).toLowerCase() + ".de/" + rand.nextInt(1000);
+                    JTweet tw = new JTweet(Math.abs(rand.nextLong()), text, user);
                     int retweet = (int) Math.round(Math.abs(rand.nextGaussian() * 10));
                     tw.setRetweetCount(retweet);
                     int repliesNoRetweet = (int) Math.round(Math.abs(rand.nextGaussian() * 2));
@@ -72,7 +117,25 @@ public class TweetProducerOffline extends MyThread implements TweetProducer {
             }
 
             for (JTweet tw : tmp) {
-                tweetPackages.add(tw.setFeedSource("fake:" + counter));
+                tw.setFeedSource("fake:" + counter);
+                try {
+                    if (tweetsPerSec > 0) {
+                        scheduled++;
+                        long delta = start + scheduled * 1000000000L / tweetsPerSec - System.nanoTime();
+                        if (delta > 0)
+                            Thread.sleep(delta / 1000000, (int) (delta % 1000000));
+                    }
+
+                    if (!openLoop)
+                        tweetPackages.put(tw);
+                    else if (!tweetPackages.offer(tw)) {
+                        dropped.incrementAndGet();
+                        continue;
+                    }
+                    produced.incrementAndGet();
+                } catch (InterruptedException ex) {
+                    break MAIN;
+                }
             }
         }
 
@@ -122,6 +122,7 @@ public class TweetProducerViaSearch extends MyThread implements TweetProducer {
 //                    resultTweets.add(new JTweet(123, "something http://t.co/BVDTqCO", new JUser("timetabling")));
 
                     updateTag(tag, tmpColl.size());
+                    waitInSeconds *= getBackpressureFactor();
                 } catch (TwitterException ex) {
                     waitInSeconds = 3f;
                     logger.warn("Couldn't finish search for tag '" + term + "': " + Helper.getMsg(ex));
@@ -136,6 +137,21 @@ public class TweetProducerViaSearch extends MyThread implements TweetProducer {
         logger.info(getName() + " finished");
     }
 
+    /**
+     * The free capacity of the queue are the credits of this producer. If it
+     * gets low we search less often instead of blocking on a full queue.
+     *
+     * @return 1 if the queue is at most half full, up to 5 if it is full
+     */
+    float getBackpressureFactor() {
+        int size = resultTweets.size();
+        long capacity = (long) size + resultTweets.remainingCapacity();
+        float fill = size / (float) capacity;
+        if (fill <= 0.5f)
+            return 1f;
+        return 1f + (fill - 0.5f) * 8f;
+    }
+
     @Override
     public void setTwitterSearch(TwitterSearch tws) {
         this.twSearch = tws;
@@ -171,7 +187,10 @@ public class TweetProducerViaSearch extends MyThread implements TweetProducer {
 
                 @Override
                 public JUser execute(JUser u) {
-                    userQueryTerms.addAll(u.getTopics());
+                    // called from several scan threads
+                    synchronized (userQueryTerms) {
+                        userQueryTerms.addAll(u.getTopics());
+                    }
                     return u;
                 }
             }, 1000);
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2010 Peter Karich <jetwick_@_pannous_._info>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw.cmd;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.util.AnyExecutor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Executes the commands like SerialCommandExecutor but distributes the
+ * tweets over the threads of the specified service. All tweets of one user
+ * land in the same partition, so the older tweets of a user (which are
+ * modified e.g. in TermCreateCommand) are only accessed from one thread.
+ *
+ * Like in SerialCommandExecutor one command is executed for all tweets
+ * before the next command starts. The commands itself need to be thread
+ * safe apart from the per user state.
+ *
+ * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
+ */
+public class ParallelCommandExecutor extends SerialCommandExecutor {
+
+    private final ExecutorService service;
+    private final int partitions;
+
+    /**
+     * @param partitions should be at least the number of threads of the service
+     */
+    public ParallelCommandExecutor(Collection<JTweet> tweets, ExecutorService service, int partitions) {
+        super(tweets);
+        this.service = service;
+        this.partitions = Math.max(1, partitions);
+    }
+
+    @Override
+    public Collection<JTweet> execute() {
+        List<List<JTweet>> parts = partition();
+        if (parts.size() <= 1)
+            return super.execute();
+
+        for (final AnyExecutor cmd : list) {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(parts.size());
+            for (final List<JTweet> part : parts) {
+                tasks.add(new Callable<Object>() {
+
+                    @Override
+                    public Object call() throws Exception {
+                        for (JTweet tw : part) {
+                            cmd.execute(tw);
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            try {
+                for (Future<Object> f : service.invokeAll(tasks)) {
+                    f.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) ex.getCause();
+                throw new RuntimeException(ex.getCause());
+            }
+        }
+        return tweets;
+    }
+
+    /**
+     * @return the non empty partitions. The order of the tweets of one user
+     * is kept.
+     */
+    List<List<JTweet>> partition() {
+        List<List<JTweet>> parts = new ArrayList<List<JTweet>>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            parts.add(new ArrayList<JTweet>());
+        }
+
+        for (JTweet tw : tweets) {
+            int index = 0;
+            if (tw.getFromUser() != null)
+                index = (tw.getFromUser().getScreenName().hashCode() & Integer.MAX_VALUE) % partitions;
+            parts.get(index).add(tw);
+        }
+
+        List<List<JTweet>> res = new ArrayList<List<JTweet>>(partitions);
+        for (List<JTweet> part : parts) {
+            if (!part.isEmpty())
+                res.add(part);
+        }
+        return res;
+    }
+}
@@ -26,8 +26,8 @@ import java.util.Collection;
  */
 public class SerialCommandExecutor {
 
-    private ArrayList<AnyExecutor> list = new ArrayList<AnyExecutor>();
-    private Collection<JTweet> tweets;
+    protected ArrayList<AnyExecutor> list = new ArrayList<AnyExecutor>();
+    protected Collection<JTweet> tweets;
 
     public SerialCommandExecutor(Collection<JTweet> tweets) {
         this.tweets = tweets;
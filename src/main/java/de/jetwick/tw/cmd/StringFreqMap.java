@@ -16,32 +16,57 @@
 package de.jetwick.tw.cmd;
 
 import de.jetwick.util.Helper;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
- * Holds string frequency
+ * Holds string frequency.
+ *
+ * Terms and their int counts are stored in insertion order in two arrays
+ * which are indexed by an open addressing table (linear probing). So
+ * inc, get, andSize and orSize do not box integers and do not allocate
+ * entries. The Map interface is only an adapter for existing callers.
  *
  * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
  */
-public class StringFreqMap extends LinkedHashMap<String, Integer> {
+public class StringFreqMap extends AbstractMap<String, Integer> implements Serializable {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+    private String[] keys;
+    private int[] counts;
+    // slot -> index into keys + 1, 0 means empty
+    private int[] table;
+    private int size;
+    private transient int modCount;
+    private transient Set<Entry<String, Integer>> entrySet;
 
-    public StringFreqMap() {    
+    public StringFreqMap() {
+        this(8);
     }
 
     public StringFreqMap(Map<? extends String, ? extends Integer> m) {
-        super(m);
+        this(m.size());
+        for (Entry<? extends String, ? extends Integer> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
     }
 
     public StringFreqMap(int initialCapacity) {
-        super(initialCapacity);
+        int cap = Math.max(4, initialCapacity);
+        keys = new String[cap];
+        counts = new int[cap];
+        table = new int[tableSizeFor(cap)];
     }
 
     public StringFreqMap set(String key, Integer count) {
@@ -54,52 +79,82 @@ public class StringFreqMap extends LinkedHashMap<String, Integer> {
         return this;
     }
 
-//    public Set<String> and(Map<String, Integer> map) {
-//        Set<String> res = new LinkedHashSet<String>();
-//        Set<String> iterSet;
-//        Set<String> otherSet;
-//        if (size() > map.size()) {
-//            iterSet = map.keySet();
-//            otherSet = keySet();
-//        } else {
-//            iterSet = this.keySet();
-//            otherSet = map.keySet();
-//        }
-//
-//        for (String iterStr : iterSet) {
-//            if (otherSet.contains(iterStr))
-//                res.add(iterStr);
-//        }
-//
-//        return res;
-//    }
+    /**
+     * @return the count of the specified term or 0 if it does not exist
+     */
+    public int getCount(String key) {
+        int index = indexOf(key);
+        return index < 0 ? 0 : counts[index];
+    }
+
     public int andSize(Map<String, Integer> other) {
-        Set<Entry<String, Integer>> iterSet;
-        Map<String, Integer> otherMap;
-        if (size() > other.size()) {
-            iterSet = other.entrySet();
-            otherMap = this;
-        } else {
-            iterSet = this.entrySet();
-            otherMap = other;
+        if (other instanceof StringFreqMap) {
+            StringFreqMap o = (StringFreqMap) other;
+            StringFreqMap iterMap;
+            StringFreqMap otherMap;
+            if (size > o.size) {
+                iterMap = o;
+                otherMap = this;
+            } else {
+                iterMap = this;
+                otherMap = o;
+            }
+
+            int counter = 0;
+            for (int i = 0; i < iterMap.size; i++) {
+                if (otherMap.indexOf(iterMap.keys[i]) >= 0)
+                    counter += iterMap.counts[i];
+            }
+            return counter;
         }
 
         int counter = 0;
-        for (Entry<String, Integer> iterEntry : iterSet) {
-            if (otherMap.containsKey(iterEntry.getKey()))
-                counter += iterEntry.getValue();
+        if (size > other.size()) {
+            for (Entry<String, Integer> e : other.entrySet()) {
+                if (indexOf(e.getKey()) >= 0)
+                    counter += e.getValue();
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (other.containsKey(keys[i]))
+                    counter += counts[i];
+            }
         }
         return counter;
     }
 
+    /**
+     * @return the sum of the maximal counts of all terms contained in one of
+     * the maps
+     */
     public int orSize(Map<String, Integer> map) {
         int counter = 0;
-        for (Entry<String, Integer> e : or(map).entrySet()) {
-            counter += e.getValue();
+        for (int i = 0; i < size; i++) {
+            counter += counts[i];
+        }
+
+        if (map instanceof StringFreqMap) {
+            StringFreqMap o = (StringFreqMap) map;
+            for (int i = 0; i < o.size; i++) {
+                counter += orDelta(o.keys[i], o.counts[i]);
+            }
+        } else {
+            for (Entry<String, Integer> e : map.entrySet()) {
+                counter += orDelta(e.getKey(), e.getValue());
+            }
         }
         return counter;
     }
 
+    private int orDelta(String key, int otherCount) {
+        int index = indexOf(key);
+        if (index < 0)
+            return otherCount;
+
+        // replace the count of this map if the other one is larger
+        return Math.max(counts[index], otherCount) - counts[index];
+    }
+
     /**
      * Returns unsorted merge of all strings
      */
@@ -115,25 +170,40 @@ public class StringFreqMap extends LinkedHashMap<String, Integer> {
     }
 
     public StringFreqMap addOne2All(Map<String, Integer> map) {
-        for (Entry<String, Integer> e : map.entrySet()) {
-            inc(e.getKey(), 1);
+        if (map instanceof StringFreqMap) {
+            StringFreqMap o = (StringFreqMap) map;
+            for (int i = 0; i < o.size; i++) {
+                inc(o.keys[i], 1);
+            }
+        } else {
+            for (String key : map.keySet()) {
+                inc(key, 1);
+            }
         }
         return this;
     }
 
     public StringFreqMap addValue2All(Map<String, Integer> map) {
-        for (Entry<String, Integer> e : map.entrySet()) {
-            inc(e.getKey(), e.getValue());
+        if (map instanceof StringFreqMap) {
+            StringFreqMap o = (StringFreqMap) map;
+            for (int i = 0; i < o.size; i++) {
+                inc(o.keys[i], o.counts[i]);
+            }
+        } else {
+            for (Entry<String, Integer> e : map.entrySet()) {
+                inc(e.getKey(), e.getValue());
+            }
         }
         return this;
     }
 
     public boolean inc(String key, int val) {
-        Integer integ = get(key);
-        if (integ == null)
-            integ = 0;
-
-        put(key, integ + val);
+        int slot = findSlot(key);
+        int index = table[slot] - 1;
+        if (index >= 0)
+            counts[index] += val;
+        else
+            insert(slot, key, val);
         return true;
     }
 
@@ -170,4 +240,260 @@ public class StringFreqMap extends LinkedHashMap<String, Integer> {
         }
         return res;
     }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && indexOf((String) key) >= 0;
+    }
+
+    @Override
+    public Integer get(Object key) {
+        if (!(key instanceof String))
+            return null;
+
+        int index = indexOf((String) key);
+        return index < 0 ? null : counts[index];
+    }
+
+    @Override
+    public Integer put(String key, Integer value) {
+        if (value == null)
+            throw new NullPointerException("Count of " + key + " must not be null");
+
+        int slot = findSlot(key);
+        int index = table[slot] - 1;
+        if (index >= 0) {
+            int old = counts[index];
+            counts[index] = value;
+            return old;
+        }
+
+        insert(slot, key, value);
+        return null;
+    }
+
+    @Override
+    public Integer remove(Object key) {
+        if (!(key instanceof String))
+            return null;
+
+        int index = indexOf((String) key);
+        if (index < 0)
+            return null;
+
+        int old = counts[index];
+        removeIndex(index);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            keys[i] = null;
+        }
+        for (int i = 0; i < table.length; i++) {
+            table[i] = 0;
+        }
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Set<Entry<String, Integer>> entrySet() {
+        if (entrySet == null)
+            entrySet = new EntrySet();
+        return entrySet;
+    }
+
+    private int indexOf(String key) {
+        if (key == null)
+            return -1;
+
+        return table[findSlot(key)] - 1;
+    }
+
+    /**
+     * @return the slot of the key or the empty slot where it should be inserted
+     */
+    private int findSlot(String key) {
+        int mask = table.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            int index = table[slot] - 1;
+            if (index < 0 || keys[index].equals(key))
+                return slot;
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void insert(int slot, String key, int val) {
+        if (key == null)
+            throw new NullPointerException("Key must not be null");
+
+        if (size == keys.length) {
+            int newCap = keys.length * 2;
+            String[] newKeys = new String[newCap];
+            int[] newCounts = new int[newCap];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(counts, 0, newCounts, 0, size);
+            keys = newKeys;
+            counts = newCounts;
+        }
+
+        keys[size] = key;
+        counts[size] = val;
+        size++;
+        modCount++;
+        // keep load factor below 0.5
+        if (size * 2 > table.length)
+            rehash(table.length * 2);
+        else
+            table[slot] = size;
+    }
+
+    private void removeIndex(int index) {
+        size--;
+        System.arraycopy(keys, index + 1, keys, index, size - index);
+        System.arraycopy(counts, index + 1, counts, index, size - index);
+        keys[size] = null;
+        modCount++;
+        // positions are shifted, maps are small so simply rebuild the table
+        rehash(table.length);
+    }
+
+    private void rehash(int tableSize) {
+        table = new int[tableSize];
+        int mask = tableSize - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hash(keys[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int cap) {
+        int n = 8;
+        while (n < cap * 2) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    private class EntrySet extends AbstractSet<Entry<String, Integer>> {
+
+        @Override
+        public Iterator<Entry<String, Integer>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            StringFreqMap.this.clear();
+        }
+    }
+
+    private class EntryIterator implements Iterator<Entry<String, Integer>> {
+
+        private int next = 0;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Entry<String, Integer> next() {
+            if (expectedModCount != modCount)
+                throw new ConcurrentModificationException();
+            if (next >= size)
+                throw new NoSuchElementException();
+
+            last = next++;
+            return new FreqEntry(keys[last], counts[last]);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0)
+                throw new IllegalStateException();
+            if (expectedModCount != modCount)
+                throw new ConcurrentModificationException();
+
+            removeIndex(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * A snapshot of a term and its count which writes through on setValue
+     */
+    private class FreqEntry implements Entry<String, Integer> {
+
+        private final String key;
+        private int value;
+
+        FreqEntry(String key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Integer getValue() {
+            return value;
+        }
+
+        @Override
+        public Integer setValue(Integer value) {
+            int old = this.value;
+            this.value = value;
+            put(key, value);
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry))
+                return false;
+
+            Entry<?, ?> e = (Entry<?, ?>) obj;
+            return key.equals(e.getKey()) && Integer.valueOf(value).equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
 }
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2010 Peter Karich <jetwick_@_pannous_._info>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw.cmd;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.util.GenericUrlResolver;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the terms and languages of a tweet which were detected from its
+ * text. The text of a twitter id never changes but the older tweets of a
+ * user and tweets read from the index need the terms again and again for
+ * spam detection.
+ *
+ * The cache holds copies because TermCreateCommand removes unimportant
+ * terms from the tweet afterwards.
+ *
+ * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
+ */
+public class TermCache {
+
+    private final Map<Long, Entry> cache;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    public TermCache(int maxTweets, int minutes) {
+        cache = GenericUrlResolver.createGenericCache(maxTweets, minutes);
+    }
+
+    /**
+     * @return true if terms and languages of the specified tweet were cached
+     * and are now set
+     */
+    public boolean restore(JTweet tw) {
+        Entry e = cache.get(tw.getTwitterId());
+        if (e == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        hits.incrementAndGet();
+        tw.setTextTerms(new StringFreqMap(e.terms));
+        tw.setLanguages(new StringFreqMap(e.languages));
+        return true;
+    }
+
+    public void put(JTweet tw) {
+        cache.put(tw.getTwitterId(), new Entry(new StringFreqMap(tw.getTextTerms()),
+                new StringFreqMap(tw.getLanguages())));
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    private static class Entry {
+
+        final StringFreqMap terms;
+        final StringFreqMap languages;
+
+        Entry(StringFreqMap terms, StringFreqMap languages) {
+            this.terms = terms;
+            this.languages = languages;
+        }
+    }
+}
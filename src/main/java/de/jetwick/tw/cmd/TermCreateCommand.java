@@ -19,7 +19,8 @@ import de.jetwick.data.UrlEntry;
 import de.jetwick.data.JTweet;
 import de.jetwick.util.AnyExecutor;
 import de.jetwick.tw.TweetDetector;
-import de.jetwick.util.StopWatch;
+import de.jetwick.util.LatencyHistogram;
+import de.jetwick.util.Metrics;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
@@ -33,10 +34,12 @@ public class TermCreateCommand implements AnyExecutor<JTweet> {
 
     private Logger logger = LoggerFactory.getLogger(getClass());
     private boolean termRemoving = true;
-    private StopWatch sw1 = new StopWatch();
-    private StopWatch sw2 = new StopWatch();
-    private StopWatch sw3 = new StopWatch();
-    private StopWatch sw4 = new StopWatch();
+    // thread safe, so also usable from the parallel executor
+    private static final LatencyHistogram urlsLatency = Metrics.getDefault().histogram("termcreate.urls");
+    private static final LatencyHistogram compareLatency = Metrics.getDefault().histogram("termcreate.compare");
+    private static final LatencyHistogram termsLatency = Metrics.getDefault().histogram("termcreate.terms");
+    private static final LatencyHistogram urlCheckLatency = Metrics.getDefault().histogram("termcreate.urlcheck");
+    private TermCache termCache;
 
     public TermCreateCommand() {
         //http://en.wikipedia.org/wiki/Phonetic_algorithm
@@ -49,23 +52,11 @@ public class TermCreateCommand implements AnyExecutor<JTweet> {
         // Use relative termMinFrequency!!
     }
 
-    public TermCreateCommand setSw1(StopWatch sw1) {
-        this.sw1 = sw1;
-        return this;
-    }
-
-    public TermCreateCommand setSw2(StopWatch sw2) {
-        this.sw2 = sw2;
-        return this;
-    }
-
-    public TermCreateCommand setSw3(StopWatch sw3) {
-        this.sw3 = sw3;
-        return this;
-    }
-
-    public TermCreateCommand setSw4(StopWatch sw4) {
-        this.sw4 = sw4;
+    /**
+     * Use the specified cache to avoid detecting terms of the same tweet again
+     */
+    public TermCreateCommand setTermCache(TermCache termCache) {
+        this.termCache = termCache;
         return this;
     }
 
@@ -141,25 +132,25 @@ public class TermCreateCommand implements AnyExecutor<JTweet> {
             StringFreqMap mergedTerms, StringFreqMap mergedLangs) {
         double qual = currentTweet.getQuality();
 
-        sw1.start();
+        long start = System.nanoTime();
         StringFreqMap urlMap = new StringFreqMap();
         for (JTweet older : currentTweet.getFromUser().getOwnTweets()) {
             for (UrlEntry entry : older.getUrlEntries()) {
                 urlMap.inc(entry.getResolvedUrl(), 1);
             }
         }
-        sw1.stop();
+        urlsLatency.recordSince(start);
 
-        sw2.start();
+        start = System.nanoTime();
         boolean sameUrl = false;
         for (JTweet older : currentTweet.getFromUser().getOwnTweets()) {
             if (older == currentTweet)
                 continue;
 
-            sw3.start();
+            long termsStart = System.nanoTime();
             // create tags to decide if tags of currentTweet are important
             calcTermsWithoutNoise(older);
-            sw3.stop();
+            termsLatency.recordSince(termsStart);
             // count only one term per tweet
             mergedTerms.addOne2All(older.getTextTerms());
             // count languages as they appear
@@ -187,7 +178,7 @@ public class TermCreateCommand implements AnyExecutor<JTweet> {
             }
 
             if (!sameUrl) {
-                sw4.start();
+                long urlCheckStart = System.nanoTime();
                 for (UrlEntry entry : older.getUrlEntries()) {
                     Integer urlCounts = urlMap.get(entry.getResolvedUrl());
                     if (urlCounts != null) {
@@ -203,10 +194,10 @@ public class TermCreateCommand implements AnyExecutor<JTweet> {
                         }
                     }
                 }
-                sw4.stop();
+                urlCheckLatency.recordSince(urlCheckStart);
             }
         }
-        sw2.stop();
+        compareLatency.recordSince(start);
         return qual;
     }
 
@@ -220,9 +211,15 @@ public class TermCreateCommand implements AnyExecutor<JTweet> {
         if (tw.getTextTerms().size() > 0)
             return;
 
+        boolean useCache = termCache != null && !tw.isDaemon();
+        if (useCache && termCache.restore(tw))
+            return;
+
         TweetDetector extractor = new TweetDetector().runOne(tw.getText());
         tw.setTextTerms(extractor.getTerms());
         tw.setLanguages(extractor.getLanguages());
+        if (useCache)
+            termCache.put(tw);
 
         // create text signature, sort against frequency
 //        int termsAtOnce = 2;
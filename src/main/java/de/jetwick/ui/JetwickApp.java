@@ -30,7 +30,9 @@ import de.jetwick.data.JUser;
 import de.jetwick.es.ElasticUserSearch;
 import de.jetwick.tw.TwitterSearch;
 import de.jetwick.util.Helper;
+import de.jetwick.util.Metrics;
 import org.apache.wicket.Application;
+import org.apache.wicket.ResourceReference;
 import org.apache.wicket.protocol.http.RequestUtils;
 import org.apache.wicket.protocol.http.WebRequest;
 import org.apache.wicket.request.target.coding.MixedParamUrlCodingStrategy;
@@ -119,6 +121,12 @@ public class JetwickApp extends WebApplication {
 
 
         mount(new MixedParamUrlCodingStrategy("login", Login.class, new String[]{}));
+
+        if (cfg.isMetricsResourceEnabled()) {
+            getSharedResources().add("metrics", new MetricsResource());
+            mountSharedResource("/metrics", new ResourceReference("metrics").getSharedResourceKey());
+        }
+        Metrics.registerMBean();
         addComponentInstantiationListener(getGuiceInjector());
     }
 
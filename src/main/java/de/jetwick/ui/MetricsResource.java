@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2010 Peter Karich <jetwick_@_pannous_._info>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.ui;
+
+import de.jetwick.util.Metrics;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import org.apache.wicket.RequestCycle;
+import org.apache.wicket.markup.html.WebResource;
+import org.apache.wicket.protocol.http.WebRequest;
+import org.apache.wicket.protocol.http.servlet.AbortWithHttpStatusException;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.StringResourceStream;
+
+/**
+ * Returns the current pipeline metrics as JSON. Only requests from the local
+ * host are answered.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class MetricsResource extends WebResource {
+
+    private static final long serialVersionUID = 1L;
+
+    public MetricsResource() {
+        setCacheable(false);
+    }
+
+    @Override
+    public IResourceStream getResourceStream() {
+        WebRequest req = (WebRequest) RequestCycle.get().getRequest();
+        if (!isLocal(req.getHttpServletRequest().getRemoteAddr()))
+            throw new AbortWithHttpStatusException(403, false);
+
+        return new StringResourceStream(Metrics.getDefault().toJson(), "application/json");
+    }
+
+    static boolean isLocal(String remoteAddr) {
+        try {
+            return remoteAddr != null && InetAddress.getByName(remoteAddr).isLoopbackAddress();
+        } catch (UnknownHostException ex) {
+            return false;
+        }
+    }
+}
@@ -21,7 +21,12 @@ import de.jetwick.ui.util.LabeledLink;
 import de.jetwick.data.JTweet;
 import de.jetwick.data.JUser;
 import de.jetwick.util.Helper;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -45,8 +50,8 @@ import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.PropertyModel;
 import org.apache.wicket.protocol.http.WebResponse;
+import org.apache.wicket.util.resource.AbstractResourceStreamWriter;
 import org.apache.wicket.util.resource.IResourceStream;
-import org.apache.wicket.util.resource.StringResourceStream;
 import org.odlabs.wiquery.core.commons.IWiQueryPlugin;
 import org.odlabs.wiquery.core.commons.WiQueryResourceManager;
 import org.odlabs.wiquery.core.javascript.JsStatement;
@@ -201,29 +206,54 @@ public class ResultsPanel extends Panel implements IWiQueryPlugin {
         };
 
         add(userView);
+        add(new ResourceLink("exportTsvLink", createExport("tweets.txt", false)));
+        add(new ResourceLink("exportJsonLink", createExport("tweets.json", true)));
+        add(new Link("exportHtmlLink") {
+
+            @Override
+            public void onClick() {
+                onHtmlExport();
+            }
+        });
+    }
+
+    /**
+     * Streams the tweets directly to the response instead of creating the
+     * whole export in memory
+     */
+    WebResource createExport(final String fileName, final boolean json) {
         WebResource export = new WebResource() {
 
             @Override
             public IResourceStream getResourceStream() {
-                return new StringResourceStream(getTweetsAsString(), "text/plain");
+                return new AbstractResourceStreamWriter() {
+
+                    @Override
+                    public void write(OutputStream output) {
+                        try {
+                            Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+                            writeTweets(writer, json);
+                            writer.flush();
+                        } catch (IOException ex) {
+                            throw new RuntimeException(ex);
+                        }
+                    }
+
+                    @Override
+                    public String getContentType() {
+                        return json ? "application/json" : "text/plain";
+                    }
+                };
             }
 
             @Override
             protected void setHeaders(WebResponse response) {
                 super.setHeaders(response);
-                response.setAttachmentHeader("tweets.txt");
+                response.setAttachmentHeader(fileName);
             }
         };
-
         export.setCacheable(false);
-        add(new ResourceLink("exportTsvLink", export));
-        add(new Link("exportHtmlLink") {
-
-            @Override
-            public void onClick() {
-                onHtmlExport();
-            }
-        });
+        return export;
     }
 
     public OneTweet createOneTweet(String id, final String lang) {
@@ -307,8 +337,10 @@ public class ResultsPanel extends Panel implements IWiQueryPlugin {
     public void onSortClicked(AjaxRequestTarget target, String sortKey, String sortVal) {
     }
 
-    public String getTweetsAsString() {
-        return "";
+    /**
+     * @param json true for one json object per line, otherwise tab separated
+     */
+    public void writeTweets(Writer writer, boolean json) throws IOException {
     }
 
     public void onHtmlExport() {
@@ -23,6 +23,7 @@ import de.jetwick.es.ElasticTweetSearch;
 import de.jetwick.es.JetwickQuery;
 import de.jetwick.es.SavedSearch;
 import de.jetwick.es.SimilarTweetQuery;
+import de.jetwick.es.SortCursor;
 import de.jetwick.data.JTweet;
 import de.jetwick.data.JUser;
 import de.jetwick.es.TweetQuery;
@@ -32,11 +33,14 @@ import de.jetwick.ui.jschart.JSDateFilter;
 import de.jetwick.util.Helper;
 import de.jetwick.util.StopWatch;
 import java.io.Serializable;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import org.apache.wicket.PageParameters;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.markup.html.basic.Label;
@@ -64,6 +68,9 @@ public class TweetSearchPage extends JetwickPage {
     public static final String TIME_TODAY = "today";
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private JetwickQuery lastQuery;
+    // the cursors to fetch page N of cursorQuery without skipping all hits before
+    private Map<Integer, SortCursor> cursors = new HashMap<Integer, SortCursor>();
+    private JetwickQuery cursorQuery;
     private int hitsPerPage = 15;
     private FeedbackPanel feedbackPanel;
     private ResultsPanel resultsPanel;
@@ -589,11 +596,11 @@ public class TweetSearchPage extends JetwickPage {
             }
 
             @Override
-            public String getTweetsAsString() {
-                if (lastQuery != null)
-                    return twindexProvider.get().getTweetsAsString(lastQuery, "\t");
-
-                return "";
+            public void writeTweets(Writer writer, boolean json) {
+                if (lastQuery != null) {
+                    long count = twindexProvider.get().writeTweets(lastQuery, writer, json ? null : "\t");
+                    logger.info(addIP("[stats] exported " + count + " tweets for: " + lastQuery));
+                }
             }
 
             @Override
@@ -704,6 +711,24 @@ public class TweetSearchPage extends JetwickPage {
         doSearch(query, page, twitterFallback, false);
     }
 
+    /**
+     * Uses the cursor of the previous page if the query was not changed
+     * since then, so that deep pages are as fast as the first one.
+     */
+    void attachCursor(JetwickQuery query, int page) {
+        if (query.getClass() != TweetQuery.class) {
+            query.setCursor(null);
+            return;
+        }
+
+        JetwickQuery key = query.getCopy().setFrom(0).setCursor(null);
+        if (!key.equals(cursorQuery)) {
+            cursors.clear();
+            cursorQuery = key;
+        }
+        query.setCursor(cursors.get(page));
+    }
+
     public void doSearch(JetwickQuery query, int page, boolean twitterFallback, boolean instantSearch) {
         if (getMySession().hasLoggedIn())
             query.attachUserFacets();
@@ -744,16 +769,32 @@ public class TweetSearchPage extends JetwickPage {
 
         Collection<JUser> users = new LinkedHashSet<JUser>();
         query.attachPagability(page, hitsPerPage);
+        attachCursor(query, page);
         long start = System.currentTimeMillis();
         long totalHits = 0;
         SearchResponse rsp = null;
+        SearchResponse facetRsp = null;
         try {
-            rsp = getTweetSearch().query(users, query);
+            rsp = getTweetSearch().queryHits(users, query);
             totalHits = rsp.getHits().getTotalHits();
-            logger.info(addIP("[stats] " + totalHits + " hits for: " + query.toString()));
+            if (query.getClass() == TweetQuery.class) {
+                SortCursor next = SortCursor.create(query.getCursor(), rsp);
+                if (next != null)
+                    cursors.put(page + 1, next);
+            }
         } catch (Exception ex) {
             logger.error("Error while searching " + query.toString(), ex);
         }
+        try {
+            // paging and sorting reuse the cached facets
+            facetRsp = getTweetSearch().queryFacets(query, rsp);
+            // with a cursor the hits only count the tweets after it
+            if (facetRsp != null)
+                totalHits = facetRsp.getHits().getTotalHits();
+        } catch (Exception ex) {
+            logger.error("Error while fetching facets " + query.toString(), ex);
+        }
+        logger.info(addIP("[stats] " + totalHits + " hits for: " + query.toString()));
 
         resultsPanel.clear();
         Collection<JTweet> tweets = null;
@@ -814,16 +855,16 @@ public class TweetSearchPage extends JetwickPage {
         } else
             tweetThread = null;
 
-        facetPanel.update(rsp, query);
-        tagCloudPanel.update(rsp, query);
-        urlTrends.update(rsp, query);
+        facetPanel.update(facetRsp, query);
+        tagCloudPanel.update(facetRsp, query);
+        urlTrends.update(facetRsp, query);
 
         resultsPanel.setQueryMessage(msg);
         resultsPanel.setQuery(queryString);
         resultsPanel.setUser(userName);
         resultsPanel.setHitsPerPage(hitsPerPage);
 
-        dateFilterPanel.update(rsp);
+        dateFilterPanel.update(facetRsp);
 
         if (!query.getSortFields().isEmpty()) {
             resultsPanel.setSort(query.getSortFields().get(0).getKey(), query.getSortFields().get(0).getValue());
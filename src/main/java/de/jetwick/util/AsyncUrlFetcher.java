@@ -0,0 +1,711 @@
+/*
+ *  Copyright 2010 Peter Karich jetwick_@_pannous_._info
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.jetwick.util;
+
+import de.jetwick.snacktory.ArticleTextExtractor;
+import de.jetwick.snacktory.JResult;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import org.elasticsearch.common.netty.bootstrap.ClientBootstrap;
+import org.elasticsearch.common.netty.buffer.ChannelBuffer;
+import org.elasticsearch.common.netty.buffer.ChannelBuffers;
+import org.elasticsearch.common.netty.channel.Channel;
+import org.elasticsearch.common.netty.channel.ChannelFuture;
+import org.elasticsearch.common.netty.channel.ChannelFutureListener;
+import org.elasticsearch.common.netty.channel.ChannelHandlerContext;
+import org.elasticsearch.common.netty.channel.ChannelPipeline;
+import org.elasticsearch.common.netty.channel.ChannelPipelineFactory;
+import org.elasticsearch.common.netty.channel.ChannelStateEvent;
+import org.elasticsearch.common.netty.channel.Channels;
+import org.elasticsearch.common.netty.channel.ExceptionEvent;
+import org.elasticsearch.common.netty.channel.MessageEvent;
+import org.elasticsearch.common.netty.channel.SimpleChannelUpstreamHandler;
+import org.elasticsearch.common.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.elasticsearch.common.netty.handler.codec.http.DefaultHttpRequest;
+import org.elasticsearch.common.netty.handler.codec.http.HttpChunk;
+import org.elasticsearch.common.netty.handler.codec.http.HttpClientCodec;
+import org.elasticsearch.common.netty.handler.codec.http.HttpContentDecompressor;
+import org.elasticsearch.common.netty.handler.codec.http.HttpHeaders;
+import org.elasticsearch.common.netty.handler.codec.http.HttpMethod;
+import org.elasticsearch.common.netty.handler.codec.http.HttpRequest;
+import org.elasticsearch.common.netty.handler.codec.http.HttpResponse;
+import org.elasticsearch.common.netty.handler.codec.http.HttpVersion;
+import org.elasticsearch.common.netty.handler.ssl.SslHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches urls over non-blocking connections, so that thousands of requests
+ * can be in flight with a few io threads. Redirects are followed and every
+ * url of a redirect chain is remembered with the url where the chain ends,
+ * so that further requests for it skip the known hops. At most
+ * maxConnectionsPerHost requests are sent to one host at the same time, the
+ * others wait for a free connection of that host.
+ *
+ * The callbacks are called from the specified executor and not from the io
+ * threads, so they can block.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class AsyncUrlFetcher {
+
+    private static final Pattern CHARSET = Pattern.compile("charset=[\"']?([\\w\\-]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COMMON_NAME = Pattern.compile("(?:^|,)\\s*CN=([^,]+)");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final ClientBootstrap bootstrap;
+    // resolves the host names which can block
+    private final ExecutorService connectService;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            new DaemonThreadFactory("fetcher-timer"));
+    private final Executor callbackExecutor;
+    private final Map<String, String> redirects = GenericUrlResolver.createGenericCache(20000, 24 * 60);
+    private final Map<String, Host> hosts = new HashMap<String, Host>();
+    private final ArticleTextExtractor extractor = new ArticleTextExtractor();
+    private int maxConnectionsPerHost = 4;
+    private int maxRedirects = 5;
+    private int maxBytes = 500 * 1024;
+    private int maxTextLength = -1;
+    private String userAgent = "Mozilla/5.0 (compatible; Jetwick)";
+
+    public interface Callback {
+
+        void onResponse(Response rsp);
+
+        void onError(Throwable ex);
+    }
+
+    public AsyncUrlFetcher(int ioThreads, Executor callbackExecutor) {
+        this(ioThreads, 20, callbackExecutor);
+    }
+
+    /**
+     * @param ioThreads the number of threads which handle the connections
+     * @param connectThreads the number of threads which resolve the host
+     * names. The lookup blocks so this should be much more than ioThreads.
+     * @param callbackExecutor executes the callbacks
+     */
+    public AsyncUrlFetcher(int ioThreads, int connectThreads, Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        connectService = Executors.newFixedThreadPool(connectThreads, new DaemonThreadFactory("fetcher-connect"));
+        bootstrap = new ClientBootstrap(new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(new DaemonThreadFactory("fetcher-boss")),
+                Executors.newCachedThreadPool(new DaemonThreadFactory("fetcher-io")), ioThreads));
+        bootstrap.setOption("tcpNoDelay", true);
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+
+            @Override
+            public ChannelPipeline getPipeline() {
+                ChannelPipeline pipeline = Channels.pipeline();
+                pipeline.addLast("codec", new HttpClientCodec());
+                pipeline.addLast("inflater", new HttpContentDecompressor());
+                return pipeline;
+            }
+        });
+    }
+
+    public AsyncUrlFetcher setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost < 1)
+            throw new IllegalArgumentException("maxConnectionsPerHost must be positive but was " + maxConnectionsPerHost);
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    public AsyncUrlFetcher setMaxRedirects(int maxRedirects) {
+        this.maxRedirects = maxRedirects;
+        return this;
+    }
+
+    /**
+     * @param maxBytes the length after which the content is cut off
+     */
+    public AsyncUrlFetcher setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * @param maxTextLength the length after which the extracted text is cut
+     * off or -1 to keep the whole text
+     */
+    public AsyncUrlFetcher setMaxTextLength(int maxTextLength) {
+        this.maxTextLength = maxTextLength;
+        return this;
+    }
+
+    public AsyncUrlFetcher setUserAgent(String userAgent) {
+        this.userAgent = userAgent;
+        return this;
+    }
+
+    /**
+     * @return the url where the redirects of the specified url ended or null
+     * if unknown
+     */
+    public String getKnownRedirect(String url) {
+        return redirects.get(url);
+    }
+
+    public int getActiveHosts() {
+        synchronized (hosts) {
+            return hosts.size();
+        }
+    }
+
+    /**
+     * Starts fetching the url and returns immediately.
+     *
+     * @param timeout milliseconds for the whole request including redirects
+     * and waiting for a free connection of the host
+     */
+    public void fetch(String url, int timeout, Callback callback) {
+        final Request req = new Request(url, callback);
+        req.timeout = timeout;
+        req.timeoutTask = timer.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                req.fail(new SocketTimeoutException("no response after " + req.timeout + "ms for " + req.url));
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        req.start(url);
+    }
+
+    /**
+     * Extracts title and text of the html response
+     */
+    public JResult extract(Response rsp) throws Exception {
+        JResult res = new JResult();
+        res.setUrl(rsp.getUrl());
+        if (rsp.isHtml())
+            extractor.extractContent(res, rsp.getBody());
+        String text = res.getText();
+        if (maxTextLength >= 0 && text != null && text.length() > maxTextLength)
+            res.setText(text.substring(0, maxTextLength));
+        return res;
+    }
+
+    public void close() {
+        timer.shutdownNow();
+        connectService.shutdownNow();
+        bootstrap.releaseExternalResources();
+    }
+
+    private void acquire(String host, Runnable connect) {
+        synchronized (hosts) {
+            Host h = hosts.get(host);
+            if (h == null) {
+                h = new Host();
+                hosts.put(host, h);
+            }
+            if (h.active >= maxConnectionsPerHost) {
+                h.waiting.add(connect);
+                return;
+            }
+            h.active++;
+        }
+        connectService.execute(connect);
+    }
+
+    private void release(String host) {
+        Runnable next;
+        synchronized (hosts) {
+            Host h = hosts.get(host);
+            if (h == null)
+                return;
+
+            next = h.waiting.poll();
+            if (next == null) {
+                h.active--;
+                if (h.active <= 0)
+                    hosts.remove(host);
+                return;
+            }
+        }
+        // the connection is passed to the next waiting request
+        connectService.execute(next);
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger(0);
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * @return true if one of the dns names of the certificate or if there is
+     * none its common name matches the host
+     */
+    static boolean matchesHost(X509Certificate cert, String host) throws CertificateParsingException {
+        boolean dnsNames = false;
+        Collection<List<?>> altNames = cert.getSubjectAlternativeNames();
+        if (altNames != null) {
+            for (List<?> altName : altNames) {
+                // 2 is dNSName
+                if (altName.size() < 2 || !Integer.valueOf(2).equals(altName.get(0)))
+                    continue;
+
+                dnsNames = true;
+                if (matchesHostName(String.valueOf(altName.get(1)), host))
+                    return true;
+            }
+        }
+        if (dnsNames)
+            return false;
+
+        Matcher m = COMMON_NAME.matcher(cert.getSubjectX500Principal().getName());
+        return m.find() && matchesHostName(m.group(1), host);
+    }
+
+    /**
+     * @param pattern a host name where the first label can be the wildcard *
+     */
+    static boolean matchesHostName(String pattern, String host) {
+        pattern = pattern.toLowerCase(Locale.ENGLISH);
+        host = host.toLowerCase(Locale.ENGLISH);
+        if (!pattern.startsWith("*."))
+            return pattern.equals(host);
+
+        // the wildcard matches exactly one label
+        int index = host.indexOf('.');
+        return index > 0 && host.substring(index).equals(pattern.substring(1));
+    }
+
+    static boolean isRedirect(int status) {
+        return status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+    }
+
+    static String getCharset(String str) {
+        if (str == null)
+            return null;
+        Matcher m = CHARSET.matcher(str);
+        if (m.find())
+            return m.group(1);
+        return null;
+    }
+
+    static String decode(ChannelBuffer content, String contentType) {
+        String charset = getCharset(contentType);
+        if (charset == null)
+            // the meta tag is in the head
+            charset = getCharset(content.toString(content.readerIndex(),
+                    Math.min(2048, content.readableBytes()), LATIN1));
+
+        Charset cs = UTF8;
+        if (charset != null)
+            try {
+                cs = Charset.forName(charset);
+            } catch (Exception ex) {
+            }
+        return content.toString(cs);
+    }
+
+    private static class Host {
+
+        int active;
+        final Queue<Runnable> waiting = new LinkedList<Runnable>();
+    }
+
+    /**
+     * The state of one fetch, which can consist of several requests if it is
+     * redirected
+     */
+    private class Request {
+
+        final String originalUrl;
+        final Callback callback;
+        final List<String> chain = new ArrayList<String>();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        volatile String url;
+        volatile Channel channel;
+        volatile ScheduledFuture<?> timeoutTask;
+        volatile int timeout;
+
+        Request(String originalUrl, Callback callback) {
+            this.originalUrl = originalUrl;
+            this.callback = callback;
+        }
+
+        void start(String newUrl) {
+            String known = redirects.get(newUrl);
+            if (known != null && !known.equals(newUrl)) {
+                chain.add(newUrl);
+                newUrl = known;
+            }
+
+            url = newUrl;
+            final URL u;
+            try {
+                u = new URL(newUrl);
+            } catch (MalformedURLException ex) {
+                fail(ex);
+                return;
+            }
+            if (!"http".equals(u.getProtocol()) && !"https".equals(u.getProtocol())) {
+                fail(new MalformedURLException("unsupported protocol " + newUrl));
+                return;
+            }
+
+            final String host = u.getHost().toLowerCase();
+            acquire(host, new Runnable() {
+
+                @Override
+                public void run() {
+                    connect(u, host);
+                }
+            });
+        }
+
+        void connect(final URL u, final String host) {
+            if (done.get()) {
+                release(host);
+                return;
+            }
+
+            final int port = u.getPort() < 0 ? u.getDefaultPort() : u.getPort();
+            InetSocketAddress address = new InetSocketAddress(u.getHost(), port);
+            if (address.isUnresolved()) {
+                release(host);
+                fail(new UnknownHostException(u.getHost()));
+                return;
+            }
+
+            ChannelFuture cf;
+            try {
+                cf = bootstrap.connect(address);
+            } catch (RuntimeException ex) {
+                release(host);
+                fail(ex);
+                return;
+            }
+            channel = cf.getChannel();
+            // every connection is closed exactly once
+            channel.getCloseFuture().addListener(new ChannelFutureListener() {
+
+                @Override
+                public void operationComplete(ChannelFuture future) {
+                    release(host);
+                }
+            });
+            if (done.get()) {
+                channel.close();
+                return;
+            }
+
+            cf.addListener(new ChannelFutureListener() {
+
+                @Override
+                public void operationComplete(ChannelFuture future) {
+                    if (!future.isSuccess()) {
+                        fail(future.getCause() != null ? future.getCause() : new IOException("cannot connect to " + url));
+                        return;
+                    }
+
+                    final Channel ch = future.getChannel();
+                    ch.getPipeline().addLast("handler", new ResponseHandler(Request.this));
+                    if (!"https".equals(u.getProtocol())) {
+                        send(ch, u);
+                        return;
+                    }
+
+                    SSLEngine engine;
+                    try {
+                        engine = SSLContext.getDefault().createSSLEngine(u.getHost(), port);
+                    } catch (Exception ex) {
+                        fail(ex);
+                        return;
+                    }
+                    engine.setUseClientMode(true);
+                    SslHandler ssl = new SslHandler(engine);
+                    ch.getPipeline().addFirst("ssl", ssl);
+                    final SSLEngine sslEngine = engine;
+                    ssl.handshake().addListener(new ChannelFutureListener() {
+
+                        @Override
+                        public void operationComplete(ChannelFuture future) {
+                            if (!future.isSuccess()) {
+                                fail(future.getCause());
+                                return;
+                            }
+
+                            // java 6 has no endpoint identification for the SSLEngine
+                            try {
+                                Certificate[] certs = sslEngine.getSession().getPeerCertificates();
+                                if (certs.length == 0 || !(certs[0] instanceof X509Certificate)
+                                        || !matchesHost((X509Certificate) certs[0], u.getHost())) {
+                                    fail(new SSLPeerUnverifiedException("certificate does not match host " + u.getHost()));
+                                    return;
+                                }
+                            } catch (Exception ex) {
+                                fail(ex);
+                                return;
+                            }
+                            send(ch, u);
+                        }
+                    });
+                }
+            });
+        }
+
+        void send(Channel ch, URL u) {
+            String path = u.getFile();
+            if (path.isEmpty())
+                path = "/";
+            HttpRequest req = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path);
+            req.setHeader(HttpHeaders.Names.HOST, u.getPort() < 0 ? u.getHost() : u.getHost() + ":" + u.getPort());
+            req.setHeader(HttpHeaders.Names.USER_AGENT, userAgent);
+            req.setHeader(HttpHeaders.Names.ACCEPT, "text/html,application/xhtml+xml,*/*;q=0.8");
+            req.setHeader(HttpHeaders.Names.ACCEPT_ENCODING, "gzip, deflate");
+            req.setHeader(HttpHeaders.Names.CONNECTION, "close");
+            ch.write(req);
+        }
+
+        void onResponse(HttpResponse rsp, ChannelBuffer content) {
+            if (done.get())
+                return;
+
+            int status = rsp.getStatus().getCode();
+            String location = rsp.getHeader(HttpHeaders.Names.LOCATION);
+            if (isRedirect(status) && location != null) {
+                if (chain.size() >= maxRedirects) {
+                    fail(new IOException("too many redirects for " + originalUrl));
+                    return;
+                }
+                String next;
+                try {
+                    next = new URL(new URL(url), location).toString();
+                } catch (MalformedURLException ex) {
+                    fail(ex);
+                    return;
+                }
+                chain.add(url);
+                start(next);
+                return;
+            }
+
+            if (status >= 400) {
+                fail(new IOException("status " + status + " for " + url));
+                return;
+            }
+
+            for (String hop : chain) {
+                redirects.put(hop, url);
+            }
+            String contentType = rsp.getHeader(HttpHeaders.Names.CONTENT_TYPE);
+            complete(new Response(originalUrl, url, status, contentType, decode(content, contentType)));
+        }
+
+        void complete(final Response rsp) {
+            if (!done.compareAndSet(false, true))
+                return;
+
+            timeoutTask.cancel(false);
+            callbackExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        callback.onResponse(rsp);
+                    } catch (Exception ex) {
+                        logger.error("Problem in callback for " + rsp.getUrl(), ex);
+                    }
+                }
+            });
+        }
+
+        void fail(final Throwable ex) {
+            if (!done.compareAndSet(false, true))
+                return;
+
+            if (timeoutTask != null)
+                timeoutTask.cancel(false);
+            Channel ch = channel;
+            if (ch != null)
+                ch.close();
+            callbackExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        callback.onError(ex);
+                    } catch (Exception ex2) {
+                        logger.error("Problem in callback for " + url, ex2);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Collects the response of one connection
+     */
+    private class ResponseHandler extends SimpleChannelUpstreamHandler {
+
+        private final Request req;
+        private final ChannelBuffer content = ChannelBuffers.dynamicBuffer();
+        private HttpResponse response;
+        private boolean finished;
+
+        ResponseHandler(Request req) {
+            this.req = req;
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+            if (finished)
+                return;
+
+            Object msg = e.getMessage();
+            if (msg instanceof HttpResponse) {
+                response = (HttpResponse) msg;
+                if (isRedirect(response.getStatus().getCode())) {
+                    finish(ctx);
+                    return;
+                }
+                append(response.getContent());
+                if (!response.isChunked() || content.readableBytes() >= maxBytes)
+                    finish(ctx);
+            } else if (msg instanceof HttpChunk) {
+                HttpChunk chunk = (HttpChunk) msg;
+                append(chunk.getContent());
+                if (chunk.isLast() || content.readableBytes() >= maxBytes)
+                    finish(ctx);
+            }
+        }
+
+        private void append(ChannelBuffer buf) {
+            int len = Math.min(buf.readableBytes(), maxBytes - content.readableBytes());
+            if (len > 0)
+                content.writeBytes(buf, buf.readerIndex(), len);
+        }
+
+        private void finish(ChannelHandlerContext ctx) {
+            finished = true;
+            ctx.getChannel().close();
+            req.onResponse(response, content);
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) {
+            if (finished)
+                return;
+
+            // without content length the body ends with the connection
+            if (response != null)
+                finish(ctx);
+            else {
+                finished = true;
+                req.fail(new IOException("connection closed without response " + req.url));
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+            if (finished)
+                return;
+
+            finished = true;
+            ctx.getChannel().close();
+            req.fail(e.getCause());
+        }
+    }
+
+    public static class Response {
+
+        private final String originalUrl;
+        private final String url;
+        private final int status;
+        private final String contentType;
+        private final String body;
+
+        public Response(String originalUrl, String url, int status, String contentType, String body) {
+            this.originalUrl = originalUrl;
+            this.url = url;
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public String getOriginalUrl() {
+            return originalUrl;
+        }
+
+        /**
+         * @return the url after all redirects
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public boolean isHtml() {
+            return contentType == null || contentType.contains("html") || contentType.contains("xml");
+        }
+    }
+}
@@ -22,11 +22,15 @@ import de.jetwick.data.UrlEntry;
 import de.jetwick.es.ElasticTweetSearch;
 import de.jetwick.snacktory.HtmlFetcher;
 import de.jetwick.snacktory.JResult;
+import de.jetwick.util.Metrics.Gauge;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import org.elasticsearch.common.cache.CacheBuilder;
 import org.elasticsearch.common.collect.MapMaker;
@@ -37,6 +41,10 @@ import org.slf4j.LoggerFactory;
  * This class takes the urls from article index and resolves them. Additionally
  * and more importantly it stores the text and title into article index.
  *
+ * Without an AsyncUrlFetcher resolveThreads workers fetch the urls with
+ * blocking requests. With it up to maxInFlight urls are fetched at the same
+ * time and resolveThreads threads extract the fetched pages.
+ *
  * @author Peter Karich, jetwick_@_pannous_._info
  */
 public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet> {
@@ -52,12 +60,17 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
     private UrlTitleCleaner urlTitleCleaner = new UrlTitleCleaner();
     @Inject
     private HtmlFetcher fetcher;
+    private AsyncUrlFetcher asyncFetcher;
+    private int maxInFlight = 1000;
+    private Semaphore inFlight = new Semaphore(maxInFlight);
     private final Map<String, JTweet> unresolvedCache;
     private final Map<String, Object> tooOldMap;
     private static final Object OBJECT = new Object();
-    private AtomicInteger counter = new AtomicInteger(0);
-    private AtomicInteger emptyTitleCounter = new AtomicInteger(0);
-    private AtomicLong start = new AtomicLong(System.nanoTime());
+    private final AtomicLong resolved = Metrics.getDefault().counter("resolver.resolved");
+    private final AtomicLong emptyTitles = Metrics.getDefault().counter("resolver.emptyTitles");
+    private final AtomicLong errors = Metrics.getDefault().counter("resolver.errors");
+    private final AtomicLong timeouts = Metrics.getDefault().counter("resolver.timeouts");
+    private final LatencyHistogram fetchLatency = Metrics.getDefault().histogram("resolver.fetch");
 
 //    public GenericUrlResolver() {
 //        this(600);
@@ -67,9 +80,34 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
         unresolvedCache = createGenericCache(5000, 24 * 60);
         tooOldMap = createGenericCache(500, 24 * 60);
         resolverQueue = new LinkedBlockingQueue<JTweet>(queueSize);
+        Metrics.getDefault().register("resolver.queue", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return resolverQueue.size();
+            }
+        }).register("resolver.unresolved", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return unresolvedCache.size();
+            }
+        }).register("resolver.tooOld", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return tooOldMap.size();
+            }
+        }).register("resolver.inFlight", new Gauge() {
+
+            @Override
+            public Number getValue() {
+                return asyncFetcher == null ? null : maxInFlight - inFlight.availablePermits();
+            }
+        });
     }
 
-    public static <K, V> Map<K, V> createGenericCache(int count, int minutes) {
+    public static <K, V> ConcurrentMap<K, V> createGenericCache(int count, int minutes) {
         // do NOT use .softKeys() otherwise we will get == comparison which
         // is bad for 'new Long'        
         return (ConcurrentMap<K, V>) CacheBuilder.newBuilder().concurrencyLevel(20).maximumSize(count).
@@ -81,6 +119,26 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
         return this;
     }
 
+    /**
+     * Fetches the urls asynchronously with the specified fetcher instead of
+     * the HtmlFetcher. Call it before the thread is started. The fetcher and
+     * the pool of its callbacks are closed when the thread stops.
+     */
+    public GenericUrlResolver setAsyncFetcher(AsyncUrlFetcher asyncFetcher) {
+        this.asyncFetcher = asyncFetcher;
+        return this;
+    }
+
+    /**
+     * @param maxInFlight the number of urls which are fetched at the same
+     * time by the AsyncUrlFetcher. Call it before the thread is started.
+     */
+    public GenericUrlResolver setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        inFlight = new Semaphore(maxInFlight);
+        return this;
+    }
+
     public GenericUrlResolver setTest(long testWait) {
         this.testWait = testWait;
         return this;
@@ -120,6 +178,19 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
 
     @Override
     public void run() {
+        if (asyncFetcher != null) {
+            try {
+                while (executeResolveAsync()) {
+                }
+                logger.info(getName() + " stopped");
+            } finally {
+                asyncFetcher.close();
+                // the callbacks of the fetcher are executed in this pool
+                getService().shutdown();
+            }
+            return;
+        }
+
         Collection<Callable<Object>> workerCollection = new ArrayList<Callable<Object>>(resolveThreads);
         for (int i = 0; i < resolveThreads; i++) {
             final int tmp = i;
@@ -153,6 +224,43 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
     }
 
     public void queueObject(JTweet tw) {
+        queueObjects(Collections.singletonList(tw));
+    }
+
+    /**
+     * Queues the specified tweets. The check if the tweets are already in the
+     * index is done for all of them with one request.
+     */
+    public void queueObjects(Collection<JTweet> tweets) {
+        queueObjects(tweets, findExistingIds(tweets));
+    }
+
+    /**
+     * @return the ids of the specified tweets which are already in the index.
+     * Only tweets which would be resolved are checked.
+     */
+    public Set<Long> findExistingIds(Collection<JTweet> tweets) {
+        List<Long> ids = new ArrayList<Long>(tweets.size());
+        for (JTweet tw : tweets) {
+            String url = tw.getUrl();
+            if (!tweetSearch.tooOld(tw.getCreatedAt()) && !Helper.isEmpty(url) && !tooOldMap.containsKey(url))
+                ids.add(tw.getTwitterId());
+        }
+
+        return tweetSearch.findVersions(ids).keySet();
+    }
+
+    /**
+     * Queues the specified tweets where the index check was already done via
+     * findExistingIds
+     */
+    public void queueObjects(Collection<JTweet> tweets, Set<Long> existingIds) {
+        for (JTweet tw : tweets) {
+            queueObject(tw, existingIds.contains(tw.getTwitterId()));
+        }
+    }
+
+    void queueObject(JTweet tw, boolean idInIndex) {
         // if tweet is persistent we need to queue it
         boolean directlyQueueIt = false;
         String url = tw.getUrl();
@@ -167,7 +275,7 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
                 logger.warn("(2) Skipped too old tweet: " + url);
                 directlyQueueIt = true;
             } else {
-                putObject(tw);
+                putObject(tw, idInIndex);
             }
         }
         if (!directlyQueueIt && tw.isPersistent())
@@ -175,7 +283,11 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
     }
 
     void putObject(JTweet tw) {
-        if (isTweetInIndex(tw)) {
+        putObject(tw, isIdInIndex(tw));
+    }
+
+    void putObject(JTweet tw, boolean idInIndex) {
+        if (idInIndex || exists(tw.getUrl())) {
             // no need to queue again to aindex as we queue if article already exists on every resolve
             unresolvedCache.remove(tw.getUrl());
             canRemoveOrigUrl(tw);
@@ -234,6 +346,7 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
 
         String origUrl = tweet.getUrl();
         String url = origUrl;
+        long start = System.nanoTime();
         try {
             boolean doFetch = true;
             String resUrl = fetcher.getResolvedUrl(url, resolveTimeout);
@@ -245,58 +358,131 @@ public class GenericUrlResolver extends MyThread implements AnyExecutor<JTweet>
                     doFetch = false;
                 }
             }
-            if (doFetch) {
-                JResult res = fetcher.fetchAndExtract(url, resolveTimeout, false);
-
-                // set resolved url
-                if (tweet.getUrlEntries().size() > 0) {
-                    UrlEntry ue = tweet.getUrlEntries().iterator().next();
-                    ue.setResolvedUrl(res.getUrl());
-                    ue.setResolvedTitle(res.getTitle());
-                    ue.setResolvedSnippet(res.getText());
-                    ue.setResolvedDomain(Helper.extractDomain(url));
+            if (doFetch)
+                applyResult(tweet, url, fetcher.fetchAndExtract(url, resolveTimeout, false));
+
+        } catch (Exception ex) {
+            onResolveError(tweet, ex);
+        } finally {
+            finishResolve(tweet, start);
+        }
+        return true;
+    }
+
+    /**
+     * Takes the next tweet and starts fetching its url without waiting for
+     * the response. Blocks if already maxInFlight urls are fetched.
+     */
+    public boolean executeResolveAsync() {
+        final JTweet tweet;
+        try {
+            inFlight.acquire();
+            try {
+                tweet = resolverQueue.take();
+            } catch (InterruptedException ex) {
+                inFlight.release();
+                throw ex;
+            }
+        } catch (InterruptedException ex) {
+            logger.info(getName() + " was interrupted");
+            return false;
+        }
+
+        final String origUrl = tweet.getUrl();
+        final long start = System.nanoTime();
+        try {
+            asyncFetcher.fetch(origUrl, resolveTimeout, new AsyncUrlFetcher.Callback() {
+
+                @Override
+                public void onResponse(AsyncUrlFetcher.Response rsp) {
+                    try {
+                        String url = origUrl;
+                        String resUrl = rsp.getUrl();
+                        if (resUrl.length() > url.length()) {
+                            url = resUrl;
+                            // check if resolved url already exists
+                            if (exists(resUrl)) {
+                                unresolvedCache.remove(resUrl);
+                                return;
+                            }
+                        }
+                        applyResult(tweet, url, asyncFetcher.extract(rsp));
+                    } catch (Exception ex) {
+                        onResolveError(tweet, ex);
+                    } finally {
+                        finishResolve(tweet, start);
+                        inFlight.release();
+                    }
                 }
 
-                if (urlTitleCleaner.contains(res.getTitle()))
-                    tweet.setQuality(20);
-
-                if (res.getTitle().isEmpty())
-                    emptyTitleCounter.addAndGet(1);
-                counter.addAndGet(1);
-                if (thread < 3) {
-                    float secs = (System.nanoTime() - start.get()) / 1e+9f;
-                    logger.info(thread + "| " + counter.get() / secs + " entries/sec"//, secs:" + secs
-                            + ", feeded:" + counter
-                            + ", resolverQueue.size:" + resolverQueue.size()
-                            + ", unresolved.size:" + unresolvedCache.size()
-                            + ", tooOld.size:" + tooOldMap.size()
-                            + ", empty titles:" + emptyTitleCounter);
+                @Override
+                public void onError(Throwable ex) {
+                    try {
+                        onResolveError(tweet, ex);
+                    } finally {
+                        finishResolve(tweet, start);
+                        inFlight.release();
+                    }
                 }
-            }
+            });
+        } catch (RuntimeException ex) {
+            onResolveError(tweet, ex);
+            finishResolve(tweet, start);
+            inFlight.release();
+        }
+        return true;
+    }
 
-        } catch (Exception ex) {
-            //logger.info("Error while resolveAndFetch url:" + art.getUrl() + " Error:" + Helper.getMsg(ex));
-            tweet.setQuality(Math.round(tweet.getQuality() * 0.8f));
-        } finally {
-            // always feed the article even if there was an error            
-            tweetSearch.queueObject(tweet);
+    private void applyResult(JTweet tweet, String url, JResult res) {
+        // set resolved url
+        if (tweet.getUrlEntries().size() > 0) {
+            UrlEntry ue = tweet.getUrlEntries().iterator().next();
+            ue.setResolvedUrl(res.getUrl());
+            ue.setResolvedTitle(res.getTitle());
+            ue.setResolvedSnippet(res.getText());
+            ue.setResolvedDomain(Helper.extractDomain(url));
+        }
+
+        if (urlTitleCleaner.contains(res.getTitle()))
+            tweet.setQuality(20);
 
-            // real time get ensures that we have at least the url in aindex (not so for origURL!)
-            unresolvedCache.remove(tweet.getUrl());
+        if (Helper.isEmpty(res.getTitle()))
+            emptyTitles.incrementAndGet();
+        resolved.incrementAndGet();
+    }
+
+    private void onResolveError(JTweet tweet, Throwable ex) {
+        //logger.info("Error while resolveAndFetch url:" + art.getUrl() + " Error:" + Helper.getMsg(ex));
+        if (isTimeout(ex))
+            timeouts.incrementAndGet();
+        else
+            errors.incrementAndGet();
+        tweet.setQuality(Math.round(tweet.getQuality() * 0.8f));
+    }
+
+    private void finishResolve(JTweet tweet, long start) {
+        fetchLatency.recordSince(start);
+        // always feed the article even if there was an error            
+        tweetSearch.queueObject(tweet);
+
+        // real time get ensures that we have at least the url in aindex (not so for origURL!)
+        unresolvedCache.remove(tweet.getUrl());
 
-            // DISABLED for now as 
+        // DISABLED for now as 
 //            if (!checkAgainQueue.offer(art))
 //                logger.error("checkAgainQueue full. Skipped:" + art.getUrl());
-        }
-        return true;
     }
 
-    boolean isTweetInIndex(JTweet tw) {
-        JTweet existing = tweetSearch.findByTwitterId(tw.getTwitterId());
-        if (existing != null)
-            return true;
+    static boolean isTimeout(Throwable ex) {
+        for (; ex != null; ex = ex.getCause()) {
+            if (ex instanceof SocketTimeoutException)
+                return true;
+        }
+        return false;
+    }
 
-        return exists(tw.getUrl());
+    boolean isIdInIndex(JTweet tw) {
+        return !tweetSearch.findVersions(Collections.singleton(tw.getTwitterId())).isEmpty();
     }
 
     boolean canRemoveOrigUrl(JTweet tw) {
@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2010 Peter Karich jetwick_@_pannous_._info
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.jetwick.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records values (e.g. latencies in microseconds) without locking into
+ * buckets with a relative error of at most 1/16, similar to HdrHistogram:
+ * values below 32 get their own bucket, above that every power of two is
+ * split into 16 buckets.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // the last bucket starts with 31 << 58
+    private static final int BUCKETS = (63 - SUB_BITS) * SUB_BUCKETS + 2 * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int getIndex(long value) {
+        if (value < 2 * SUB_BUCKETS)
+            return (int) Math.max(0, value);
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the smallest value of the bucket
+     */
+    static long getLowerBound(int index) {
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (index - shift * SUB_BUCKETS) << shift;
+    }
+
+    public void record(long value) {
+        counts.incrementAndGet(getIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long tmp;
+        while (value > (tmp = max.get())) {
+            if (max.compareAndSet(tmp, value))
+                break;
+        }
+    }
+
+    /**
+     * Records the time since the specified System.nanoTime in microseconds
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long c = count.get();
+        if (c == 0)
+            return 0;
+        return (double) sum.get() / c;
+    }
+
+    /**
+     * @param fraction e.g. 0.99 for the 99th percentile
+     * @return the lower bound of the bucket containing the percentile
+     */
+    public long getPercentile(double fraction) {
+        long all = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            all += counts.get(i);
+        }
+        if (all == 0)
+            return 0;
+
+        long limit = Math.max(1, (long) Math.ceil(fraction * all));
+        long tmp = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            tmp += counts.get(i);
+            if (tmp >= limit)
+                return Math.min(getLowerBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return "count:" + getCount() + " mean:" + getMean() + " p50:" + getPercentile(0.5)
+                + " p99:" + getPercentile(0.99) + " max:" + getMax();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *  Copyright 2010 Peter Karich jetwick_@_pannous_._info
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.jetwick.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters, gauges and latency histograms of the whole pipeline, readable
+ * via JMX and as JSON. Names are dot separated, e.g. "bulk.failures".
+ * Creating a metric is cheap if it already exists, but callers in hot
+ * paths should keep the returned object.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class Metrics {
+
+    public static final String MBEAN_NAME = "de.jetwick:type=Metrics";
+    private static final Metrics DEFAULT = new Metrics();
+    private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    public interface Gauge {
+
+        Number getValue();
+    }
+
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+    public AtomicLong counter(String name) {
+        AtomicLong c = counters.get(name);
+        if (c == null) {
+            c = new AtomicLong();
+            AtomicLong old = counters.putIfAbsent(name, c);
+            if (old != null)
+                c = old;
+        }
+        return c;
+    }
+
+    /**
+     * @return the histogram for the specified name. Values should be in
+     * microseconds, see LatencyHistogram.recordSince
+     */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram h = histograms.get(name);
+        if (h == null) {
+            h = new LatencyHistogram();
+            LatencyHistogram old = histograms.putIfAbsent(name, h);
+            if (old != null)
+                h = old;
+        }
+        return h;
+    }
+
+    /**
+     * Registers or replaces the gauge under the specified name
+     */
+    public Metrics register(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+        return this;
+    }
+
+    public void remove(String name) {
+        gauges.remove(name);
+        counters.remove(name);
+        histograms.remove(name);
+    }
+
+    /**
+     * @return all current values sorted by name. A histogram is expanded into
+     * name.count, name.mean, name.p50, name.p90, name.p99 and name.max
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> res = new TreeMap<String, Number>();
+        for (Entry<String, AtomicLong> e : counters.entrySet()) {
+            res.put(e.getKey(), e.getValue().get());
+        }
+        for (Entry<String, Gauge> e : gauges.entrySet()) {
+            try {
+                Number n = e.getValue().getValue();
+                if (n != null)
+                    res.put(e.getKey(), n);
+            } catch (Exception ex) {
+                logger.warn("Cannot read gauge " + e.getKey() + " " + ex.getMessage());
+            }
+        }
+        for (Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            String name = e.getKey();
+            res.put(name + ".count", h.getCount());
+            res.put(name + ".mean", h.getMean());
+            res.put(name + ".p50", h.getPercentile(0.5));
+            res.put(name + ".p90", h.getPercentile(0.9));
+            res.put(name + ".p99", h.getPercentile(0.99));
+            res.put(name + ".max", h.getMax());
+        }
+        return res;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        for (Entry<String, Number> e : snapshot().entrySet()) {
+            if (sb.length() > 1)
+                sb.append(',');
+            sb.append('"').append(e.getKey().replace("\\", "\\\\").replace("\"", "\\\"")).append("\":");
+            Number n = e.getValue();
+            if (n instanceof Double || n instanceof Float) {
+                double d = n.doubleValue();
+                if (Double.isNaN(d) || Double.isInfinite(d))
+                    sb.append("null");
+                else
+                    sb.append(d);
+            } else
+                sb.append(n.longValue());
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Makes the default metrics available via JMX. Calling it more than once
+     * does nothing.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(new MetricsJmx(DEFAULT), name);
+        } catch (Exception ex) {
+            logger.error("Cannot register metrics via JMX", ex);
+        }
+    }
+}
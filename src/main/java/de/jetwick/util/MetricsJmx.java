@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2010 Peter Karich jetwick_@_pannous_._info
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.jetwick.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * Exposes every value of the metrics snapshot as read only JMX attribute
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class MetricsJmx implements DynamicMBean {
+
+    private final Metrics metrics;
+
+    public MetricsJmx(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number n = metrics.snapshot().get(attribute);
+        if (n == null)
+            throw new AttributeNotFoundException(attribute);
+        return n;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> snapshot = metrics.snapshot();
+        AttributeList list = new AttributeList();
+        for (String attr : attributes) {
+            Number n = snapshot.get(attr);
+            if (n != null)
+                list.add(new Attribute(attr, n));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("metrics are read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attrs = new ArrayList<MBeanAttributeInfo>();
+        for (Entry<String, Number> e : metrics.snapshot().entrySet()) {
+            attrs.add(new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(),
+                    e.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "jetwick pipeline metrics",
+                attrs.toArray(new MBeanAttributeInfo[attrs.size()]), null,
+                new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2010 Peter Karich jetwick_@_pannous_._info
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.jetwick.util;
+
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache for expensive results with two tiers: results which are currently
+ * calculated and finished results. Concurrent requests for the same key wait
+ * for the calculation of the first request instead of starting their own.
+ * Finished results expire after ttl milliseconds and the least recently used
+ * are evicted if more than maxSize results are stored.
+ *
+ * The keys must not be modified after they were passed to get.
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class ResultCache<K, V> {
+
+    private final ConcurrentMap<K, V> results;
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+    private final long ttl;
+    private final int maxSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param ttl in milliseconds
+     */
+    public ResultCache(int maxSize, long ttl) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize must be positive but was " + maxSize);
+        if (ttl <= 0)
+            throw new IllegalArgumentException("ttl must be positive but was " + ttl);
+
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        results = (ConcurrentMap<K, V>) CacheBuilder.newBuilder().concurrencyLevel(20).maximumSize(maxSize).
+                expireAfterWrite(ttl, TimeUnit.MILLISECONDS).build().asMap();
+    }
+
+    /**
+     * @return the cached result for the key or calculates it via the
+     * specified loader. Exceptions of the loader are not cached.
+     */
+    public V get(K key, Callable<V> loader) {
+        V res = results.get(key);
+        if (res != null) {
+            hits.incrementAndGet();
+            return res;
+        }
+
+        FutureTask<V> task = new FutureTask<V>(loader);
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return waitFor(existing);
+        }
+
+        try {
+            // another thread could have finished the same key in the meantime
+            res = results.get(key);
+            if (res != null) {
+                hits.incrementAndGet();
+                return res;
+            }
+
+            misses.incrementAndGet();
+            task.run();
+            res = waitFor(task);
+            if (res != null)
+                results.put(key, res);
+            return res;
+        } finally {
+            // remove after the put so that no thread misses both tiers
+            inFlight.remove(key, task);
+        }
+    }
+
+    private V waitFor(FutureTask<V> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    public void clear() {
+        results.clear();
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of requests which waited for the result of an
+     * identical request
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the fraction of requests which did not calculate the result
+     */
+    public float getHitRate() {
+        long all = hits.get() + misses.get() + coalesced.get();
+        if (all == 0)
+            return 0;
+        return (float) (all - misses.get()) / all;
+    }
+
+    @Override
+    public String toString() {
+        return "size:" + size() + " hits:" + getHits() + " misses:" + getMisses()
+                + " coalesced:" + getCoalesced() + " hitRate:" + getHitRate();
+    }
+}
@@ -30,6 +30,7 @@ import de.jetwick.es.JetwickQuery;
 import de.jetwick.data.JUser;
 import de.jetwick.es.AbstractElasticSearch;
 import de.jetwick.es.CreateObjectsInterface;
+import de.jetwick.es.SortCursor;
 import de.jetwick.es.TweetQuery;
 import de.jetwick.tw.Credits;
 import de.jetwick.tw.MyTweetGrabber;
@@ -210,7 +211,8 @@ public class Util {
 
     public void fillFrom(final String fromUrl) {
         ElasticTweetSearch fromTweetSearch = new ElasticTweetSearch(fromUrl);
-        JetwickQuery query = new TweetQuery();
+        // sorted so that the pages can be fetched via cursors
+        JetwickQuery query = new TweetQuery().setSort(ElasticTweetSearch.DATE, "desc");
         long maxPage = 1;
         int hitsPerPage = 300;
         Set<JUser> users = new LinkedHashSet<JUser>();
@@ -245,6 +247,10 @@ public class Util {
                 userSearch.save(user, false);
             }
             userCounter += users.size();
+            query.setCursor(SortCursor.create(query.getCursor(), rsp));
+            if (query.getCursor() == null)
+                break;
+
             logger.info("Page " + page + " out of " + maxPage + " hitsPerPage:" + hitsPerPage);
 
             if (page * hitsPerPage % 100000 == 0) {
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class AdaptiveBatchSizeTest {
+
+    public AdaptiveBatchSizeTest() {
+    }
+
+    @Test
+    public void testDecrease() {
+        AdaptiveBatchSize abs = new AdaptiveBatchSize(200, 30000, 1000);
+        assertEquals(200, abs.getBatchSize());
+        abs.onBulk(0, 2000, 0);
+        assertEquals(100, abs.getBatchSize());
+        assertEquals(15000, abs.getFlushInterval());
+        abs.onBulk(3, 10, 0);
+        assertEquals(50, abs.getBatchSize());
+
+        // lower bound
+        for (int i = 0; i < 10; i++) {
+            abs.onBulk(1, 10, 0);
+        }
+        assertEquals(20, abs.getBatchSize());
+        assertEquals(3000, abs.getFlushInterval());
+        assertEquals(4, abs.getDecreases());
+    }
+
+    @Test
+    public void testIncrease() {
+        AdaptiveBatchSize abs = new AdaptiveBatchSize(200, 30000, 1000).setMinBatchSize(5);
+        abs.onBulk(0, 2000, 0);
+        abs.onBulk(0, 2000, 0);
+        assertEquals(50, abs.getBatchSize());
+
+        // fast but no backlog
+        abs.onBulk(0, 10, 10);
+        assertEquals(50, abs.getBatchSize());
+
+        abs.onBulk(0, 10, 1000);
+        assertEquals(60, abs.getBatchSize());
+        assertEquals(9000, abs.getFlushInterval());
+
+        // upper bound
+        for (int i = 0; i < 100; i++) {
+            abs.onBulk(0, 10, 1000);
+        }
+        assertEquals(200, abs.getBatchSize());
+        assertEquals(30000, abs.getFlushInterval());
+    }
+
+    @Test
+    public void testVersionConflictsDoNotDecrease() {
+        AdaptiveBatchSize abs = new AdaptiveBatchSize(200, 30000, 1000);
+        String conflict = "VersionConflictEngineException[[twindex][0] [tweet][1]: version conflict, current [2], provided [1]]";
+        assertFalse(AdaptiveBatchSize.isOverload(conflict));
+        assertTrue(AdaptiveBatchSize.isOverload("EsRejectedExecutionException[rejected execution]"));
+
+        int overloaded = 0;
+        for (String msg : Arrays.asList(conflict, conflict, conflict)) {
+            if (AdaptiveBatchSize.isOverload(msg))
+                overloaded++;
+        }
+        abs.onBulk(overloaded, 10, 0);
+        assertEquals(200, abs.getBatchSize());
+        assertEquals(0, abs.getDecreases());
+    }
+}
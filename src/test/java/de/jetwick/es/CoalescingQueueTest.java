@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.data.DbObject;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class CoalescingQueueTest {
+
+    public CoalescingQueueTest() {
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        CoalescingQueue<Obj> queue = new CoalescingQueue<Obj>(10) {
+
+            @Override
+            protected Obj merge(Obj queued, Obj o) {
+                queued.counter += o.counter;
+                return queued;
+            }
+        };
+        assertFalse(queue.put(new Obj("a", 1)));
+        assertFalse(queue.put(new Obj("b", 1)));
+        assertTrue(queue.put(new Obj("a", 2)));
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getCoalesced());
+
+        Obj o = queue.take();
+        assertEquals("a", o.getId());
+        assertEquals(3, o.counter);
+        assertEquals("b", queue.take().getId());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+
+        // not merged after it was taken
+        assertFalse(queue.put(new Obj("a", 4)));
+        assertEquals(4, queue.take().counter);
+    }
+
+    @Test
+    public void testReplaceAndNullId() throws Exception {
+        CoalescingQueue<Obj> queue = new CoalescingQueue<Obj>(10);
+        queue.put(new Obj("a", 1));
+        queue.put(new Obj(null, 1));
+        queue.put(new Obj(null, 2));
+        queue.put(new Obj("a", 3));
+        assertEquals(3, queue.size());
+        assertEquals(3, queue.take().counter);
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        final CoalescingQueue<Obj> queue = new CoalescingQueue<Obj>(2);
+        queue.put(new Obj("a", 1));
+        queue.put(new Obj("b", 1));
+        assertEquals(0, queue.remainingCapacity());
+        // merging is possible even if full
+        assertTrue(queue.put(new Obj("b", 2)));
+
+        Thread th = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    queue.put(new Obj("c", 1));
+                } catch (InterruptedException ex) {
+                }
+            }
+        };
+        th.start();
+        th.join(100);
+        assertTrue(th.isAlive());
+        assertEquals("a", queue.take().getId());
+        th.join(1000);
+        assertFalse(th.isAlive());
+        assertEquals(2, queue.size());
+    }
+
+    static class Obj implements DbObject {
+
+        private final String id;
+        private int counter;
+        private long version;
+
+        public Obj(String id, int counter) {
+            this.id = id;
+            this.counter = counter;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public long getVersion() {
+            return version;
+        }
+
+        @Override
+        public DbObject setVersion(long v) {
+            version = v;
+            return this;
+        }
+    }
+}
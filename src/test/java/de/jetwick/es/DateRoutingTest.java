@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.util.MyDate;
+import java.util.Arrays;
+import java.util.Date;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class DateRoutingTest {
+
+    public DateRoutingTest() {
+    }
+
+    static long createId(long time) {
+        return (time - DateRouting.TWEPOCH) << 22;
+    }
+
+    @Test
+    public void testGetCreationTime() {
+        // snowflake id from 2012-06-18T11:19:59Z
+        assertEquals(1340018399476L, DateRouting.getCreationTime(214678843453825024L));
+        assertEquals(-1, DateRouting.getCreationTime(12345L));
+    }
+
+    @Test
+    public void testGetRouting() {
+        DateRouting routing = new DateRouting(6);
+        long time = 1340016273000L;
+        assertEquals(routing.getRouting(createId(time)), routing.getRouting(createId(time + MyDate.ONE_MINUTE)));
+        assertFalse(routing.getRouting(createId(time)).equals(routing.getRouting(createId(time + 6 * MyDate.ONE_HOUR))));
+        assertEquals(DateRouting.LEGACY_ROUTING, routing.getRouting(1L));
+    }
+
+    @Test
+    public void testGetRoutings() {
+        DateRouting routing = new DateRouting(6);
+        long now = System.currentTimeMillis();
+        String[] res = routing.getRoutings(new Date(now - 8 * MyDate.ONE_HOUR), null);
+        assertTrue(res.length >= 3 && res.length <= 5);
+        assertTrue(Arrays.asList(res).contains(routing.getRouting(createId(now))));
+        assertTrue(Arrays.asList(res).contains(routing.getRouting(createId(now - 8 * MyDate.ONE_HOUR))));
+        assertTrue(Arrays.asList(res).contains(DateRouting.LEGACY_ROUTING));
+
+        // unbounded
+        assertNull(routing.getRoutings(null, null));
+        // too many buckets
+        assertNull(routing.getRoutings(new Date(now - 30 * MyDate.ONE_DAY), null));
+    }
+}
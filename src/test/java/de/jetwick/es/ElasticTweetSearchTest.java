@@ -17,13 +17,16 @@ package de.jetwick.es;
 
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.facet.filter.FilterFacet;
 import org.elasticsearch.search.facet.terms.TermsFacet;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.io.StringReader;
+import java.io.StringWriter;
 import de.jetwick.data.UrlEntry;
 import de.jetwick.data.JTweet;
 import de.jetwick.data.JUser;
+import de.jetwick.util.AnyExecutor;
 import de.jetwick.util.MyDate;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -330,6 +333,22 @@ public class ElasticTweetSearchTest extends AbstractElasticSearchTester {
         assertEquals("should find tweets 3 and 4", 2, tw.getDuplicates().size());
     }
     
+    @Test
+    public void testLoadDupIndexFromStoredSignatures() {
+        MyDate dt = new MyDate();
+        twSearch.testUpdate(new JTweet(3L, "wtf means wikileaks task force", new JUser("userC")).setCreatedAt(dt.toDate()));
+        assertNotNull(twSearch.findByTwitterId(3L).getMinHash());
+
+        ElasticTweetSearch restarted = new ElasticTweetSearch(getClient());
+        restarted.loadDupIndex();
+        Map<Long, JTweet> map = new LinkedHashMap<Long, JTweet>();
+        JTweet tw = new JTweet(10L, "wtf means wikileaks task force", new JUser("peter")).setCreatedAt(dt.plusMinutes(1).toDate());
+        map.put(10L, tw);
+        restarted.findDuplicates(map);
+        assertEquals(1, tw.getDuplicates().size());
+        restarted.finish();
+    }
+
     @Test
     public void testSpamDuplicates() {
         MyDate dt = new MyDate();
@@ -618,6 +637,54 @@ public class ElasticTweetSearchTest extends AbstractElasticSearchTester {
         assertEquals(1, twSearch.findByTwitterId(1L).getRetweetCount());
     }
     
+    @Test
+    public void testConnectRetweetsOfIndexedTweetInOneBatch() throws Exception {
+        twSearch.testUpdate(createTweet(1L, "bla bli blu", "userA"));
+        long before = twSearch.getIndexRetweetLinks();
+        twSearch.testUpdate(Arrays.asList(createTweet(2L, "RT @userA: bla bli blu", "userB"),
+                createTweet(3L, "RT @userA: bla bli blu", "userC")));
+
+        assertEquals(2, twSearch.findByTwitterId(1L).getRetweetCount());
+        assertEquals(before + 2, twSearch.getIndexRetweetLinks());
+    }
+
+    @Test
+    public void testConcurrentBulks() {
+        twSearch.setBatchSize(10);
+        twSearch.setConcurrentBulks(3);
+        final List<JTweet> committed = Collections.synchronizedList(new ArrayList<JTweet>());
+        twSearch.addListener(new AnyExecutor<JTweet>() {
+
+            @Override
+            public JTweet execute(JTweet tw) {
+                committed.add(tw);
+                return tw;
+            }
+        });
+        List<JTweet> list = new ArrayList<JTweet>();
+        for (int i = 0; i < 100; i++) {
+            list.add(createTweet(i + 1, "tweet number " + i, "user" + i % 7));
+        }
+        twSearch.queueObjects(list);
+        twSearch.forceEmptyQueueAndRefresh(300);
+
+        assertEquals(0, twSearch.getPendingObjects());
+        assertEquals(0, twSearch.getBulksInFlight());
+        assertEquals(100, twSearch.countAll());
+        assertEquals(100, committed.size());
+    }
+
+    @Test
+    public void testBulkFlushTriggers() {
+        twSearch.setBulkMaxBytes(1);
+        twSearch.queueObjects(Arrays.asList(createTweet(1L, "bla bli blu", "userA"),
+                createTweet(2L, "another one", "userB")));
+        twSearch.forceEmptyQueueAndRefresh(300);
+        assertEquals(2, twSearch.countAll());
+        // every tweet exceeds the byte limit
+        assertEquals(1, twSearch.getFeededTweets());
+    }
+
     @Test
     public void testNoFailureOnSimilarDocumentIndexing() {
         Collection<JTweet> list = Arrays.asList(
@@ -1087,6 +1154,31 @@ public class ElasticTweetSearchTest extends AbstractElasticSearchTester {
         assertEquals(300, twSearch.collectObjects(twSearch.query(new ArrayList(), rsp)).size());
     }
 
+    @Test
+    public void testMergeIndicesParallel() throws Exception {
+        String index1 = "index1";
+        String resindex = "resindex";
+        twSearch.saveCreateIndex(index1, false);
+        twSearch.saveCreateIndex(resindex, false);
+        twSearch.waitForYellow(resindex);
+        twSearch.deleteAll(index1, twSearch.getIndexType());
+        twSearch.deleteAll(resindex, twSearch.getIndexType());
+
+        List<JTweet> list = new ArrayList<JTweet>();
+        for (int i = 0; i < 200; i++) {
+            list.add(new JTweet(i, "hey cool one", new JUser("peter" + i % 7)));
+        }
+        twSearch.bulkUpdate(list, index1, true);
+
+        twSearch.setScanThreads(3, 5);
+        try {
+            twSearch.mergeIndices(Arrays.asList(index1), resindex, 2, true, twSearch, null);
+        } finally {
+            twSearch.setScanThreads(1, 2);
+        }
+        assertEquals(200, twSearch.countAll(resindex));
+    }
+
     @Test
     public void testDeleteAndAlias() throws IOException, InterruptedException {
         // make sure we can delete all entries from resindex        
@@ -1126,6 +1218,220 @@ public class ElasticTweetSearchTest extends AbstractElasticSearchTester {
         assertEquals(100, twSearch.countAll(index1));
     }
 
+    @Test
+    public void testRollingIndices() throws Exception {
+        ElasticTweetSearch rollSearch = new ElasticTweetSearch(getClient());
+        rollSearch.setIndexName("rollindex");
+        rollSearch.setPartitionHours(24);
+        rollSearch.saveCreateIndex();
+
+        MyDate md = new MyDate();
+        JTweet tw1 = new JTweet(1L, "new tweet", new JUser("peter")).setCreatedAt(md.toDate());
+        JTweet tw2 = new JTweet(2L, "old tweet", new JUser("peter")).setCreatedAt(md.clone().minusDays(3).toDate());
+        JTweet tw3 = new JTweet(3L, "old but persistent", new JUser("peter")).setCreatedAt(md.clone().minusDays(3).toDate());
+        tw3.setUpdatedAt(md.toDate());
+        assertEquals(0, rollSearch.bulkUpdate(Arrays.asList(tw1, tw2, tw3), rollSearch.getIndexName(), true).size());
+
+        String oldPartition = rollSearch.getPartitionName(tw2.getCreatedAt());
+        assertTrue(rollSearch.getPartitionIndices().contains(oldPartition));
+        assertEquals(3, rollSearch.countAll());
+        assertEquals(2, rollSearch.countAll(oldPartition));
+        assertEquals("old tweet", rollSearch.findByTwitterId(2L).getText());
+        assertEquals(3, rollSearch.findVersions(Arrays.asList(1L, 2L, 3L)).size());
+
+        // retention drops the old partition but keeps the persistent tweet
+        rollSearch.deleteUntil(md.clone().minusDays(1).toDate());
+        rollSearch.refresh();
+        assertFalse(rollSearch.getPartitionIndices().contains(oldPartition));
+        assertEquals(2, rollSearch.countAll());
+        assertNull(rollSearch.findByTwitterId(2L));
+        assertEquals("old but persistent", rollSearch.findByTwitterId(3L).getText());
+
+        // an update of a tweet from a dropped partition goes into the keep index
+        rollSearch.bulkUpdate(Arrays.asList(tw3.setRetweetCount(5)), rollSearch.getIndexName(), true);
+        assertEquals(2, rollSearch.countAll());
+        assertEquals(1, rollSearch.countAll(rollSearch.getKeepIndexName()));
+
+        for (String index : rollSearch.getPartitionIndices()) {
+            rollSearch.deleteIndex(index);
+        }
+    }
+
+    @Test
+    public void testKeepPartitionIfCopyFails() throws Exception {
+        ElasticTweetSearch rollSearch = new ElasticTweetSearch(getClient()) {
+
+            @Override
+            public Collection<Integer> bulkUpdate(Collection<JTweet> objects, String indexName,
+                    boolean refresh, boolean enableVersioning) {
+                if (indexName.equals(getKeepIndexName())) {
+                    List<Integer> failed = new ArrayList<Integer>();
+                    for (int i = 0; i < objects.size(); i++) {
+                        failed.add(i);
+                    }
+                    return failed;
+                }
+                return super.bulkUpdate(objects, indexName, refresh, enableVersioning);
+            }
+        };
+        rollSearch.setIndexName("failrollindex");
+        rollSearch.setPartitionHours(24);
+        rollSearch.saveCreateIndex();
+
+        MyDate md = new MyDate();
+        JTweet tw = new JTweet(3L, "old but persistent", new JUser("peter")).setCreatedAt(md.clone().minusDays(3).toDate());
+        tw.setUpdatedAt(md.toDate());
+        assertEquals(0, rollSearch.bulkUpdate(Arrays.asList(tw), rollSearch.getIndexName(), true).size());
+        String oldPartition = rollSearch.getPartitionName(tw.getCreatedAt());
+
+        assertEquals(0, rollSearch.dropPartitionsUntil(md.clone().minusDays(1).toDate()).size());
+        assertTrue(rollSearch.getPartitionIndices().contains(oldPartition));
+        assertEquals(1, rollSearch.countAll(oldPartition));
+
+        for (String index : rollSearch.getPartitionIndices()) {
+            rollSearch.deleteIndex(index);
+        }
+    }
+
+    @Test
+    public void testDateRouting() throws Exception {
+        ElasticTweetSearch routeSearch = new ElasticTweetSearch(getClient());
+        routeSearch.setIndexName("routeindex");
+        routeSearch.setRoutingHours(6);
+        routeSearch.saveCreateIndex(routeSearch.getIndexName(), false);
+        routeSearch.waitForYellow(routeSearch.getIndexName());
+        routeSearch.deleteAll();
+
+        long now = System.currentTimeMillis();
+        long newId = DateRoutingTest.createId(now);
+        long oldId = DateRoutingTest.createId(now - 3 * MyDate.ONE_DAY);
+        JUser user = new JUser("peter");
+        routeSearch.bulkUpdate(Arrays.asList(
+                new JTweet(newId, "new tweet", user).setCreatedAt(new Date(now)),
+                new JTweet(oldId, "old tweet", user).setCreatedAt(new Date(now - 3 * MyDate.ONE_DAY)),
+                new JTweet(5L, "tweet without snowflake id", user).setCreatedAt(new Date(now))),
+                routeSearch.getIndexName(), true);
+
+        // get requests are routed via the id
+        assertEquals("old tweet", routeSearch.findByTwitterId(oldId).getText());
+        assertEquals(3, routeSearch.findVersions(Arrays.asList(newId, oldId, 5L)).size());
+
+        List<JTweet> res = routeSearch.search(new TweetQuery().addLatestDateFilter(8));
+        assertEquals(2, res.size());
+        assertEquals(1, routeSearch.getRoutedQueries());
+
+        routeSearch.deleteIndex(routeSearch.getIndexName());
+    }
+
+    @Test
+    public void testResultCache() throws Exception {
+        twSearch.setResultCache(10, 60 * 1000);
+        try {
+            twSearch.store(new JTweet(1L, "test tweet", new JUser("peter")), true);
+            List<JUser> users = new ArrayList<JUser>();
+            assertEquals(1, twSearch.queryCached(users, new TweetQuery("test")).getHits().getTotalHits());
+            assertEquals(1, users.size());
+
+            users.clear();
+            assertEquals(1, twSearch.queryCached(users, new TweetQuery("test")).getHits().getTotalHits());
+            assertEquals(1, users.size());
+            assertEquals(1, twSearch.getResultCache().getHits());
+            assertEquals(1, twSearch.getResultCache().getMisses());
+
+            // similar queries are not cached
+            twSearch.queryCached(users, new TweetQuery("test").setSize(5));
+            assertEquals(2, twSearch.getResultCache().getMisses());
+        } finally {
+            twSearch.setResultCache(0, 0);
+        }
+    }
+
+    @Test
+    public void testFacetCache() throws Exception {
+        twSearch.setFacetCache(10, 60 * 1000);
+        try {
+            twSearch.store(new JTweet(1L, "test tweet", new JUser("peter")), false);
+            twSearch.store(new JTweet(2L, "test tweet", new JUser("timetabling")), true);
+            List<JUser> users = new ArrayList<JUser>();
+            TweetQuery q = new TweetQuery("test", true);
+            q.attachPagability(0, 1);
+            SearchResponse hitRsp = twSearch.queryHits(users, q);
+            assertEquals(2, hitRsp.getHits().getTotalHits());
+            assertEquals(1, hitRsp.getHits().getHits().length);
+            assertNull(hitRsp.facets());
+
+            SearchResponse facetRsp = twSearch.queryFacets(q, hitRsp);
+            assertEquals(0, facetRsp.getHits().getHits().length);
+            FilterFacet ff = facetRsp.facets().facet(ElasticTweetSearch.URL_COUNT + ":0");
+            assertEquals(2, ff.getCount());
+
+            // the next page with a different sort reuses the facets
+            q.attachPagability(1, 1);
+            q.setSort(ElasticTweetSearch.DATE, "desc");
+            assertEquals(1, twSearch.queryHits(users, q).getHits().getHits().length);
+            assertSame(facetRsp, twSearch.queryFacets(q, hitRsp));
+            assertEquals(1, twSearch.getFacetCache().getHits());
+
+            // but not for different filters
+            q.addFilterQuery(ElasticTweetSearch.USER, "peter");
+            assertNotSame(facetRsp, twSearch.queryFacets(q, hitRsp));
+        } finally {
+            twSearch.setFacetCache(0, 0);
+        }
+    }
+
+    @Test
+    public void testCursorPaging() throws Exception {
+        List<JTweet> tweets = new ArrayList<JTweet>();
+        for (int i = 0; i < 7; i++) {
+            // ties for the retweet count
+            tweets.add(createTweet(i + 1, "test tweet " + i, "peter").setRetweetCount(i / 3));
+        }
+        twSearch.testUpdate(tweets);
+
+        JetwickQuery q = new TweetQuery("test").setSort(ElasticTweetSearch.RT_COUNT, "desc");
+        List<JTweet> expected = twSearch.searchTweets(q.getCopy().setSize(10));
+        assertEquals(7, expected.size());
+
+        List<JTweet> res = new ArrayList<JTweet>();
+        for (int page = 0; page < 4; page++) {
+            q.attachPagability(page, 2);
+            SearchResponse rsp = twSearch.query(q);
+            res.addAll(twSearch.collectObjects(rsp));
+            q.setCursor(SortCursor.create(q.getCursor(), rsp));
+        }
+        assertEquals(expected, res);
+    }
+
+    @Test
+    public void testWriteTweets() throws Exception {
+        List<JTweet> tweets = new ArrayList<JTweet>();
+        for (int i = 0; i < 25; i++) {
+            tweets.add(createTweet(i + 1, "export tweet " + i, "peter"));
+        }
+        tweets.add(createTweet(100, "other", "peter"));
+        twSearch.testUpdate(tweets);
+
+        // more than one page and not only the first page of the query
+        twSearch.setExportPageSize(4);
+        StringWriter writer = new StringWriter();
+        JetwickQuery q = new TweetQuery("export", true).setSize(10);
+        assertEquals(25, twSearch.writeTweets(q, writer, "\t"));
+        String[] lines = writer.toString().split("\n");
+        assertEquals(25, lines.length);
+        assertEquals(3, lines[0].split("\t").length);
+
+        writer = new StringWriter();
+        assertEquals(1, twSearch.writeTweets(new TweetQuery("other"), writer, null));
+        assertTrue(writer.toString(), writer.toString().startsWith(JetwickQueryTest.c("{'id':100,'user':'peter'")));
+
+        // the export is limited
+        twSearch.setExportMaxDocs(10);
+        writer = new StringWriter();
+        assertEquals(10, twSearch.writeTweets(q, writer, "\t"));
+        assertEquals(10, writer.toString().split("\n").length);
+    }
+
     @Test
     public void testQueryMultipleIndices() throws Exception {
         String index1 = "index1";
@@ -1241,6 +1547,41 @@ public class ElasticTweetSearchTest extends AbstractElasticSearchTester {
         assertEquals(1, twSearch.getFeededTweets());
     }
 
+    @Test
+    public void testMergeKeepsProtectedAndResolvedUrls() {
+        JTweet queued = createTweet(1L, "test http://bit.ly/x", "peter");
+        queued.addUrlEntry(new UrlEntry(5, 22, "http://bit.ly/x"));
+
+        JTweet tw = createTweet(1L, "test http://bit.ly/x", "peter").setProtected(true).setQuality(20);
+        UrlEntry ue = new UrlEntry(5, 22, "http://resolved.de/x");
+        ue.setResolvedTitle("title");
+        ue.setResolvedSnippet("snippet");
+        tw.addUrlEntry(ue);
+
+        JTweet res = twSearch.merge(queued, tw);
+        assertTrue(res.isProtected());
+        assertEquals(20, res.getQuality());
+        assertEquals(1, res.getUrlEntries().size());
+        assertEquals("snippet", res.getUrlEntries().iterator().next().getResolvedSnippet());
+
+        // an unresolved copy does not overwrite the resolved urls
+        res = twSearch.merge(res, createTweet(1L, "test http://bit.ly/x", "peter"));
+        assertTrue(res.isProtected());
+        assertEquals("http://resolved.de/x", res.getUrlEntries().iterator().next().getResolvedUrl());
+    }
+
+    @Test
+    public void testFindVersions() {
+        twSearch.testUpdate(Arrays.asList(createTweet(1L, "test", "peter"),
+                createTweet(2L, "test2", "peter")));
+
+        Map<Long, Long> versions = twSearch.findVersions(Arrays.asList(1L, 2L, 3L));
+        assertEquals(2, versions.size());
+        assertEquals(1L, (long) versions.get(1L));
+        assertNull(versions.get(3L));
+        assertEquals(0, twSearch.findVersions(Collections.<Long>emptyList()).size());
+    }
+
     JTweet createSolrTweet(MyDate dt, String twText, String user) {
         return new JTweet(dt.getTime(), twText, new JUser(user)).setCreatedAt(dt.toDate());
     }
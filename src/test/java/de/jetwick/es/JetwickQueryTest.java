@@ -22,6 +22,8 @@ import org.elasticsearch.index.query.TermFilterBuilder;
 import org.elasticsearch.index.query.TermsFilterBuilder;
 import de.jetwick.data.JTweet;
 import de.jetwick.data.JUser;
+import de.jetwick.util.MyDate;
+import java.util.Date;
 import java.io.IOException;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -55,6 +57,25 @@ public class JetwickQueryTest {
         assertEquals("y", newQ.getFilterQueries().get(1).getValue());
     }
 
+    @Test
+    public void testGetDateRange() {
+        JetwickQuery q = new TweetQuery().addFilterQuery("x", "y");
+        assertNull(q.getDateRange(ElasticTweetSearch.DATE));
+
+        MyDate md = new MyDate().castToHour();
+        q.addLatestDateFilter(md);
+        Date[] range = q.getDateRange(ElasticTweetSearch.DATE);
+        assertEquals(md.toDate(), range[0]);
+        assertNull(range[1]);
+
+        // intersection
+        q.addFilterQuery(ElasticTweetSearch.DATE, "[" + md.clone().minusHours(5).toLocalString()
+                + " TO " + md.clone().plusHours(2).toLocalString() + "]");
+        range = q.getDateRange(ElasticTweetSearch.DATE);
+        assertEquals(md.toDate(), range[0]);
+        assertEquals(md.clone().plusHours(2).toDate(), range[1]);
+    }
+
     @Test
     public void testRemoveFilters() {
         JetwickQuery q = new TweetQuery().addFilterQuery("test", "pest");
@@ -95,26 +116,39 @@ public class JetwickQueryTest {
         assertEquals(1, 1);
         builder = new TweetQuery().filterQuery2Builder("field", "[1 TO Infinity]");
         assertTrue(builder instanceof RangeFilterBuilder);
-        assertEquals(c("{'range':{'field':{'from':1,'to':null,'include_lower':true,'include_upper':true}}}"), toString(builder));
+        assertEquals(c("{'range':{'field':{'from':1,'to':null,'include_lower':true,'include_upper':true},'_cache':true}}"), toString(builder));
 
         builder = new TweetQuery().filterQuery2Builder("field", "[-Infinity TO Infinity]");
         assertTrue(builder instanceof ExistsFilterBuilder);
 
         builder = new TweetQuery().filterQuery2Builder("field", "[-Infinity TO 2]");
         assertTrue(builder instanceof RangeFilterBuilder);
-        assertEquals(c("{'range':{'field':{'from':null,'to':2,'include_lower':true,'include_upper':true}}}"), toString(builder));
+        assertEquals(c("{'range':{'field':{'from':null,'to':2,'include_lower':true,'include_upper':true},'_cache':true}}"), toString(builder));
 
         builder = new TweetQuery().filterQuery2Builder("field", "test");
         assertTrue(builder instanceof TermFilterBuilder);
-        assertEquals(c("{'term':{'field':'test'}}"), toString(builder));
+        assertEquals(c("{'term':{'field':'test','_cache':true}}"), toString(builder));
 
         builder = new TweetQuery().filterQuery2Builder("field", "\"test\"");
         assertTrue(builder instanceof TermFilterBuilder);
-        assertEquals(c("{'term':{'field':'test'}}"), toString(builder));
+        assertEquals(c("{'term':{'field':'test','_cache':true}}"), toString(builder));
 
         builder = new TweetQuery().filterQuery2Builder("field", "1 OR 2");
         assertTrue(builder instanceof TermsFilterBuilder);
-        assertEquals(c("{'terms':{'field':[1,2]}}"), toString(builder));
+        assertEquals(c("{'terms':{'field':[1,2],'_cache':true,'_cache_key':'field:1e062c758c6012296864b9fa7d46e7fa'}}"), toString(builder));
+    }
+
+    @Test
+    public void testFilterCache() throws IOException {
+        FilterBuilder builder = JetwickQuery.filterQuery2Builder("lang", "(en OR de)");
+        assertSame(builder, JetwickQuery.filterQuery2Builder("lang", "(en OR de)"));
+        assertNotSame(builder, JetwickQuery.filterQuery2Builder("lang", "(en OR es)"));
+
+        // same string but different type
+        assertSame(JetwickQuery.filterQuery2Builder("crt_b", "false"), JetwickQuery.filterQuery2Builder("crt_b", false));
+
+        builder = JetwickQuery.filterQuery2Builder("-field", "test");
+        assertEquals(c("{'not':{'filter':{'term':{'field':'test','_cache':true}},'_cache':true}}"), toString(builder));
     }
 
     public static String c(String str) {
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class MinHashIndexTest {
+
+    public MinHashIndexTest() {
+    }
+
+    @Test
+    public void testCreateSignature() {
+        MinHashIndex index = new MinHashIndex(10);
+        int[] sig1 = index.createSignature(Arrays.asList("wtf", "wikileaks", "task", "force"));
+        int[] sig2 = new MinHashIndex(10).createSignature(Arrays.asList("force", "task", "wikileaks", "wtf"));
+        assertEquals(index.getSignatureLength(), sig1.length);
+        assertTrue(Arrays.equals(sig1, sig2));
+
+        int[] sig3 = index.createSignature(Arrays.asList("buy", "twitter", "followers", "now"));
+        assertTrue(MinHashIndex.calcSimilarity(sig1, sig3) < 0.3);
+    }
+
+    @Test
+    public void testFindSimilar() {
+        MinHashIndex index = new MinHashIndex(10);
+        int[] sig1 = index.createSignature(Arrays.asList("wtf", "wikileaks", "task", "force"));
+        int[] sig2 = index.createSignature(Arrays.asList("buy", "twitter", "followers", "now"));
+        index.add(1L, 1000L, sig1, null);
+        index.add(2L, 1000L, sig2, null);
+
+        List<Long> res = index.findSimilar(3L, sig1, null, 0.7, 0);
+        assertEquals(1, res.size());
+        assertEquals(1L, (long) res.get(0));
+
+        // do not find itself
+        assertEquals(0, index.findSimilar(1L, sig1, null, 0.7, 0).size());
+
+        // too old
+        assertEquals(0, index.findSimilar(3L, sig1, null, 0.7, 2000L).size());
+
+        index.removeOlderThan(2000L);
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testMaxEntries() {
+        MinHashIndex index = new MinHashIndex(1);
+        int[] sig = index.createSignature(Arrays.asList("a", "b", "c"));
+        index.add(1L, 1000L, sig, null);
+        // replacing does not evict
+        index.add(1L, 2000L, sig, null);
+        assertEquals(0, index.getEvicted());
+
+        // the oldest entry is evicted
+        index.add(2L, 3000L, sig, null);
+        assertEquals(1, index.size());
+        assertEquals(1, index.getEvicted());
+        assertEquals(Arrays.asList(2L), index.findSimilar(3L, sig, null, 0.7, 0L));
+    }
+}
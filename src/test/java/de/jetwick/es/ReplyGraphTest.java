@@ -0,0 +1,54 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class ReplyGraphTest {
+
+    @Test
+    public void testHasOtherReply() {
+        ReplyGraph graph = new ReplyGraph(10, 10);
+        assertNull(graph.hasOtherReply(1L, "peter", 2L));
+
+        graph.setLoaded(1L);
+        assertFalse(graph.hasOtherReply(1L, "peter", 2L));
+
+        graph.addEdge(1L, "peter", 2L);
+        // the same reply is not a duplicate
+        assertFalse(graph.hasOtherReply(1L, "peter", 2L));
+        assertTrue(graph.hasOtherReply(1L, "peter", 3L));
+        assertFalse(graph.hasOtherReply(1L, "karsten", 3L));
+    }
+
+    @Test
+    public void testNotLoaded() {
+        ReplyGraph graph = new ReplyGraph(10, 10);
+        graph.addEdge(1L, "peter", 2L);
+        // known edges give a positive answer even if not loaded
+        assertTrue(graph.hasOtherReply(1L, "peter", 3L));
+        assertNull(graph.hasOtherReply(1L, "karsten", 3L));
+
+        graph.clear();
+        assertNull(graph.hasOtherReply(1L, "peter", 3L));
+        assertEquals(0, graph.size());
+    }
+}
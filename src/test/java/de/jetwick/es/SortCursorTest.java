@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 Peter Karich, jetwick_@_pannous_._info.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.es;
+
+import de.jetwick.util.StrEntry;
+import java.util.Arrays;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.OrFilterBuilder;
+import org.elasticsearch.index.query.RangeFilterBuilder;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static de.jetwick.es.JetwickQueryTest.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class SortCursorTest {
+
+    public SortCursorTest() {
+    }
+
+    @Test
+    public void testParse() {
+        SortCursor cursor = new SortCursor(new Object[]{3L, 1.5d, -2L}, 4);
+        assertEquals("4_l3_d1.5_l-2", cursor.toString());
+        assertEquals(cursor, SortCursor.parse(cursor.toString()));
+        assertArrayEquals(new Object[]{3L, 1.5d, -2L}, SortCursor.parse(cursor.toString()).getValues());
+    }
+
+    @Test
+    public void testNormalize() {
+        assertArrayEquals(new Object[]{3L, 2.5d}, SortCursor.normalize(new Object[]{3, 2.5f}));
+        assertNull(SortCursor.normalize(new Object[]{3, "test"}));
+        assertNull(SortCursor.normalize(new Object[0]));
+    }
+
+    @Test
+    public void testCreateFilter() throws Exception {
+        FilterBuilder fb = new SortCursor(new Object[]{5L}, 1).createFilter(Arrays.asList(new StrEntry("retw_i", "desc")));
+        assertTrue(fb instanceof RangeFilterBuilder);
+        assertEquals(c("{'range':{'retw_i':{'from':null,'to':5,'include_lower':true,'include_upper':true}}}"), toString(fb));
+
+        fb = new SortCursor(new Object[]{5L, 100L}, 1).createFilter(Arrays.asList(
+                new StrEntry("retw_i", "asc"), new StrEntry("dt", "asc")));
+        assertTrue(fb instanceof OrFilterBuilder);
+        String str = toString(fb);
+        assertTrue(str, str.contains(c("{'range':{'retw_i':{'from':5,'to':null,'include_lower':false,'include_upper':true}}}")));
+        assertTrue(str, str.contains(c("{'range':{'dt':{'from':100,'to':null,'include_lower':true,'include_upper':true}}}")));
+
+        try {
+            new SortCursor(new Object[]{5L}, 1).createFilter(Arrays.asList(
+                    new StrEntry("retw_i", "asc"), new StrEntry("dt", "asc")));
+            assertTrue(false);
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void testCursorSortFields() {
+        JetwickQuery q = new TweetQuery().setSort(ElasticTweetSearch.RT_COUNT, "desc");
+        assertEquals(Arrays.asList(new StrEntry(ElasticTweetSearch.RT_COUNT, "desc"),
+                new StrEntry(ElasticTweetSearch.DATE, "desc")), q.getCursorSortFields());
+
+        q.setSort(ElasticTweetSearch.DATE, "asc");
+        assertEquals(1, q.getCursorSortFields().size());
+        assertEquals(0, new TweetQuery().getCursorSortFields().size());
+    }
+}
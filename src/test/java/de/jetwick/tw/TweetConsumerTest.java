@@ -30,6 +30,7 @@ import de.jetwick.util.GenericUrlResolver;
 import de.jetwick.util.MyDate;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import org.junit.After;
 import org.junit.Before;
@@ -163,6 +164,66 @@ public class TweetConsumerTest extends JetwickTestClass {
         assertFalse(resolver.getInputQueue().contains(tw3));
     }
 
+    @Test
+    public void testPipeline() throws InterruptedException {
+        tester.getSearch().setRemoveOlderThanDays(1);
+
+        BlockingQueue<JTweet> queue = tweetConsumer.register("pipeline", 100, 10);
+        tweetConsumer.setStageThreads(2, 2, 1);
+        tweetConsumer.start();
+        try {
+            JTweet tw = createTweet(1L, "@daniel fancy!", "timetabling");
+            tw.setCreatedAt(new Date());
+            JTweet tw2 = createTweet(2L, "text2", "timetabling");
+            tw2.setCreatedAt(new Date());
+            // put a duplicate
+            queue.put(tw);
+            queue.put(tw);
+            queue.put(tw2);
+
+            for (int i = 0; i < 100 && resolver.getInputQueue().size() < 2; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(2, resolver.getInputQueue().size());
+            assertTrue(resolver.getInputQueue().contains(tw));
+            assertTrue(resolver.getInputQueue().contains(tw2));
+        } finally {
+            tweetConsumer.interrupt();
+            tweetConsumer.join(5000);
+        }
+        assertFalse(tweetConsumer.isAlive());
+    }
+
+    @Test
+    public void testWeightedPolling() {
+        BlockingQueue<JTweet> queue1 = tweetConsumer.register("normal", 100, 2);
+        BlockingQueue<JTweet> queue2 = tweetConsumer.register("preferred", 100, 2, 3);
+        for (int i = 0; i < 20; i++) {
+            queue1.add(createTweet(i, "text" + i, "userA"));
+            queue2.add(createTweet(100 + i, "text" + i, "userB"));
+        }
+
+        List<List<JTweet>> batches = tweetConsumer.pollBatches();
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(6, batches.get(1).size());
+
+        // the share of an empty queue goes to the other queue
+        queue1.clear();
+        batches = tweetConsumer.pollBatches();
+        assertEquals(1, batches.size());
+        assertEquals(8, batches.get(0).size());
+    }
+
+    @Test
+    public void testCountDropped() {
+        BlockingQueue<JTweet> queue = tweetConsumer.register("small", 2, 1);
+        assertTrue(queue.offer(createTweet(1L, "text1", "userA")));
+        assertTrue(queue.offer(createTweet(2L, "text2", "userA")));
+        assertFalse(queue.offer(createTweet(3L, "text3", "userA")));
+        assertEquals(1, tweetConsumer.getQueueInfos().get(0).getDropped());
+    }
+
     JTweet createTweet(long id, String twText, String user) {
         Random rand = new Random();
         double d = rand.nextDouble();
@@ -19,12 +19,16 @@ package de.jetwick.tw;
 import java.io.IOException;
 import de.jetwick.data.JTweet;
 import de.jetwick.data.JUser;
+import de.jetwick.util.Helper;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -131,6 +135,108 @@ public class TweetDetectorTest {
         assertEquals("http test ", TweetDetector.stripNoiseFromWord("http;test;"));
     }
     
+    @Test
+    public void testSameTermsAsRegexImpl() throws IOException {
+        List<String> corpus = new ArrayList<String>();
+        for (String line : Helper.readFile(Helper.createBuffReaderCP("/de/jetwick/tw/tweets.txt"))) {
+            String text = line.replace("\\n", "\n").replace("\\t", "\t");
+            corpus.add(text);
+            corpus.add("<b>" + text + "</b>");
+            corpus.add("#" + text + " #");
+        }
+
+        // random strings out of the special characters
+        Random rand = new Random(1);
+        String chars = "ab #@:;&.!?)([],><-\n\t\r/hpst_'\"";
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = rand.nextInt(30);
+            for (int j = 0; j < len; j++) {
+                int r = rand.nextInt(chars.length() + 3);
+                if (r == chars.length())
+                    sb.append("http://");
+                else if (r == chars.length() + 1)
+                    sb.append("<b>");
+                else if (r == chars.length() + 2)
+                    sb.append("</b>");
+                else
+                    sb.append(chars.charAt(r));
+            }
+            corpus.add(sb.toString());
+        }
+
+        for (String text : corpus) {
+            String lower = text.toLowerCase();
+            String expected;
+            try {
+                expected = regexStripNoiseFromWord(lower);
+            } catch (StringIndexOutOfBoundsException ex) {
+                // old implementation failed if only highlighting was present
+                continue;
+            }
+            assertEquals(text, expected, TweetDetector.stripNoiseFromWord(lower));
+
+            Map<String, Integer> expTerms = new LinkedHashMap<String, Integer>();
+            Map<String, Integer> expLangs = new LinkedHashMap<String, Integer>();
+            regexOneTweet(expTerms, expLangs, lower);
+            TweetDetector detector = new TweetDetector().runOne(text);
+            assertEquals(text, new ArrayList(expTerms.entrySet()).toString(),
+                    new ArrayList(detector.getTerms().entrySet()).toString());
+            assertEquals(text, expLangs, detector.getLanguages());
+        }
+    }
+
+    /**
+     * the former regex based implementation of stripNoiseFromWord
+     */
+    static String regexStripNoiseFromWord(String str) {
+        if (str.length() < 2)
+            return str;
+
+        str = str.replaceAll("<b>", "");
+        str = str.replaceAll("</b>", "");
+        str = str.replaceAll("http[s]?://[^ ]*", " ");
+        str = str.replaceAll("[\\\"\\:\\;\\&\\.\\!\\?\\)\\(\\[\\]\\,\\>\\<\\-\\n\\t\\&]", " ");
+        str = str.replaceAll(" #", " ");
+        if (str.charAt(0) == '#')
+            str = str.substring(1);
+        str = str.replaceAll("^#", " ");
+        str = str.replaceAll(":-", " ");
+        str = str.replaceAll(";-", " ");
+        return str;
+    }
+
+    static void regexOneTweet(Map<String, Integer> termMap, Map<String, Integer> langMap, String text) {
+        text = regexStripNoiseFromWord(text);
+        String tmpTerms[] = text.split("\\s");
+        int counter = 0;
+        for (String term : tmpTerms) {
+            counter++;
+            if (term.length() < 2 || term.length() > 70 || term.startsWith("@"))
+                continue;
+
+            Set<String> detectedLangs = JTweet.LANG_DET_WORDS.get(term);
+            if (detectedLangs != null && counter < tmpTerms.length) {
+                for (String lang : detectedLangs) {
+                    if (lang.equals(TweetDetector.NUM_TERMS)
+                            || lang.equals(TweetDetector.SINGLE_CHAR_TERMS)
+                            || lang.equals(TweetDetector.MISC_TERMS))
+                        continue;
+
+                    Integer integ = langMap.put(lang, 1);
+                    if (integ != null)
+                        langMap.put(lang, integ + 1);
+                }
+            }
+
+            if (JTweet.NOISE_WORDS.get(term) == null) {
+                Integer integ = termMap.put(term, 1);
+                if (integ != null)
+                    termMap.put(term, integ + 1);
+            }
+        }
+    }
+
     @Test
     public void testLanguageDetection() {
         // skip the noise words and last terms for language detection:
@@ -22,6 +22,8 @@ import org.junit.AfterClass;
 import de.jetwick.es.ElasticUserSearch;
 import de.jetwick.JetwickTestClass;
 import de.jetwick.data.JTag;
+import de.jetwick.data.JTweet;
+import de.jetwick.data.JUser;
 import de.jetwick.es.ElasticTagSearchTest;
 import de.jetwick.util.GenericUrlResolver;
 import java.util.Arrays;
@@ -124,6 +126,25 @@ public class TweetProducerViaSearchTest extends JetwickTestClass {
         twProd.updateTag(new JTag("anotherone"), 6);
     }
 
+    @Test
+    public void testBackpressureFactor() {
+        LinkedBlockingQueue<JTweet> q = new LinkedBlockingQueue<JTweet>(10);
+        twProd.setQueue(q);
+        assertEquals(1f, twProd.getBackpressureFactor(), 1e-4);
+        for (int i = 0; i < 5; i++) {
+            q.add(new JTweet(i, "test", new JUser("peter")));
+        }
+        assertEquals(1f, twProd.getBackpressureFactor(), 1e-4);
+        for (int i = 5; i < 10; i++) {
+            q.add(new JTweet(i, "test", new JUser("peter")));
+        }
+        assertEquals(5f, twProd.getBackpressureFactor(), 1e-4);
+
+        // unbounded queue
+        twProd.setQueue(new LinkedBlockingQueue<JTweet>());
+        assertEquals(1f, twProd.getBackpressureFactor(), 1e-4);
+    }
+
     @Test
     public void testFIFO() {
         Queue q = new LinkedBlockingDeque();
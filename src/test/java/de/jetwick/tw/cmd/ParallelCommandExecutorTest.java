@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2010 Peter Karich <jetwick_@_pannous_._info>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.jetwick.tw.cmd;
+
+import de.jetwick.data.JTweet;
+import de.jetwick.data.JUser;
+import de.jetwick.util.AnyExecutor;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, peat_hal 'at' users 'dot' sourceforge 'dot' net
+ */
+public class ParallelCommandExecutorTest {
+
+    private ExecutorService service;
+
+    public ParallelCommandExecutorTest() {
+    }
+
+    @Before
+    public void setUp() {
+        service = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        service.shutdownNow();
+    }
+
+    List<JTweet> createTweets(String text) {
+        JUser[] users = new JUser[7];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new JUser("user" + i);
+        }
+        List<JTweet> list = new ArrayList<JTweet>();
+        for (int i = 0; i < 100; i++) {
+            list.add(new JTweet(i, text + " " + i % 3, users[i % users.length]).setCreatedAt(new Date(i)));
+        }
+        return list;
+    }
+
+    @Test
+    public void testPartition() {
+        ParallelCommandExecutor executor = new ParallelCommandExecutor(createTweets("test"), service, 16);
+        List<List<JTweet>> parts = executor.partition();
+        int count = 0;
+        for (List<JTweet> part : parts) {
+            assertFalse(part.isEmpty());
+            count += part.size();
+            long last = -1;
+            for (JTweet tw : part) {
+                // order is kept
+                assertTrue(tw.getTwitterId() > last);
+                last = tw.getTwitterId();
+                // one user is not splitted
+                for (List<JTweet> other : parts) {
+                    if (other != part)
+                        for (JTweet otherTw : other) {
+                            assertFalse(otherTw.getFromUser().equals(tw.getFromUser()));
+                        }
+                }
+            }
+        }
+        assertEquals(100, count);
+    }
+
+    @Test
+    public void testExecuteCommandsInOrder() {
+        final AtomicInteger first = new AtomicInteger();
+        final AtomicInteger second = new AtomicInteger();
+        new ParallelCommandExecutor(createTweets("test"), service, 16).add(new AnyExecutor<JTweet>() {
+
+            @Override
+            public JTweet execute(JTweet tw) {
+                first.incrementAndGet();
+                return tw;
+            }
+        }, new AnyExecutor<JTweet>() {
+
+            @Override
+            public JTweet execute(JTweet tw) {
+                // the first command finished for all tweets
+                assertEquals(100, first.get());
+                second.incrementAndGet();
+                return tw;
+            }
+        }).execute();
+        assertEquals(100, second.get());
+    }
+
+    @Test
+    public void testSameResultAsSerial() {
+        String text = "Schweinegrippe: Schwangere sollen sich impfen lassen http://tinyurl.com/yzq9nbu";
+        List<JTweet> serial = createTweets(text);
+        new SerialCommandExecutor(serial).add(new TermCreateCommand()).execute();
+
+        List<JTweet> parallel = createTweets(text);
+        new ParallelCommandExecutor(parallel, service, 16).add(new TermCreateCommand()).execute();
+
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.get(i).getQuality(), parallel.get(i).getQuality());
+            assertEquals(serial.get(i).getLanguage(), parallel.get(i).getLanguage());
+            assertEquals(serial.get(i).getTextTerms(), parallel.get(i).getTextTerms());
+        }
+    }
+}
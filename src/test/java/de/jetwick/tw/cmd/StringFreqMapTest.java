@@ -16,7 +16,10 @@
 
 package de.jetwick.tw.cmd;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -79,4 +82,55 @@ public class StringFreqMapTest {
         map2.containsValue(10);
         map2.containsValue(4);
     }
+
+    @Test
+    public void testOrSizeOfNormalMap() {
+        StringFreqMap map = new StringFreqMap();
+        map.set("a", 2).set("c", 10).set("b", 20);
+        Map<String, Integer> map2 = new LinkedHashMap<String, Integer>();
+        map2.put("a", 5);
+        map2.put("f", 11);
+        assertEquals(46, map.orSize(map2));
+        assertEquals(5, map.andSize(map2));
+    }
+
+    @Test
+    public void testGrowAndRemove() {
+        StringFreqMap map = new StringFreqMap(2);
+        for (int i = 0; i < 100; i++) {
+            map.inc("t" + i, i);
+        }
+        assertEquals(100, map.size());
+        assertEquals(42, map.getCount("t42"));
+        assertEquals(0, map.getCount("unknown"));
+        assertNull(map.get("unknown"));
+
+        Iterator<String> iter = map.keySet().iterator();
+        while (iter.hasNext()) {
+            if (map.get(iter.next()) % 2 == 1)
+                iter.remove();
+        }
+        assertEquals(50, map.size());
+        assertFalse(map.containsKey("t41"));
+        assertEquals(42, (int) map.get("t42"));
+
+        // insertion order is kept
+        assertEquals("t0", map.keySet().iterator().next());
+        assertEquals(42, (int) map.remove("t42"));
+        assertEquals(49, map.size());
+        map.inc("t42", 1);
+        assertEquals(1, (int) map.get("t42"));
+    }
+
+    @Test
+    public void testEqualsLinkedHashMap() {
+        StringFreqMap map = new StringFreqMap();
+        map.set("a", 2).set("b", 3);
+        Map<String, Integer> map2 = new LinkedHashMap<String, Integer>();
+        map2.put("b", 3);
+        map2.put("a", 2);
+        assertEquals(map2, map);
+        assertEquals(map, map2);
+        assertEquals(map2.hashCode(), map.hashCode());
+    }
 }
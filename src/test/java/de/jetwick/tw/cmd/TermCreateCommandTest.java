@@ -346,4 +346,24 @@ public class TermCreateCommandTest {
 //        }
 //        assertTrue("At least on signature should be identical for tweet2 and tweet3", counter > 0);
 //    }    
+
+    @Test
+    public void testTermCache() {
+        TermCache cache = new TermCache(10, 10);
+        TermCreateCommand cmd = new TermCreateCommand().setTermCache(cache);
+        JTweet tw = new JTweet(1L, "java is a nice language", new JUser("peter"));
+        cmd.calcTermsWithoutNoise(tw);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        int terms = tw.getTextTerms().size();
+        assertTrue(terms > 0);
+
+        // removing terms must not change the cache
+        tw.getTextTerms().clear();
+        JTweet fromIndex = new JTweet(1L, "java is a nice language", new JUser("peter"));
+        cmd.calcTermsWithoutNoise(fromIndex);
+        assertEquals(1, cache.getHits());
+        assertEquals(terms, fromIndex.getTextTerms().size());
+        assertEquals(1, cache.size());
+    }
 }
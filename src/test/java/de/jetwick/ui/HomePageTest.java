@@ -25,12 +25,19 @@ import de.jetwick.data.JUser;
 import de.jetwick.tw.TwitterSearch;
 import de.jetwick.tw.queue.QueueThread;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
 import org.apache.wicket.PageParameters;
 import org.apache.wicket.util.tester.FormTester;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.search.facet.InternalFacets;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
 import org.junit.Before;
 import org.junit.Test;
 import twitter4j.TwitterException;
@@ -91,6 +98,30 @@ public class HomePageTest extends WicketPagesTestClass {
         verify(search).query(new LinkedHashSet<JUser>(), query);
     }
 
+    @Test
+    public void testTotalHitsOnLaterPage() throws Exception {
+        ElasticTweetSearch search = getInstance(ElasticTweetSearch.class);
+        // with a cursor the hits only count the tweets after the cursor
+        when(search.queryHits((Collection<JUser>) any(), (JetwickQuery) any())).thenReturn(createResponse(5));
+        when(search.queryFacets((JetwickQuery) any(), (SearchResponse) any())).thenReturn(createResponse(100));
+
+        TweetSearchPage page = new TweetSearchPage(new TweetQuery("java"));
+        tester.startPage(page);
+        page.doSearch(new TweetQuery("java"), 2, false, false);
+        tester.startPage(page);
+        tester.assertNoErrorMessage();
+        tester.assertContains("Found 100 tweets");
+        tester.assertLabel("navigation:msg", "Page 3 of 7");
+        tester.assertVisible("navigation:next");
+        tester.assertVisible("navigation:pre");
+    }
+
+    SearchResponse createResponse(long totalHits) {
+        InternalSearchResponse iRsp = new InternalSearchResponse(
+                new InternalSearchHits(new InternalSearchHit[0], totalHits, 0), new InternalFacets(new ArrayList()), true);
+        return new SearchResponse(iRsp, "", 4, 4, 1L, new ShardSearchFailure[0]);
+    }
+
     @Test
     public void testQueueWhenNoResults() throws InterruptedException {
         TweetSearchPage page = getInstance(TweetSearchPage.class);
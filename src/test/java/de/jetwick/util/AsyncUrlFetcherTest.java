@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2010 Peter Karich jetwick_@_pannous_._info
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.jetwick.util;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class AsyncUrlFetcherTest {
+
+    private static final String PAGE = "<html><head><title>Hello Jetwick</title></head>"
+            + "<body><div><p>Some text of the article which is long enough to be extracted.</p></div></body></html>";
+    private StubHttpServer server;
+    private ExecutorService service;
+    private AsyncUrlFetcher fetcher;
+
+    public AsyncUrlFetcherTest() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubHttpServer();
+        server.addPage("/page", PAGE).addPage("/slow", PAGE, 1000).addPage("/busy", PAGE, 100).
+                addRedirect("/short", "/page").addRedirect("/chain", server.getUrl("/short")).
+                addRedirect("/loop", "/loop");
+        service = Executors.newFixedThreadPool(2);
+        fetcher = new AsyncUrlFetcher(2, service);
+    }
+
+    @After
+    public void tearDown() {
+        fetcher.close();
+        service.shutdownNow();
+        server.stop();
+    }
+
+    @Test
+    public void testFetch() throws Exception {
+        Result res = fetch("/page", 2000);
+        assertNull(res.error);
+        assertEquals(200, res.rsp.getStatus());
+        assertEquals(server.getUrl("/page"), res.rsp.getUrl());
+        assertTrue(res.rsp.isHtml());
+        assertEquals("Hello Jetwick", fetcher.extract(res.rsp).getTitle());
+    }
+
+    @Test
+    public void testRedirects() throws Exception {
+        Result res = fetch("/chain", 2000);
+        assertNull(res.error);
+        assertEquals(server.getUrl("/chain"), res.rsp.getOriginalUrl());
+        assertEquals(server.getUrl("/page"), res.rsp.getUrl());
+        assertEquals(server.getUrl("/page"), fetcher.getKnownRedirect(server.getUrl("/chain")));
+        assertEquals(server.getUrl("/page"), fetcher.getKnownRedirect(server.getUrl("/short")));
+
+        // the known chain is skipped
+        res = fetch("/short", 2000);
+        assertEquals(server.getUrl("/page"), res.rsp.getUrl());
+        assertEquals(1, server.getRequests("/short"));
+        assertEquals(2, server.getRequests("/page"));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        Result res = fetch("/loop", 2000);
+        assertTrue(res.error instanceof IOException);
+
+        res = fetch("/missing", 2000);
+        assertTrue(res.error instanceof IOException);
+
+        res = fetch("/slow", 100);
+        assertTrue(res.error instanceof SocketTimeoutException);
+        assertTrue(GenericUrlResolver.isTimeout(res.error));
+    }
+
+    @Test
+    public void testConnectionsPerHost() throws Exception {
+        fetcher.setMaxConnectionsPerHost(2);
+        List<Result> results = new ArrayList<Result>();
+        for (int i = 0; i < 6; i++) {
+            Result res = new Result();
+            fetcher.fetch(server.getUrl("/busy"), 5000, res);
+            results.add(res);
+        }
+        for (Result res : results) {
+            res.await();
+            assertNull(res.error);
+        }
+        assertEquals(6, server.getRequests("/busy"));
+        assertTrue("" + server.getMaxConcurrent(), server.getMaxConcurrent() <= 2);
+        // the connections are released when they are closed
+        for (int i = 0; i < 100 && fetcher.getActiveHosts() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, fetcher.getActiveHosts());
+    }
+
+    @Test
+    public void testMatchesHostName() {
+        assertTrue(AsyncUrlFetcher.matchesHostName("www.example.com", "WWW.example.com"));
+        assertFalse(AsyncUrlFetcher.matchesHostName("www.example.com", "example.com"));
+        assertTrue(AsyncUrlFetcher.matchesHostName("*.example.com", "www.example.com"));
+        assertFalse(AsyncUrlFetcher.matchesHostName("*.example.com", "example.com"));
+        assertFalse(AsyncUrlFetcher.matchesHostName("*.example.com", "a.b.example.com"));
+        assertFalse(AsyncUrlFetcher.matchesHostName("*.example.com", "www.evil.com"));
+    }
+
+    Result fetch(String path, int timeout) throws InterruptedException {
+        Result res = new Result();
+        fetcher.fetch(server.getUrl(path), timeout, res);
+        res.await();
+        return res;
+    }
+
+    static class Result implements AsyncUrlFetcher.Callback {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        AsyncUrlFetcher.Response rsp;
+        Throwable error;
+
+        @Override
+        public void onResponse(AsyncUrlFetcher.Response rsp) {
+            this.rsp = rsp;
+            latch.countDown();
+        }
+
+        @Override
+        public void onError(Throwable ex) {
+            error = ex;
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("no callback", latch.await(5, TimeUnit.SECONDS));
+        }
+    }
+}
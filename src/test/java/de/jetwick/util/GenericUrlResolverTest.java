@@ -109,6 +109,37 @@ public class GenericUrlResolverTest extends JetwickTestClass {
         assertNotNull(twSearch.findByUrl("http://hiho.de_r").get(0));        
     }
 
+    @Test
+    public void testResolveAsync() throws Exception {
+        StubHttpServer server = new StubHttpServer();
+        server.addPage("/article", "<html><head><title>Async Title</title></head>"
+                + "<body><p>the text of the article</p></body></html>").addRedirect("/s", "/article");
+        AsyncUrlFetcher asyncFetcher = new AsyncUrlFetcher(1, resolver.getService());
+        try {
+            resolver.setAsyncFetcher(asyncFetcher).setMaxInFlight(10);
+            String url = server.getUrl("/s");
+            resolver.putObject(createTweet(1L, url));
+            assertNotNull(resolver.findUrlInCache(url));
+
+            assertTrue(resolver.executeResolveAsync());
+            // the url is removed from the cache after the tweet was queued
+            for (int i = 0; i < 100 && resolver.findUrlInCache(url) != null; i++) {
+                Thread.sleep(20);
+            }
+            assertNull(resolver.findUrlInCache(url));
+            twSearch.forceEmptyQueueAndRefresh(400);
+
+            JTweet tw = twSearch.findByUrl(url).get(0);
+            UrlEntry ue = tw.getUrlEntries().iterator().next();
+            assertEquals(url, ue.getOriginalUrl(tw));
+            assertEquals(server.getUrl("/article"), ue.getResolvedUrl());
+            assertEquals("Async Title", ue.getResolvedTitle());
+        } finally {
+            asyncFetcher.close();
+            server.stop();
+        }
+    }
+
     @Test
     public void testResolveProblem() throws InterruptedException {
         HtmlFetcher fetcher = new HtmlFetcher() {
@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2010 Peter Karich jetwick_@_pannous_._info
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.jetwick.util;
+
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class MetricsTest {
+
+    public MetricsTest() {
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long v : new long[]{0, 1, 31, 32, 33, 100, 1000, 123456789L, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.getIndex(v);
+            long lower = LatencyHistogram.getLowerBound(index);
+            assertTrue(v + " " + lower, lower <= v);
+            assertTrue(v + " " + lower, v - lower <= v / 16);
+            assertTrue(LatencyHistogram.getIndex(v + 1) >= index || v == Long.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void testPercentile() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentile(0.5));
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1000, h.getMax());
+        assertEquals(500.5, h.getMean(), 1e-5);
+        assertEquals(500, h.getPercentile(0.5), 500 / 16);
+        assertEquals(990, h.getPercentile(0.99), 990 / 16);
+        assertEquals(1000, h.getPercentile(1), 1000 / 16);
+    }
+
+    @Test
+    public void testSnapshot() {
+        Metrics metrics = new Metrics();
+        assertSame(metrics.counter("a"), metrics.counter("a"));
+        metrics.counter("a").addAndGet(3);
+        metrics.histogram("h").record(10);
+        metrics.register("g", new Metrics.Gauge() {
+
+            @Override
+            public Number getValue() {
+                return 1.5f;
+            }
+        }).register("empty", new Metrics.Gauge() {
+
+            @Override
+            public Number getValue() {
+                return null;
+            }
+        });
+
+        Map<String, Number> map = metrics.snapshot();
+        assertEquals(3L, map.get("a"));
+        assertEquals(1L, map.get("h.count"));
+        assertEquals(10L, map.get("h.p99"));
+        assertFalse(map.containsKey("empty"));
+        assertEquals("{\"a\":3,\"g\":1.5,\"h.count\":1,\"h.max\":10,\"h.mean\":10.0,"
+                + "\"h.p50\":10,\"h.p90\":10,\"h.p99\":10}", metrics.toJson());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2010 Peter Karich jetwick_@_pannous_._info
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.jetwick.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class ResultCacheTest {
+
+    public ResultCacheTest() {
+    }
+
+    @Test
+    public void testGet() {
+        ResultCache<String, String> cache = new ResultCache<String, String>(10, 60 * 1000);
+        assertEquals("a1", cache.get("a", new Loader("a1")));
+        assertEquals("a1", cache.get("a", new Loader("a2")));
+        assertEquals("b1", cache.get("b", new Loader("b1")));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1f / 3, cache.getHitRate(), 1e-5);
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        ResultCache<String, String> cache = new ResultCache<String, String>(10, 20);
+        assertEquals("a1", cache.get("a", new Loader("a1")));
+        Thread.sleep(50);
+        assertEquals("a2", cache.get("a", new Loader("a2")));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testMaxSize() {
+        ResultCache<Integer, String> cache = new ResultCache<Integer, String>(5, 60 * 1000);
+        for (int i = 0; i < 100; i++) {
+            cache.get(i, new Loader("" + i));
+        }
+        assertTrue(cache.size() <= 5);
+    }
+
+    @Test
+    public void testExceptionIsNotCached() {
+        ResultCache<String, String> cache = new ResultCache<String, String>(10, 60 * 1000);
+        try {
+            cache.get("a", new Callable<String>() {
+
+                @Override
+                public String call() {
+                    throw new IllegalStateException("test");
+                }
+            });
+            assertTrue(false);
+        } catch (IllegalStateException ex) {
+        }
+        assertEquals("a1", cache.get("a", new Loader("a1")));
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        final ResultCache<String, String> cache = new ResultCache<String, String>(10, 60 * 1000);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<String> slow = new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "slow";
+            }
+        };
+
+        ExecutorService service = Executors.newFixedThreadPool(4);
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        futures.add(service.submit(new Callable<String>() {
+
+            @Override
+            public String call() {
+                return cache.get("a", slow);
+            }
+        }));
+        started.await();
+        for (int i = 0; i < 3; i++) {
+            futures.add(service.submit(new Callable<String>() {
+
+                @Override
+                public String call() {
+                    return cache.get("a", slow);
+                }
+            }));
+        }
+
+        // wait until the other requests are waiting for the first one
+        for (int i = 0; i < 100 && cache.getCoalesced() < 3; i++) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        for (Future<String> f : futures) {
+            assertEquals("slow", f.get(5, TimeUnit.SECONDS));
+        }
+        service.shutdown();
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(3, cache.getCoalesced());
+    }
+
+    static class Loader implements Callable<String> {
+
+        private final String val;
+
+        public Loader(String val) {
+            this.val = val;
+        }
+
+        @Override
+        public String call() {
+            return val;
+        }
+    }
+}
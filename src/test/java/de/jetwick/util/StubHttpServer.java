@@ -0,0 +1,147 @@
+/*
+ *  Copyright 2010 Peter Karich jetwick_@_pannous_._info
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.jetwick.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local http server on a free port which serves fixed pages and redirects
+ * and counts the requests
+ *
+ * @author Peter Karich, jetwick_@_pannous_._info
+ */
+public class StubHttpServer {
+
+    private final HttpServer server;
+    private final ExecutorService service = Executors.newCachedThreadPool();
+    private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    public StubHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(service);
+        server.start();
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    public StubHttpServer addPage(String path, String html) throws IOException {
+        return addPage(path, html, 0);
+    }
+
+    /**
+     * @param delay milliseconds to wait before the page is returned
+     */
+    public StubHttpServer addPage(final String path, String html, final long delay) throws IOException {
+        final byte[] bytes = html.getBytes("UTF-8");
+        server.createContext(path, new Handler(path) {
+
+            @Override
+            void handle(HttpExchange exchange, String p) throws Exception {
+                if (delay > 0)
+                    Thread.sleep(delay);
+                exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(bytes);
+                os.close();
+            }
+        });
+        return this;
+    }
+
+    /**
+     * @param location absolute or relative to the path
+     */
+    public StubHttpServer addRedirect(String path, final String location) {
+        server.createContext(path, new Handler(path) {
+
+            @Override
+            void handle(HttpExchange exchange, String p) throws Exception {
+                exchange.getResponseHeaders().set("Location", location);
+                exchange.sendResponseHeaders(301, -1);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * @return the number of requests for the exact path
+     */
+    public int getRequests(String path) {
+        AtomicInteger i = requests.get(path);
+        return i == null ? 0 : i.get();
+    }
+
+    /**
+     * @return the maximal number of requests which were handled at the same
+     * time
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent.get();
+    }
+
+    public void stop() {
+        server.stop(0);
+        service.shutdownNow();
+    }
+
+    private abstract class Handler implements HttpHandler {
+
+        private final String path;
+
+        Handler(String path) {
+            this.path = path;
+        }
+
+        abstract void handle(HttpExchange exchange, String path) throws Exception;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.putIfAbsent(path, new AtomicInteger());
+            requests.get(path).incrementAndGet();
+            int now = concurrent.incrementAndGet();
+            while (true) {
+                int max = maxConcurrent.get();
+                if (now <= max || maxConcurrent.compareAndSet(max, now))
+                    break;
+            }
+            try {
+                handle(exchange, path);
+            } catch (IOException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IOException(ex.getMessage());
+            } finally {
+                concurrent.decrementAndGet();
+                exchange.close();
+            }
+        }
+    }
+}